@@ -34,11 +34,14 @@ import dk.sosi.seal.modelbuilders.*;
 import dk.sosi.seal.pki.*;
 import dk.sosi.seal.pki.impl.PropertiesSOSIConfiguration;
 import dk.sosi.seal.vault.CredentialVault;
+import dk.sosi.seal.xml.EnvelopeSplitter;
 import dk.sosi.seal.xml.XmlUtil;
 import dk.sosi.seal.xml.XmlUtilException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
 
+import java.io.StringReader;
 import java.security.cert.X509Certificate;
 import java.util.List;
 import java.util.Properties;
@@ -76,10 +79,14 @@ public class SOSIFactory {
     public static final String PROPERTYNAME_SOSI_LDAP_CERTIFICATE_HOST_OCES2 = "sosi:federationcertificate.host.oces2";
     public static final String PROPERTYNAME_SOSI_LDAP_CERTIFICATE_PORT_OCES2 = "sosi:federationcertificate.port.oces2";
 
-	/** Cache the DOM <code>DocumentBuilderFactory</code>. Please note that this constitutes a JEE compliance problem. Set to <code>false</code> if this is a problem */
+	/** Cache the DOM <code>DocumentBuilderFactory</code> and pool pre-configured <code>DocumentBuilder</code>s per thread. Please note that this constitutes a JEE compliance problem. Set to <code>false</code> if this is a problem */
 	public static final String PROPERTYNAME_SOSI_USE_DOCUMENT_BUILDER_FACTORY_CACHE  = "sosi:useDBFCache";
 	public static final String PROPERTYVALUE_SOSI_USE_DOCUMENT_BUILDER_FACTORY_CACHE  = "true";
 
+	/** Pool pre-configured <code>Transformer</code>s per thread for serializing XML. Read from the system properties when first used. Like <code>sosi:useDBFCache</code> this keeps objects of the application in container threads. Set to <code>false</code> if this is a problem */
+	public static final String PROPERTYNAME_SOSI_USE_TRANSFORMER_CACHE = "sosi:useTransformerCache";
+	public static final String PROPERTYVALUE_SOSI_USE_TRANSFORMER_CACHE = "true";
+
     // enhanced validation against specialized schemas
     public static final String PROPERTYNAME_SOSI_VALIDATE_ENHANCED = "sosi:validate.enhanced";
     public static final String PROPERTYVALUE_SOSI_VALIDATE_ENHANCED = "true";
@@ -96,9 +103,21 @@ public class SOSIFactory {
 
     public static final String PROPERTYNAME_SOSI_CHECK_TRUST_FOR_SECURITY_TOKEN_RESPONSE = "sosi:check.trust.SecurityTokenResponse";
 
+    // maximum number of validated assertion signatures to remember - 0 disables the cache
+    public static final String PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE = "sosi:signaturecache.size";
+    public static final String PROPERTYVALUE_SOSI_SIGNATURE_CACHE_SIZE = "0";
+
+    // seconds before trust in the certificate of a cached signature is checked again
+    public static final String PROPERTYNAME_SOSI_SIGNATURE_CACHE_TRUST_TTL = "sosi:signaturecache.trustttl";
+    public static final String PROPERTYVALUE_SOSI_SIGNATURE_CACHE_TRUST_TTL = "60";
+
+    // system property naming the dk.sosi.seal.xml.RandomSource implementation used for ids and nonces
+    public static final String PROPERTYNAME_SOSI_RANDOM_SOURCE = "sosi:randomsource";
+
 	private Federation federation;
     private SignatureProvider signatureProvider;
 	private Properties properties;
+	private PropertiesSOSIConfiguration configuration;
 
     /**
      * <p>
@@ -173,6 +192,7 @@ public class SOSIFactory {
         }
         this.signatureProvider = provider;
         this.properties = props;
+        this.configuration = new PropertiesSOSIConfiguration(props);
     }
 
 	/**
@@ -678,11 +698,32 @@ public class SOSIFactory {
     }
 
     public IDCard copyToVOCESSignedIDCard(IDCard origCard, boolean setCertAttributesAsSubjectNameID) {
+        return getSignedIdCard(copyToVOCESIdCard(origCard, setCertAttributesAsSubjectNameID));
+    }
+
+    /**
+     * Like {@link #copyToVOCESSignedIDCard(IDCard, boolean)}, but does not wait for the VOCES signature.<br />
+     * With an {@link AsyncSignatureProvider} (e.g. a {@link PooledSignatureProvider} in front of an HSM) many copies
+     * can be signed concurrently by a bounded number of signing sessions. Register a {@link SignatureCallback} to
+     * be handed each copy when it has been signed.
+     *
+     * @param origCard
+     *            the id card to copy data from
+     * @param setCertAttributesAsSubjectNameID
+     *            whether the certificate attributes of the original id card are used as subject name id
+     * @return a new <code>UserIDCard</code> or <code>SystemIDCard</code>, once it has been signed.
+     */
+    public SignatureFuture<IDCard> copyToVOCESSignedIDCardAsync(IDCard origCard, boolean setCertAttributesAsSubjectNameID) {
+        IDCard result = copyToVOCESIdCard(origCard, setCertAttributesAsSubjectNameID);
+        return result.signAsync(serializeIdCard(result), signatureProvider);
+    }
+
+    private IDCard copyToVOCESIdCard(IDCard origCard, boolean setCertAttributesAsSubjectNameID) {
         if (origCard instanceof UserIDCard) {
             UserIDCard userIdCard = (UserIDCard) origCard;
-            return copyToVOCESSignedIdCard(userIdCard, userIdCard.getUserInfo(), setCertAttributesAsSubjectNameID);
+            return copyToVOCESIdCard(userIdCard, userIdCard.getUserInfo(), setCertAttributesAsSubjectNameID);
         } else if (origCard instanceof SystemIDCard) {
-            return copyToVOCESSignedIdCard((SystemIDCard) origCard, setCertAttributesAsSubjectNameID);
+            return copyToVOCESIdCard((SystemIDCard) origCard, setCertAttributesAsSubjectNameID);
         } else {
             throw new ModelException("Unknown IDCard type");
         }
@@ -707,11 +748,14 @@ public class SOSIFactory {
     }
 
     public IDCard copyToVOCESSignedIdCard(UserIDCard origUserIdCard, UserInfo newUserInfo, boolean setCertAttributesAsSubjectNameID) {
+        return getSignedIdCard(copyToVOCESIdCard(origUserIdCard, newUserInfo, setCertAttributesAsSubjectNameID));
+    }
+
+    private IDCard copyToVOCESIdCard(UserIDCard origUserIdCard, UserInfo newUserInfo, boolean setCertAttributesAsSubjectNameID) {
         // if no certHash exists on origCard, generate new on copy
         String certHash = getOrGenerateCertHash(origUserIdCard);
         String alternativeIdentifier = setCertAttributesAsSubjectNameID ? constructCertAttributes(origUserIdCard.getSignedByCertificate()) : null;
-        IDCard result = new UserIDCard(origUserIdCard, getIssuer(), newUserInfo, certHash, alternativeIdentifier);
-        return getSignedIdCard(result);
+        return new UserIDCard(origUserIdCard, getIssuer(), newUserInfo, certHash, alternativeIdentifier);
     }
 
     private String constructCertAttributes(X509Certificate signedByCertificate) {
@@ -733,11 +777,14 @@ public class SOSIFactory {
      * @return a new <code>UserIDCard</code>.
      */
     private IDCard copyToVOCESSignedIdCard(SystemIDCard origSystemIdCard, boolean setCertAttributesAsSubjectNameID) {
+        return getSignedIdCard(copyToVOCESIdCard(origSystemIdCard, setCertAttributesAsSubjectNameID));
+    }
+
+    private IDCard copyToVOCESIdCard(SystemIDCard origSystemIdCard, boolean setCertAttributesAsSubjectNameID) {
         // if no certHash exists on origCard, generate new on copy
         String certHash = getOrGenerateCertHash(origSystemIdCard);
         String alternativeIdentifier = setCertAttributesAsSubjectNameID ? constructCertAttributes(origSystemIdCard.getSignedByCertificate()) : null;
-        IDCard result = new SystemIDCard(origSystemIdCard, getIssuer(), certHash, alternativeIdentifier);
-        return getSignedIdCard(result);
+        return new SystemIDCard(origSystemIdCard, getIssuer(), certHash, alternativeIdentifier);
     }
 
     private String getOrGenerateCertHash(IDCard origCard) {
@@ -749,11 +796,14 @@ public class SOSIFactory {
     }
 
     private IDCard getSignedIdCard(IDCard result) {
+        result.sign(serializeIdCard(result), signatureProvider);
+        return result;
+    }
+
+    private Document serializeIdCard(IDCard result) {
         Request tmp = createNewRequest(false, "");
         tmp.setIDCard(result);
-        Document doc = tmp.serialize2DOMDocument();
-        result.sign(doc, signatureProvider);
-        return tmp.getIDCard();
+        return tmp.serialize2DOMDocument();
     }
 
     /**
@@ -770,7 +820,7 @@ public class SOSIFactory {
 	 */
 	public Request deserializeRequest(String xml) throws XmlUtilException, ModelBuildException {
 		RequestModelBuilder b = new RequestModelBuilder(this);
-		return b.buildModel(XmlUtil.readXml(properties, xml, validate()));
+		return b.buildModel(readXml(xml));
 	}
 
 	/**
@@ -786,7 +836,7 @@ public class SOSIFactory {
 	 */
 	public Reply deserializeReply(String xml) throws XmlUtilException, ModelBuildException {
 		ReplyModelBuilder b = new ReplyModelBuilder(this);
-		return b.buildModel(XmlUtil.readXml(properties, xml, validate()));
+		return b.buildModel(readXml(xml));
 	}
 
 	/**
@@ -803,7 +853,7 @@ public class SOSIFactory {
 	 */
 	public SecurityTokenRequest deserializeSecurityTokenRequest(String xml) throws XmlUtilException, ModelBuildException {
 		SecurityTokenRequestModelBuilder b = new SecurityTokenRequestModelBuilder(this);
-		return b.buildModel(XmlUtil.readXml(properties, xml, validate()));
+		return b.buildModel(readXml(xml));
 	}
 
 	/**
@@ -820,7 +870,7 @@ public class SOSIFactory {
 	public SecurityTokenResponse deserializeSecurityTokenResponse(String xml) throws XmlUtilException, ModelBuildException {
         boolean checkTrust = Boolean.getBoolean(PROPERTYNAME_SOSI_CHECK_TRUST_FOR_SECURITY_TOKEN_RESPONSE);
 		SecurityTokenResponseModelBuilder b = new SecurityTokenResponseModelBuilder(this, checkTrust);
-		return b.buildModel(XmlUtil.readXml(properties, xml, validate()));
+		return b.buildModel(readXml(xml));
 	}
 
 
@@ -837,7 +887,7 @@ public class SOSIFactory {
 	 */
 	public IDCard deserializeIDCard(String xml) throws XmlUtilException, ModelBuildException {
 		IDCardModelBuilder builder = new IDCardModelBuilder();
-		return builder.buildModel(XmlUtil.readXml(properties, xml, validate()));
+		return builder.buildModel(readXml(xml));
 	}
 
 	/**
@@ -855,7 +905,32 @@ public class SOSIFactory {
 	 */
 	public RequestHeader deserializeRequestHeader(String xml)  throws XmlUtilException, ModelBuildException {
 		RequestHeaderModelBuilder builder = new RequestHeaderModelBuilder(this);
-		return builder.buildModel(XmlUtil.readXml(properties, xml, validate()));
+		return builder.buildModel(readXml(xml));
+	}
+
+	/**
+	 * "Deserializes" the header of a complete SOAP envelope into a <code>RequestHeader</code> model object, without
+	 * building a DOM for the <code>soap:Body</code>.<br />
+	 * The IDCard, MessageID and FlowID are read and validated as by {@link #deserializeRequest(String)}. Signatures
+	 * inside the body are not validated. The body is available verbatim from
+	 * {@link RequestHeaderWithBody#getBodyContent()}, e.g. for forwarding it untouched.<br />
+	 * Note that the body is not even checked for well-formedness. Receivers forwarding it must either trust the
+	 * sender or parse it themselves, e.g. through {@link RequestHeaderWithBody#getBody()}.
+	 *
+	 * @param xml
+	 *            The XML to deserialize.
+	 * @throws XmlUtilException
+	 *             Thrown if the XML could not be read and schema-validated.
+	 * @throws ModelBuildException
+	 *             Thrown if the model builder was not able to deserialize the
+	 *             XML.
+	 *
+	 * @since 2.3.3
+	 */
+	public RequestHeaderWithBody deserializeRequestHeaderFromEnvelope(String xml) throws XmlUtilException, ModelBuildException {
+		EnvelopeSplitter envelope = EnvelopeSplitter.split(xml);
+		RequestHeaderModelBuilder builder = new RequestHeaderModelBuilder(this);
+		return builder.buildModel(readXml(envelope.getEnvelopeWithoutBody()), envelope);
 	}
 
 	/**
@@ -873,14 +948,41 @@ public class SOSIFactory {
 	 */
 	public ReplyHeader deserializeReplyHeader(String xml)  throws XmlUtilException, ModelBuildException {
 		ReplyHeaderModelBuilder builder = new ReplyHeaderModelBuilder(this);
-		return builder.buildModel(XmlUtil.readXml(properties, xml, validate()));
+		return builder.buildModel(readXml(xml));
 	}
 
+	/**
+	 * Returns the <code>AuditEventHandler</code> configured in the supplied properties. A new handler is created on
+	 * each call, use {@link #getAuditEventHandler()} or {@link Federation#getAuditEventHandler()} to reuse one.
+	 *
+	 * @param properties
+	 *            properties possibly containing <code>sosi:federation.audithandler</code>
+	 * @return the configured audit handler
+	 */
 	public static AuditEventHandler getAuditEventHandler(Properties properties) throws ModelException {
-        // TODO: the configuration created should probably be stored to avoid recreating it every time.
         return new PropertiesSOSIConfiguration(properties).getAuditEventHandler();
 	}
 
+	/**
+	 * Returns <code>true</code> if events sent to the supplied handler may have an effect, i.e. unless the handler is
+	 * the default <code>NoAuditEventHandler</code>. Callers can use this to avoid building event parameters.
+	 *
+	 * @param handler
+	 *            the audit handler to check
+	 */
+	public static boolean isAuditingEnabled(AuditEventHandler handler) {
+		return handler != null && handler.getClass() != NoAuditEventHandler.class;
+	}
+
+	/**
+	 * Returns the <code>AuditEventHandler</code> configured for this factory. The handler is resolved once and used
+	 * for all messages deserialized by this factory, so it must be thread-safe if the factory is shared between
+	 * threads, see {@link PropertiesSOSIConfiguration#getAuditEventHandler()}.
+	 */
+	public AuditEventHandler getAuditEventHandler() {
+		return configuration.getAuditEventHandler();
+	}
+
     public String getIssuer() {
         return properties.getProperty(PROPERTYNAME_SOSI_ISSUER, "TheSOSILibrary");
     }
@@ -889,6 +991,10 @@ public class SOSIFactory {
     // Private methods
     // ==================================
 
+	private Document readXml(String xml) throws XmlUtilException {
+		return XmlUtil.readXml(properties, new InputSource(new StringReader(xml)), validate(), getAuditEventHandler());
+	}
+
 	private boolean validate() {
 		return properties.getProperty(PROPERTYNAME_SOSI_VALIDATE, "true").equalsIgnoreCase("true");
 	}
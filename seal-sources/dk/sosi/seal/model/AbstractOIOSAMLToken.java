@@ -35,7 +35,6 @@ import dk.sosi.seal.model.constants.SAMLTags;
 import dk.sosi.seal.xml.XmlUtil;
 import org.w3c.dom.Element;
 
-import java.text.DateFormat;
 import java.util.Date;
 
 /**
@@ -61,11 +60,11 @@ public abstract class AbstractOIOSAMLToken extends AbstractSAMLToken {
      * @return The value of the <code>urn:oid:2.5.4.3</code>/CommonName tag.
      */
     public String getCommonName() {
-        Element commonNameElm = getAttributeElement(OIOSAMLAttributes.COMMON_NAME);
-        if(commonNameElm == null) {
+        String commonName = getAttribute(OIOSAMLAttributes.COMMON_NAME);
+        if(commonName == null) {
             throw new ModelException("Mandatory 'commonName' SAML attribute (urn:oid:2.5.4.3) is missing");
         }
-        return commonNameElm.getTextContent().trim();
+        return commonName;
     }
 
     /**
@@ -113,11 +112,11 @@ public abstract class AbstractOIOSAMLToken extends AbstractSAMLToken {
      * @return The value of the <code>urn:oid:0.9.2342.19200300.100.1.3</code>/email tag.
      */
     public String getEmail() {
-        Element emailElm = getAttributeElement(OIOSAMLAttributes.EMAIL);
-        if(emailElm == null) {
+        String email = getAttribute(OIOSAMLAttributes.EMAIL);
+        if(email == null) {
             throw new ModelException("Mandatory 'email' SAML attribute (urn:oid:0.9.2342.19200300.100.1.3) is missing");
         }
-        return emailElm.getTextContent().trim();
+        return email;
     }
 
     /**
@@ -181,11 +180,11 @@ public abstract class AbstractOIOSAMLToken extends AbstractSAMLToken {
      * @return The value of the <code>urn:oid:2.5.4.4</code>/surName tag.
      */
     public String getSurName() {
-        Element surNameElm = getAttributeElement(OIOSAMLAttributes.SURNAME);
-        if(surNameElm == null) {
+        String surName = getAttribute(OIOSAMLAttributes.SURNAME);
+        if(surName == null) {
             throw new ModelException("Mandatory 'surName' SAML attribute (urn:oid:2.5.4.4) is missing");
         }
-        return surNameElm.getTextContent().trim();
+        return surName;
     }
 
     /**
@@ -200,11 +199,11 @@ public abstract class AbstractOIOSAMLToken extends AbstractSAMLToken {
      * @return The value of the <code>dk:gov:saml:attribute:AssuranceLevel</code> tag.
      */
     public String getAssuranceLevel() {
-        Element assuranceLevelElm = getAttributeElement(OIOSAMLAttributes.ASSURANCE_LEVEL);
-        if(assuranceLevelElm == null) {
+        String assuranceLevel = getAttribute(OIOSAMLAttributes.ASSURANCE_LEVEL);
+        if(assuranceLevel == null) {
             throw new ModelException("Mandatory 'assuranceLevel' SAML attribute (dk:gov:saml:attribute:AssuranceLevel) is missing");
         }
-        return assuranceLevelElm.getTextContent().trim();
+        return assuranceLevel;
     }
 
     /**
@@ -219,11 +218,11 @@ public abstract class AbstractOIOSAMLToken extends AbstractSAMLToken {
      * @return The value of the <code>dk:gov:saml:attribute:SpecVer</code> tag.
      */
     public String getSpecVersion() {
-        Element specVersionElm = getAttributeElement(OIOSAMLAttributes.SPEC_VERSION);
-        if(specVersionElm == null) {
+        String specVersion = getAttribute(OIOSAMLAttributes.SPEC_VERSION);
+        if(specVersion == null) {
             throw new ModelException("Mandatory 'specVersion' SAML attribute (dk:gov:saml:attribute:SpecVer) is missing");
         }
-        return specVersionElm.getTextContent().trim();
+        return specVersion;
     }
 
     /**
@@ -283,15 +282,14 @@ public abstract class AbstractOIOSAMLToken extends AbstractSAMLToken {
     public void validateTimestamp(long allowedDriftInSeconds) throws ModelException {
         if (allowedDriftInSeconds < 0) throw new IllegalArgumentException("'allowedDriftInSeconds' must not be negative!");
         Date now = new Date();
-        DateFormat format = XmlUtil.getDateFormat(true);
 
         if (new Date(now.getTime() + allowedDriftInSeconds * 1000).before(getNotBefore())) {
-            throw new ModelException("OIOSAML token is not valid yet - now: " + format.format(now) +
-                    ". OIOSAML token validity start: " + format.format(getNotBefore()) + ". Allowed clock drift: " + allowedDriftInSeconds + " seconds");
+            throw new ModelException("OIOSAML token is not valid yet - now: " + XmlUtil.toXMLTimeStamp(now, true) +
+                    ". OIOSAML token validity start: " + XmlUtil.toXMLTimeStamp(getNotBefore(), true) + ". Allowed clock drift: " + allowedDriftInSeconds + " seconds");
         }
         if (!new Date(now.getTime() - allowedDriftInSeconds * 1000).before(getNotOnOrAfter())) {
-            throw new ModelException("OIOSAML token no longer valid - now: "  + format.format(now) +
-                    ". OIOSAML token validity end: "  + format.format(getNotOnOrAfter()) + ". Allowed clock drift: " + allowedDriftInSeconds + " seconds");
+            throw new ModelException("OIOSAML token no longer valid - now: "  + XmlUtil.toXMLTimeStamp(now, true) +
+                    ". OIOSAML token validity end: "  + XmlUtil.toXMLTimeStamp(getNotOnOrAfter(), true) + ". Allowed clock drift: " + allowedDriftInSeconds + " seconds");
         }
 
     }
@@ -36,7 +36,11 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author $LastChangedBy:$ $LastChangedDate:$
@@ -44,6 +48,8 @@ import java.util.List;
  */
 public class AbstractSAMLToken extends AbstractDOMInfoExtractor{
 
+    private volatile AttributeIndex attributeIndex;
+
     public AbstractSAMLToken(Element dom) {
         super(dom);
     }
@@ -86,11 +92,17 @@ public class AbstractSAMLToken extends AbstractDOMInfoExtractor{
      * @return The value of the first SAML attribute matching the name or null if no match is found.
      */
     public String getAttribute(String attributeName) {
-        Element attributeElm = getAttributeElement(attributeName);
-        if (attributeElm == null) {
-            return null;
-        }
-        return attributeElm.getTextContent().trim();
+        return getAttributeIndex().values.get(attributeName);
+    }
+
+    /**
+     * Extract the values of all SAML attributes from the DOM.<br />
+     * If several SAML attributes share the same name, only the first is included.
+     *
+     * @return Unmodifiable map from SAML attribute name to value, in document order.
+     */
+    public Map<String, String> getAttributes() {
+        return getAttributeIndex().values;
     }
 
     /**
@@ -108,7 +120,40 @@ public class AbstractSAMLToken extends AbstractDOMInfoExtractor{
     }
 
     protected Element getAttributeElement(String attributeName) {
-        List<Element> nl = getTags(SAMLTags.assertion, SAMLTags.attributeStatement, SAMLTags.attribute);
-        return getFilteredElement(nl, SAMLAttributes.NAME, attributeName);
+        return getAttributeIndex().elements.get(attributeName);
+    }
+
+    private AttributeIndex getAttributeIndex() {
+        // The attribute statement is scanned once, on first access. Racing threads build identical indexes
+        AttributeIndex index = attributeIndex;
+        if (index == null) {
+            index = new AttributeIndex(getTags(SAMLTags.assertion, SAMLTags.attributeStatement, SAMLTags.attribute));
+            attributeIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Immutable index of the <code>saml:Attribute</code> elements of the token by their <code>Name</code>.
+     * The first attribute with a given name wins.
+     */
+    private static final class AttributeIndex {
+
+        private final Map<String, Element> elements;
+        private final Map<String, String> values;
+
+        private AttributeIndex(List<Element> attributes) {
+            Map<String, Element> elementsByName = new HashMap<String, Element>();
+            Map<String, String> valuesByName = new LinkedHashMap<String, String>();
+            for (Element attribute : attributes) {
+                String name = attribute.getAttribute(SAMLAttributes.NAME);
+                if (!elementsByName.containsKey(name)) {
+                    elementsByName.put(name, attribute);
+                    valuesByName.put(name, attribute.getTextContent().trim());
+                }
+            }
+            this.elements = elementsByName;
+            this.values = Collections.unmodifiableMap(valuesByName);
+        }
     }
 }
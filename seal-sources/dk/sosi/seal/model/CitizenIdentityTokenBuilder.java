@@ -163,7 +163,7 @@ public class CitizenIdentityTokenBuilder extends AbstractSAMLBuilder<CitizenIden
 
         Element subjectConfirmationDataElm = createElement(SAMLTags.subjectConfirmationData);
         subjectConfirmationDataElm.setAttributeNS(null, SAMLAttributes.RECIPIENT, recipientURL);
-        subjectConfirmationDataElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.getDateFormat(true).format(deliveryNotOnOrAfter));
+        subjectConfirmationDataElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.toXMLTimeStamp(deliveryNotOnOrAfter, true));
         subjectConfirmationElm.appendChild(subjectConfirmationDataElm);
 
         Element keyInfoElm = createElement(DSTags.keyInfo);
@@ -194,8 +194,8 @@ public class CitizenIdentityTokenBuilder extends AbstractSAMLBuilder<CitizenIden
 
     private Node createConditions() {
         Element conditionsElm = createElement(SAMLTags.conditions);
-        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_BEFORE, XmlUtil.getDateFormat(true).format(notBefore));
-        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.getDateFormat(true).format(notOnOrAfter));
+        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_BEFORE, XmlUtil.toXMLTimeStamp(notBefore, true));
+        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.toXMLTimeStamp(notOnOrAfter, true));
 
         Element audienceRestrictionElm = createElement(SAMLTags.audienceRestriction);
         conditionsElm.appendChild(audienceRestrictionElm);
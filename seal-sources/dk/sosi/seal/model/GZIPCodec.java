@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * GZIP compression used for the URL representation of <code>IdentityToken</code>s.
+ * <p/>
+ * The output is the same as that of <code>GZIPOutputStream</code>, but <code>Deflater</code>s and <code>Inflater</code>s
+ * are reused from small shared pools instead of allocating new native zlib streams for every token. A deflater holds
+ * some 256 KB of native memory, so the pools are bounded and surplus instances are ended rather than kept. The output
+ * buffer is kept per thread. Decompression returns a stream which inflates on demand, so the XML parser reads straight
+ * from the compressed bytes.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+class GZIPCodec {
+
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int TRAILER_LENGTH = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    // Larger buffers are not kept by the pool
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    // Idle zlib streams kept for reuse, shared by all threads
+    private static final int MAX_IDLE_STREAMS = 4;
+
+    private static final BlockingQueue<Deflater> IDLE_DEFLATERS = new ArrayBlockingQueue<Deflater>(MAX_IDLE_STREAMS);
+    private static final BlockingQueue<Inflater> IDLE_INFLATERS = new ArrayBlockingQueue<Inflater>(MAX_IDLE_STREAMS);
+    private static final ThreadLocal<byte[]> IDLE_BUFFER = new ThreadLocal<byte[]>();
+
+    private GZIPCodec() {
+        // static access only
+    }
+
+    /**
+     * GZIP compresses the supplied bytes.
+     *
+     * @param data
+     *            the bytes to compress
+     * @return The compressed bytes including GZIP header and trailer
+     */
+    static byte[] compress(byte[] data) {
+        Deflater deflater = IDLE_DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        byte[] buffer = IDLE_BUFFER.get();
+        if (buffer == null) {
+            buffer = new byte[4096];
+        } else {
+            IDLE_BUFFER.set(null);
+        }
+
+        try {
+            System.arraycopy(HEADER, 0, buffer, 0, HEADER.length);
+            int length = HEADER.length;
+
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+
+            if (length + TRAILER_LENGTH > buffer.length) {
+                buffer = Arrays.copyOf(buffer, length + TRAILER_LENGTH);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            writeInt(buffer, length, (int) crc.getValue());
+            writeInt(buffer, length + 4, data.length);
+            length += TRAILER_LENGTH;
+
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.reset();
+            if (!IDLE_DEFLATERS.offer(deflater)) {
+                deflater.end();
+            }
+            if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+                IDLE_BUFFER.set(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns a stream of the GZIP decompressed contents of the supplied bytes.<br />
+     * The stream should be closed when done, which hands its <code>Inflater</code> back to the pool.
+     *
+     * @param data
+     *            GZIP compressed bytes
+     * @return The decompressed contents
+     * @throws IOException
+     *             if the GZIP header is invalid
+     */
+    static InputStream decompress(byte[] data) throws IOException {
+        int offset = skipHeader(data);
+        Inflater inflater = IDLE_INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        inflater.setInput(data, offset, data.length - offset);
+        return new GZIPContentsInputStream(data, inflater);
+    }
+
+    private static int skipHeader(byte[] data) throws IOException {
+        if (data.length < HEADER.length || data[0] != HEADER[0] || data[1] != HEADER[1]) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (data[2] != Deflater.DEFLATED) {
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = data[3] & 0xff;
+        int offset = HEADER.length;
+        if ((flags & FEXTRA) != 0) {
+            if (offset + 2 > data.length) {
+                throw new EOFException();
+            }
+            offset += 2 + ((data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            offset = skipZeroTerminated(data, offset);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            offset = skipZeroTerminated(data, offset);
+        }
+        if ((flags & FHCRC) != 0) {
+            offset += 2;
+        }
+        if (offset > data.length) {
+            throw new EOFException();
+        }
+        return offset;
+    }
+
+    private static int skipZeroTerminated(byte[] data, int offset) throws EOFException {
+        while (offset < data.length) {
+            if (data[offset++] == 0) {
+                return offset;
+            }
+        }
+        throw new EOFException();
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) | ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Inflates the deflated contents of a GZIP member on demand and checks the trailer when the end is reached.
+     */
+    private static final class GZIPContentsInputStream extends InputStream {
+
+        private final byte[] data;
+        private final CRC32 crc = new CRC32();
+        private Inflater inflater;
+        private int size;
+        private boolean eof;
+
+        private GZIPContentsInputStream(byte[] data, Inflater inflater) {
+            this.data = data;
+            this.inflater = inflater;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (inflater == null) {
+                throw new IOException("Stream closed");
+            }
+            if (eof) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                int n;
+                while ((n = inflater.inflate(b, off, len)) == 0) {
+                    if (inflater.finished()) {
+                        checkTrailer();
+                        eof = true;
+                        return -1;
+                    }
+                    if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    }
+                }
+                crc.update(b, off, n);
+                size += n;
+                return n;
+            } catch (DataFormatException e) {
+                String message = e.getMessage();
+                throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+            }
+        }
+
+        private void checkTrailer() throws IOException {
+            int remaining = inflater.getRemaining();
+            if (remaining < TRAILER_LENGTH) {
+                throw new EOFException("Unexpected end of GZIP trailer");
+            }
+            int offset = data.length - remaining;
+            if (readInt(data, offset) != (int) crc.getValue() || readInt(data, offset + 4) != size) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (inflater != null) {
+                inflater.reset();
+                if (!IDLE_INFLATERS.offer(inflater)) {
+                    inflater.end();
+                }
+                inflater = null;
+            }
+        }
+    }
+}
@@ -35,9 +35,6 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.Validator;
 import java.io.IOException;
 
 /**
@@ -46,8 +43,6 @@ import java.io.IOException;
  */
 public class HealthcareContextToken extends AbstractSAMLToken {
 
-    private static Schema schema;
-
     public HealthcareContextToken(Element dom) {
         super(dom);
         validateSchema(dom);
@@ -132,8 +127,7 @@ public class HealthcareContextToken extends AbstractSAMLToken {
 
     private void validateSchema(Node node) {
         try {
-            final Validator validator = getSchema().newValidator();
-            validator.validate(new DOMSource(node));
+            SchemaUtil.validate(SchemaUtil.OIOSAML_SCHEMA, node);
         } catch (SAXException e) {
             throw new ModelBuildException("Error validating HealthcareContextToken", e);
         } catch (IOException e) {
@@ -141,12 +135,4 @@ public class HealthcareContextToken extends AbstractSAMLToken {
         }
     }
 
-    private static synchronized Schema getSchema() throws SAXException {
-        if (schema == null) {
-            schema = SchemaUtil.loadSchema("/oiosaml/standard-saml.xsd");
-        }
-        return schema;
-    }
-
-
 }
@@ -35,6 +35,8 @@ import dk.sosi.seal.model.constants.IDValues;
 import dk.sosi.seal.model.constants.NameSpaces;
 import dk.sosi.seal.model.dombuilders.IDCardDOMBuilder;
 import dk.sosi.seal.pki.Federation;
+import dk.sosi.seal.pki.SignatureFuture;
+import dk.sosi.seal.pki.SignatureFutureTask;
 import dk.sosi.seal.pki.SignatureProvider;
 import dk.sosi.seal.pki.SignatureProviderFactory;
 import dk.sosi.seal.vault.CredentialVault;
@@ -416,6 +418,41 @@ public abstract class IDCard implements Serializable {
         }
     }
 
+    /**
+     * Requests a signature of a document without waiting for the provider.<br />
+     * The <code>IDCard</code> is marked as signed by the thread completing the signature, after which the returned
+     * <code>SignatureFuture</code> is done and its callbacks are invoked. The document must not be used until then.
+     *
+     * @param document
+     *            The document to sign.
+     * @param provider
+     *            Object that gives access to sign method
+     * @return This <code>IDCard</code>, once it has been signed.
+     */
+    public SignatureFuture<IDCard> signAsync(Document document, SignatureProvider provider) {
+        if(!needsSignature) {
+            SignatureFutureTask<IDCard> signed = new SignatureFutureTask<IDCard>(new Runnable() {
+                public void run() {
+                }
+            }, this);
+            signed.run();
+            return signed;
+        }
+        if(domElement == null) {
+            throw new IllegalStateException("IDCard DOM has not been prepared");
+        }
+        final String[] referenceUris = { IDValues.IDCARD };
+        final SignatureConfiguration configuration = new SignatureConfiguration(referenceUris, IDValues.IDCARD, IDValues.id);
+
+        return new PendingSignature<IDCard>(document, configuration) {
+            protected IDCard signed() {
+                lastDOMOperation = SIGNED;
+                needsSignature = false;
+                return IDCard.this;
+            }
+        }.sign(provider);
+    }
+
     /**
      * Returns a DOM document with the current DOM element representation of this IDCard.
      */
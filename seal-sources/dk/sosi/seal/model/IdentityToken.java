@@ -34,20 +34,18 @@ import dk.sosi.seal.model.constants.NameSpaces;
 import dk.sosi.seal.modelbuilders.ModelBuildException;
 import dk.sosi.seal.pki.Federation;
 import dk.sosi.seal.xml.XmlUtil;
+import dk.sosi.seal.xml.XmlUtilException;
 import org.apache.commons.codec.binary.Base64;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.Validator;
-import java.io.*;
-import java.util.Properties;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.zip.Deflater;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * The <code>IdentityToken</code> is a smaller ID representation than the regular <code>IDCard</code>.<br />
@@ -64,9 +62,6 @@ import java.util.zip.GZIPOutputStream;
 public class IdentityToken extends AbstractOIOSAMLToken {
 
     private static final String UTF8 = "UTF-8";
-    private static final int BOM = 65279;
-
-    private static Schema schema;
 
     /**
      * Constructor for the <code>IdentityToken</code> class.
@@ -95,19 +90,32 @@ public class IdentityToken extends AbstractOIOSAMLToken {
         validateTimestamp();
     }
 
-    private static Document init(String urlString) throws UnsupportedEncodingException {
+    private static Document init(String urlString) {
         byte[] unbased = Base64.decodeBase64(urlString);
-        byte[] uncompressed = decompress(unbased);
-        String string = new String(uncompressed, UTF8);
 
-        // Strip eventual ByteOrderMark character
-        if (string.charAt(0) == BOM) {
-            string = string.substring(1);
+        // Inflate straight into the parser, which validates while parsing and skips an eventual ByteOrderMark
+        InputStream uncompressed;
+        try {
+            uncompressed = GZIPCodec.decompress(unbased);
+        } catch (IOException e) {
+            throw new ModelException("Error during deflating", e);
+        }
+        try {
+            InputSource source = new InputSource(uncompressed);
+            source.setEncoding(UTF8);
+            return XmlUtil.readValidatedXml(source, SchemaUtil.IDENTITY_TOKEN_SCHEMA);
+        } catch (XmlUtilException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new ModelException("Error during deflating", e.getCause());
+            }
+            throw new ModelBuildException("Error validating IdentityToken", e);
+        } finally {
+            try {
+                uncompressed.close();
+            } catch (IOException e) {
+                // Ignore, closing only returns the Inflater to the pool
+            }
         }
-
-        Document doc = XmlUtil.readXml(new Properties(), string, false);
-        validateSchema(doc);
-        return doc;
     }
 
     /**
@@ -196,34 +204,9 @@ public class IdentityToken extends AbstractOIOSAMLToken {
         }
     }
 
-    private static byte[] decompress(byte[] data) {
-        byte[] buffer = new byte[1024];
-        try {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            BufferedInputStream bis = new BufferedInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
-
-            int bytesRead;
-            while ((bytesRead = bis.read(buffer)) != -1) {
-                bos.write(buffer, 0, bytesRead);
-            }
-
-            return bos.toByteArray();
-        } catch (IOException e) {
-            throw new ModelException("Error during deflating", e);
-        }
-    }
-
-    private static synchronized Schema getSchema() throws SAXException {
-        if (schema == null) {
-            schema = SchemaUtil.loadSchema("/idwsh/idt/saml.xsd");
-        }
-        return schema;
-    }
-
     private static void validateSchema(Node node) {
         try {
-            final Validator validator = getSchema().newValidator();
-            validator.validate(new DOMSource(node));
+            SchemaUtil.validate(SchemaUtil.IDENTITY_TOKEN_SCHEMA, node);
         } catch (SAXException e) {
             throw new ModelBuildException("Error validating IdentityToken", e);
         } catch (IOException e) {
@@ -256,14 +239,8 @@ public class IdentityToken extends AbstractOIOSAMLToken {
 
         private byte[] compress(String data) {
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length());
-
-                BufferedOutputStream out = new BufferedOutputStream(new GZIPOutputStream(bos));
-                out.write(data.getBytes(UTF8));
-                out.close();
-
-                return bos.toByteArray();
-            } catch (IOException e) {
+                return GZIPCodec.compress(data.getBytes(UTF8));
+            } catch (UnsupportedEncodingException e) {
                 throw new ModelException("Error during deflating", e);
             }
         }
@@ -37,9 +37,6 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.Validator;
 import java.io.IOException;
 import java.util.List;
 
@@ -49,8 +46,6 @@ import java.util.List;
  */
 public class LibertyRequestDOMEnhancer extends LibertyMessageDOMEnhancer {
 
-    private static Schema schema;
-
     private IdentityToken identityToken;
 
     public LibertyRequestDOMEnhancer(CredentialVault credentialVault, Document document) {
@@ -128,8 +123,7 @@ public class LibertyRequestDOMEnhancer extends LibertyMessageDOMEnhancer {
 
     private void schemaValidate(Document envelope) {
         try {
-            final Validator validator = getSchema().newValidator();
-            validator.validate(new DOMSource(envelope));
+            SchemaUtil.validate(SchemaUtil.LIBERTY_REQUEST_SCHEMA, envelope);
         } catch (SAXException e) {
             throw new ModelBuildException("Error validating SOAP message", e);
         } catch (IOException e) {
@@ -138,11 +132,4 @@ public class LibertyRequestDOMEnhancer extends LibertyMessageDOMEnhancer {
 
     }
 
-    private static synchronized Schema getSchema() throws SAXException {
-        if (schema == null) {
-            schema = SchemaUtil.loadSchema("/liberty/req/standard-soap.xsd");
-        }
-        return schema;
-    }
-
 }
@@ -35,6 +35,7 @@ import dk.sosi.seal.xml.XmlUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -208,6 +209,33 @@ public abstract class Message {
         return doc;
     }
 
+    /**
+     * Writes the XML representation of this <code>Message</code> to the stream in UTF-8, including the XML header.
+     * <p/>
+     * The bytes written are the same as <code>XmlUtil.node2String(serialize2DOMDocument())</code> encoded in UTF-8,
+     * but the XML is not built as a <code>String</code> first. The stream is neither flushed nor closed.
+     *
+     * @param out
+     *            The stream to write to, e.g. the transport stream
+     */
+    public void writeTo(OutputStream out) {
+        writeTo(out, true);
+    }
+
+    /**
+     * Writes the XML representation of this <code>Message</code> to the stream in UTF-8. The bytes written are the same
+     * as <code>XmlUtil.node2String(serialize2DOMDocument(), false, includeXMLHeader)</code> encoded in UTF-8.
+     * The stream is neither flushed nor closed.
+     *
+     * @param out
+     *            The stream to write to, e.g. the transport stream
+     * @param includeXMLHeader
+     *            If true, add the standard XML header to the output
+     */
+    public void writeTo(OutputStream out, boolean includeXMLHeader) {
+        XmlUtil.writeXml(serialize2DOMDocument(), out, false, includeXMLHeader);
+    }
+
     /**
      * Regenerates the DOM representation (subclasses).
      */
@@ -40,9 +40,6 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.Validator;
 import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.util.Date;
@@ -54,8 +51,6 @@ import java.util.List;
  */
 public class OIOSAMLAssertion extends AbstractOIOSAMLToken {
 
-    private static Schema schema;
-
     /*pp*/ OIOSAMLAssertion(Element element, boolean validate) {
         super(element);
         if (validate) {
@@ -77,8 +72,7 @@ public class OIOSAMLAssertion extends AbstractOIOSAMLToken {
 
     private void validateSchema(Node node) {
         try {
-            final Validator validator = getSchema().newValidator();
-            validator.validate(new DOMSource(node));
+            SchemaUtil.validate(SchemaUtil.OIOSAML_SCHEMA, node);
         } catch (SAXException e) {
             throw new ModelBuildException("Error validating OIOSAMLAssertion", e);
         } catch (IOException e) {
@@ -86,13 +80,6 @@ public class OIOSAMLAssertion extends AbstractOIOSAMLToken {
         }
     }
 
-    private static synchronized Schema getSchema() throws SAXException {
-        if (schema == null) {
-            schema = SchemaUtil.loadSchema("/oiosaml/standard-saml.xsd");
-        }
-        return schema;
-    }
-
     /**
      * Checks the signature on the <code>OIOSAMLAssertion</code>.
      *
@@ -119,7 +119,7 @@ public class OIOSAMLAssertionBuilder extends AbstractOIOSAMLTokenBuilder<OIOSAML
 
         Element subjectConfirmationDataElm = createElement(SAMLTags.subjectConfirmationData);
         subjectConfirmationDataElm.setAttributeNS(null, SAMLAttributes.RECIPIENT, recipientURL);
-        subjectConfirmationDataElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.getDateFormat(true).format(deliveryNotOnOrAfter));
+        subjectConfirmationDataElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.toXMLTimeStamp(deliveryNotOnOrAfter, true));
         subjectConfirmationElm.appendChild(subjectConfirmationDataElm);
 
         return subjectElm;
@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.model;
+
+import dk.sosi.seal.pki.*;
+import org.apache.ws.security.WSDocInfo;
+import org.apache.ws.security.WSDocInfoStore;
+import org.w3c.dom.Document;
+
+import java.util.concurrent.*;
+
+/**
+ * A signature requested from a <code>SignatureProvider</code> for a document.<br />
+ * The SignedInfo bytes are computed on the requesting thread. The signature is injected into the document by the
+ * thread completing the signature, after which the callbacks are invoked, so nobody has to block in <code>get</code>.
+ * The document must not be used until this <code>SignatureFuture</code> is done.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+abstract class PendingSignature<T> implements SignatureFuture<T> {
+
+    private final Document document;
+    private final SignatureConfiguration configuration;
+    private final SignatureFutureTask<T> injection;
+    private SignatureFuture<SignatureProvider.SignatureResult> signature;
+
+    PendingSignature(Document document, SignatureConfiguration configuration) {
+        this.document = document;
+        this.configuration = configuration;
+        this.injection = new SignatureFutureTask<T>(new Callable<T>() {
+            public T call() throws Exception {
+                return inject();
+            }
+        });
+    }
+
+    /**
+     * Requests the signature. Must be called once, after construction.
+     *
+     * @param provider
+     *            The provider computing the signature.
+     * @return This <code>SignatureFuture</code>.
+     */
+    SignatureFuture<T> sign(final SignatureProvider provider) {
+        final byte[] bytes;
+        WSDocInfo wsDocInfo = new WSDocInfo(document);
+        WSDocInfoStore.store(wsDocInfo);
+        try {
+            bytes = SignatureUtil.getSignedInfoBytes(document, configuration);
+        } finally {
+            WSDocInfoStore.delete(wsDocInfo);
+        }
+
+        if (provider instanceof AsyncSignatureProvider) {
+            signature = ((AsyncSignatureProvider) provider).signAsync(bytes);
+        } else {
+            SignatureFutureTask<SignatureProvider.SignatureResult> task = new SignatureFutureTask<SignatureProvider.SignatureResult>(new Callable<SignatureProvider.SignatureResult>() {
+                public SignatureProvider.SignatureResult call() {
+                    return provider.sign(bytes);
+                }
+            });
+            task.run();
+            signature = task;
+        }
+        signature.addCallback(new SignatureCallback<SignatureProvider.SignatureResult>() {
+            public void signed(SignatureProvider.SignatureResult result) {
+                injection.run();
+            }
+
+            public void failed(Throwable cause) {
+                injection.run();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Invoked once, after the signature has been injected into the document.
+     *
+     * @return The value handed out by this <code>SignatureFuture</code>.
+     */
+    protected abstract T signed();
+
+    private T inject() throws Exception {
+        final SignatureProvider.SignatureResult result;
+        try {
+            result = signature.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        WSDocInfo wsDocInfo = new WSDocInfo(document);
+        WSDocInfoStore.store(wsDocInfo);
+        try {
+            SignatureUtil.injectSignature(document, result.getSignature(), configuration, result.getCertificate(), false);
+            return signed();
+        } finally {
+            WSDocInfoStore.delete(wsDocInfo);
+        }
+    }
+
+    public void addCallback(SignatureCallback<? super T> callback) {
+        injection.addCallback(callback);
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        signature.cancel(mayInterruptIfRunning);
+        return injection.cancel(mayInterruptIfRunning);
+    }
+
+    public boolean isCancelled() {
+        return injection.isCancelled();
+    }
+
+    public boolean isDone() {
+        return injection.isDone();
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        return injection.get();
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return injection.get(timeout, unit);
+    }
+}
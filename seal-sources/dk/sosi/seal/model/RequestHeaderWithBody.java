@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.model;
+
+import dk.sosi.seal.model.constants.NameSpaces;
+import dk.sosi.seal.model.constants.SOAPTags;
+import dk.sosi.seal.xml.EnvelopeSplitter;
+import dk.sosi.seal.xml.XmlUtil;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * A <code>RequestHeader</code> deserialized from a complete SOAP envelope without building a DOM for the
+ * <code>soap:Body</code>.<br />
+ * The body is kept as the verbatim XML of its contents, e.g. for forwarding it untouched, and is only parsed if
+ * {@link #getBody()} is called.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ * @see dk.sosi.seal.SOSIFactory#deserializeRequestHeaderFromEnvelope(String)
+ */
+public class RequestHeaderWithBody extends RequestHeader {
+
+	private final EnvelopeSplitter envelope;
+	private final Properties properties;
+	private Element body;
+
+	/**
+	 * @param properties
+	 *            The properties of the factory, which deserialized the header. Used when parsing the body.
+	 */
+	public RequestHeaderWithBody(String dgwsVersion, Date creationDate, IDCard idCard, String messageID, String flowID, Document doc, boolean demandNonRepudiationReceipt, EnvelopeSplitter envelope, Properties properties) {
+		super(dgwsVersion, creationDate, idCard, messageID, flowID, doc, demandNonRepudiationReceipt);
+		this.envelope = envelope;
+		this.properties = properties;
+	}
+
+	/**
+	 * The contents have not been checked for well-formedness.
+	 *
+	 * @return The verbatim contents of the <code>soap:Body</code>, i.e. the XML between its start and end tag.
+	 */
+	public String getBodyContent() {
+		return envelope.getBodyContent();
+	}
+
+	/**
+	 * Parses the SOAP envelope again, this time including the body, with the parser settings of the factory. The
+	 * document returned by {@link #getDocument()} has an empty <code>soap:Body</code>.<br />
+	 * The body is parsed once, also when called from several threads. The returned DOM is not thread-safe though.
+	 *
+	 * @return The first element in the <code>soap:Body</code>, or <code>null</code> if the body is empty.
+	 */
+	public synchronized Element getBody() {
+		if (body == null) {
+			Document doc = XmlUtil.readXml(properties, envelope.getEnvelope(), false);
+			Node elmBody = doc.getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, SOAPTags.BODY_UNPREFIXED).item(0);
+			for (Node n = elmBody.getFirstChild(); n != null; n = n.getNextSibling()) {
+				if (n.getNodeType() == Node.ELEMENT_NODE) {
+					body = (Element) n;
+					break;
+				}
+			}
+		}
+		return body;
+	}
+
+}
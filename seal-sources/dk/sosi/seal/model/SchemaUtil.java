@@ -29,21 +29,137 @@
 
 package dk.sosi.seal.model;
 
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import javax.xml.XMLConstants;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Registry of the compiled XML schemas used by SEAL.
+ * <p/>
+ * Schemas are compiled on first request and shared process-wide, and are looked up without taking any lock.
+ * Validation borrows a <code>Validator</code> from a pool kept per thread and schema. Call {@link #preload()} at
+ * application startup to compile the schemas up front, so the first message does not pay for the compilation.
+ *
  * @author $LastChangedBy:$ $LastChangedDate:$
  * @version $Revision:$
  */
 public class SchemaUtil {
+
+    /** Schema of OIOSAML assertions and IDWS-H healthcare context tokens */
+    public static final String OIOSAML_SCHEMA = "/oiosaml/standard-saml.xsd";
+    /** Schema of Liberty requests */
+    public static final String LIBERTY_REQUEST_SCHEMA = "/liberty/req/standard-soap.xsd";
+    /** Schema of IDWS-H identity tokens */
+    public static final String IDENTITY_TOKEN_SCHEMA = "/idwsh/idt/saml.xsd";
+    /** Schema of IDWS-H identity token requests */
+    public static final String IDENTITY_TOKEN_REQUEST_SCHEMA = "/idwsh/idtreq/soap.xsd";
+    /** Schema of IDWS-H identity token responses */
+    public static final String IDENTITY_TOKEN_RESPONSE_SCHEMA = "/idwsh/idtresp/soap.xsd";
+    /** Root schema of DGWS messages */
+    public static final String SOAP_SCHEMA = "/soap.xsd";
+    /** Root schema of DGWS messages with enhanced validation */
+    public static final String SOAP_SPECIALIZED_SCHEMA = "/soap-specialized.xsd";
+
+    private static final String[] SEAL_SCHEMAS = { OIOSAML_SCHEMA, LIBERTY_REQUEST_SCHEMA, IDENTITY_TOKEN_SCHEMA,
+            IDENTITY_TOKEN_REQUEST_SCHEMA, IDENTITY_TOKEN_RESPONSE_SCHEMA, SOAP_SCHEMA, SOAP_SPECIALIZED_SCHEMA };
+
+    private static final ConcurrentHashMap<String, Schema> SCHEMAS = new ConcurrentHashMap<String, Schema>();
+
+    private static final ThreadLocal<Map<String, Validator>> IDLE_VALIDATORS = new ThreadLocal<Map<String, Validator>>() {
+        @Override
+        protected Map<String, Validator> initialValue() {
+            return new HashMap<String, Validator>();
+        }
+    };
+
     public static Schema loadSchema(String schemaResource) throws SAXException {
-        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
         URL resource = SchemaUtil.class.getResource(schemaResource);
+        if (resource == null) {
+            throw new SAXException("Schema '" + schemaResource + "' not found on classpath");
+        }
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
         return factory.newSchema(resource);
     }
+
+    /**
+     * Returns the compiled schema for the supplied classpath resource, e.g. <code>/soap.xsd</code>. The schema is
+     * compiled on first request and shared process-wide afterwards, as <code>Schema</code> instances are immutable and
+     * thread-safe.
+     *
+     * @param schemaResource
+     *            the classpath resource of the root schema
+     * @return the compiled schema
+     * @throws SAXException
+     *             if the schema could not be found or compiled
+     */
+    public static Schema getSchema(String schemaResource) throws SAXException {
+        Schema schema = SCHEMAS.get(schemaResource);
+        if (schema == null) {
+            schema = loadSchema(schemaResource);
+            Schema existing = SCHEMAS.putIfAbsent(schemaResource, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Validates the node against the schema for the supplied classpath resource, using a pooled <code>Validator</code>.
+     *
+     * @param schemaResource
+     *            the classpath resource of the root schema, e.g. {@link #OIOSAML_SCHEMA}
+     * @param node
+     *            the node to validate
+     * @throws SAXException
+     *             if the node is invalid, or the schema could not be found or compiled
+     * @throws IOException
+     *             if the validator failed to read the node
+     */
+    public static void validate(String schemaResource, Node node) throws SAXException, IOException {
+        Validator validator = IDLE_VALIDATORS.get().remove(schemaResource);
+        if (validator == null) {
+            validator = getSchema(schemaResource).newValidator();
+        }
+        try {
+            validator.validate(new DOMSource(node));
+        } finally {
+            validator.reset();
+            IDLE_VALIDATORS.get().put(schemaResource, validator);
+        }
+    }
+
+    /**
+     * Compiles all schemas used by SEAL, which would otherwise be compiled when first needed.
+     *
+     * @throws SAXException
+     *             if a schema could not be found or compiled
+     */
+    public static void preload() throws SAXException {
+        preload(SEAL_SCHEMAS);
+    }
+
+    /**
+     * Compiles the schemas for the supplied classpath resources, which would otherwise be compiled when first needed.
+     *
+     * @param schemaResources
+     *            the classpath resources of the root schemas
+     * @throws SAXException
+     *             if a schema could not be found or compiled
+     */
+    public static void preload(String... schemaResources) throws SAXException {
+        for (String schemaResource : schemaResources) {
+            getSchema(schemaResource);
+        }
+    }
 }
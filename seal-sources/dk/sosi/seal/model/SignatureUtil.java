@@ -59,6 +59,7 @@ import java.security.Provider;
 import java.security.Security;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -78,6 +79,8 @@ public class SignatureUtil {
 	// used for testing - we need to be sure BC isnt installed in java.security
 	static final boolean bcAddedInJavaSecurity = Security.getProvider(SOSIFactory.PROPERTYVALUE_SOSI_CRYPTOPROVIDER_BOUNCYCASTLE) != null; //NOPMD
 
+	static final VerifiedSignatureCache VERIFIED_SIGNATURES = new VerifiedSignatureCache();
+
     static {
         // Initialize the Apache XML Signature API
         org.apache.xml.security.Init.init();
@@ -145,7 +148,7 @@ public class SignatureUtil {
         for (int i = 0; i < references.getLength(); i++) {
             final Element reference = (Element) references.item(i);
             final String uri = reference.getAttribute(DSAttributes.URI);
-            final Element element = (Element) XmlUtil.getElementByIdExtended(signatureElement.getOwnerDocument(), uri.substring(1)); // Strip '#'
+            final Element element = XmlUtil.resolveSignatureReference(signatureElement, uri.substring(1)); // Strip '#'
             if (element != null) {
                 elements.add(element);
             }
@@ -256,16 +259,85 @@ public class SignatureUtil {
         }
     }
 
+    /**
+     * Requests a signature of the elements in the supplied Document without waiting for the provider.<br />
+     * The signature is injected into the document by the thread completing it, after which the returned
+     * <code>SignatureFuture</code> is done and its callbacks are invoked. The document must not be used until then.
+     * Providers that are not an {@link AsyncSignatureProvider} sign before this method returns.
+     *
+     * @param provider
+     *            Object that gives access to sign method
+     * @param doc
+     *            The document that contains elements to be signed
+     * @param configuration
+     *          Configuration parameters for the Signature to be created
+     * @return The signed document, once the signature has been injected.
+     */
+    public static SignatureFuture<Document> signAsync(SignatureProvider provider, final Document doc, SignatureConfiguration configuration) {
+        return new PendingSignature<Document>(doc, configuration) {
+            protected Document signed() {
+                return doc;
+            }
+        }.sign(provider);
+    }
+
+
 	/**
 	 * Validate the supplied ds:signature node. The signature is assumed to be enveloped
 	 *
+	 * <p/>
+	 * If {@link SOSIFactory#PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE} is set, successfully validated signatures on
+	 * assertions are remembered until the assertion expires, so an IDCard which is sent again is not validated again.
+	 *
 	 * @param signatureToValidate
 	 * @return true if the signature validates, false otherwise
 	 * @throws ModelException
 	 *             if the signature could not be validated for any reason
 	 */
 	public static boolean validate(Node signatureToValidate, Federation federation, CredentialVault vault, boolean checkTrust) {
-		return internalValidate(signatureToValidate, federation, vault, checkTrust);
+		Properties props = (federation == null) ? System.getProperties() : federation.getProperties();
+		int cacheSize = Integer.parseInt(props.getProperty(SOSIFactory.PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE, SOSIFactory.PROPERTYVALUE_SOSI_SIGNATURE_CACHE_SIZE));
+		if (cacheSize <= 0 || signatureToValidate.getNodeType() != Node.ELEMENT_NODE) {
+			return internalValidate(signatureToValidate, federation, vault, checkTrust);
+		}
+
+		Element signature = (Element) signatureToValidate;
+		Date notOnOrAfter = VerifiedSignatureCache.getNotOnOrAfter(signature);
+		String key = notOnOrAfter == null ? null : VerifiedSignatureCache.getCacheKey(signature);
+		if (key == null) {
+			return internalValidate(signatureToValidate, federation, vault, checkTrust);
+		}
+
+		long now = System.currentTimeMillis();
+		Object trustAnchor = (federation != null) ? federation : vault;
+		VerifiedSignatureCache.Entry entry = VERIFIED_SIGNATURES.get(key, now);
+		if (entry != null) {
+			if (checkTrust) {
+				long trustTtl = Long.parseLong(props.getProperty(SOSIFactory.PROPERTYNAME_SOSI_SIGNATURE_CACHE_TRUST_TTL, SOSIFactory.PROPERTYVALUE_SOSI_SIGNATURE_CACHE_TRUST_TTL)) * 1000;
+				if (entry.needsTrustCheck(trustAnchor, now, trustTtl)) {
+					checkTrusted(entry.getCertificate(), federation, vault);
+					entry.trusted(trustAnchor, now);
+				}
+			}
+			return true;
+		}
+
+		boolean valid = internalValidate(signatureToValidate, federation, vault, checkTrust);
+		if (valid && notOnOrAfter.getTime() > now) {
+			entry = new VerifiedSignatureCache.Entry(getCertificateFromSignature(signature), notOnOrAfter);
+			if (checkTrust) {
+				entry.trusted(trustAnchor, now);
+			}
+			VERIFIED_SIGNATURES.put(key, entry, cacheSize, now);
+		}
+		return valid;
+	}
+
+	/**
+	 * Forgets all signatures remembered by {@link #validate(Node, Federation, CredentialVault, boolean)}.
+	 */
+	public static void clearVerifiedSignatures() {
+		VERIFIED_SIGNATURES.clear();
 	}
 
 	/**
@@ -409,11 +481,13 @@ public class SignatureUtil {
 		for (int i = 0; i < signatures.getLength(); i++) {
 			if (!SignatureUtil.validate(signatures.item(i), federation, credentialVault, checkTrust)) {
 
-                Properties props = (federation == null) ? System.getProperties() : federation.getProperties();
-				SOSIFactory.getAuditEventHandler(props).onInformationalAuditingEvent(
-						AuditEventHandler.EVENT_TYPE_ERROR_VALIDATING_SOSI_MESSAGE,
-						new Object[]{message}
-						);
+                AuditEventHandler auditEventHandler = (federation == null) ? SOSIFactory.getAuditEventHandler(System.getProperties()) : federation.getAuditEventHandler();
+				if (SOSIFactory.isAuditingEnabled(auditEventHandler)) {
+					auditEventHandler.onInformationalAuditingEvent(
+							AuditEventHandler.EVENT_TYPE_ERROR_VALIDATING_SOSI_MESSAGE,
+							new Object[]{message}
+							);
+				}
 				throw new SignatureInvalidModelBuildException("Signature could not be validated", message.getMessageID(), message.getFlowID(), message.getDGWSVersion());
 			}
 		}
@@ -656,21 +730,15 @@ public class SignatureUtil {
             // the signature must have been created by the STS. If no federation is specified, the
             // certificate must be trusted in the CredentialVault.
             if (checkForTrustedCertificates) {
-                boolean trusted = false;
-                if (federation != null) {
-                    trusted = federation.isValidSTSCertificate(cert);
-                } else if (vault != null) {
-                    trusted = vault.isTrustedCertificate(cert);
-                }
-                if (!trusted) {
-                    throw new ModelException("The certificate that signed the security token is not trusted!");
-                }
-
+                checkTrusted(cert, federation, vault);
             }
 
             // Make sure that the ID elements references from the Reference elements
-            // can be looked up!
-            XmlUtil.ensureEnvelopedIds((Element) signatureToValidate);
+            // can be looked up! An id used twice could have the signature check another
+            // element than the one read afterwards
+            if (!XmlUtil.registerSignatureReferences((Element) signatureToValidate)) {
+                return false;
+            }
 
             try {
                 return xmlSignature.checkSignatureValue(cert);
@@ -682,6 +750,18 @@ public class SignatureUtil {
         }
     }
 
+    private static void checkTrusted(X509Certificate cert, Federation federation, CredentialVault vault) {
+        boolean trusted = false;
+        if (federation != null) {
+            trusted = federation.isValidSTSCertificate(cert);
+        } else if (vault != null) {
+            trusted = vault.isTrustedCertificate(cert);
+        }
+        if (!trusted) {
+            throw new ModelException("The certificate that signed the security token is not trusted!");
+        }
+    }
+
     private static X509Certificate resolveCertificate(XMLSignature xmlSignature, Federation federation) {
         KeyInfo keyInfo = xmlSignature.getKeyInfo();
         if (keyInfo.containsKeyName()) {
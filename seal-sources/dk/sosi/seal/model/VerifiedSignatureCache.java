@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.model;
+
+import dk.sosi.seal.model.constants.DSTags;
+import dk.sosi.seal.model.constants.NameSpaces;
+import dk.sosi.seal.model.constants.SAMLAttributes;
+import dk.sosi.seal.model.constants.SAMLTags;
+import dk.sosi.seal.xml.XmlUtil;
+import org.w3c.dom.*;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of successfully validated signatures on SAML assertions, such as
+ * the IDCard, which are sent unchanged with every request while they are valid.
+ * <p/>
+ * An entry is keyed by a SHA-256 digest of the complete assertion, including the
+ * signature with the embedded certificate, and of the namespace declarations in
+ * scope. It expires at the <code>NotOnOrAfter</code> of the assertion. The cache
+ * only remembers that the signature is valid; trust in the signing certificate is
+ * re-checked when the entry was last trusted by another federation or vault, or
+ * longer than the trust ttl ago.
+ * <p/>
+ * Only enveloped signatures with a single reference to the enclosing assertion, whose
+ * id no other element of the document carries, and an embedded certificate are cached;
+ * for any other signature {@link #getCacheKey(Element)} returns <code>null</code>.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+final class VerifiedSignatureCache {
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Returns the live entry for the key, or <code>null</code>.
+     */
+    Entry get(String key, long now) {
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.isExpired(now)) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    void put(String key, Entry entry, int maxSize, long now) {
+        if (entries.size() >= maxSize) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                }
+            }
+            // make room by dropping arbitrary entries
+            for (Iterator<String> it = entries.keySet().iterator(); entries.size() >= maxSize && it.hasNext();) {
+                it.next();
+                it.remove();
+            }
+        }
+        entries.put(key, entry);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the <code>NotOnOrAfter</code> of the assertion enveloping the signature.
+     *
+     * @return the expiry or <code>null</code> if the signature is not enveloped by an assertion with conditions.
+     */
+    static Date getNotOnOrAfter(Element signature) {
+        final Node parent = signature.getParentNode();
+        if (parent == null || parent.getNodeType() != Node.ELEMENT_NODE
+                || !NameSpaces.SAML2ASSERTION_SCHEMA.equals(parent.getNamespaceURI()) || !SAMLTags.ASSERTION.equals(parent.getLocalName())) {
+            return null;
+        }
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && NameSpaces.SAML2ASSERTION_SCHEMA.equals(child.getNamespaceURI())
+                    && SAMLTags.CONDITIONS.equals(child.getLocalName())) {
+                final String notOnOrAfter = ((Element) child).getAttribute(SAMLAttributes.NOT_ON_OR_AFTER);
+                return notOnOrAfter.length() == 0 ? null : XmlUtil.parseZuluDateTime(notOnOrAfter);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the cache key for the signature.
+     *
+     * @return the key or <code>null</code> if the signature cannot be cached.
+     */
+    static String getCacheKey(Element signature) {
+        final Element assertion = (Element) signature.getParentNode();
+        if (signature.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, "KeyName").getLength() != 0
+                || signature.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.X509CERTIFICATE).getLength() != 1) {
+            return null;
+        }
+        final NodeList references = signature.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.REFERENCE);
+        if (references.getLength() != 1) {
+            return null;
+        }
+        final String uri = ((Element) references.item(0)).getAttribute("URI");
+        if (!uri.startsWith("#")) {
+            return null;
+        }
+        // the key must cover the element the signature is validated against, see XmlUtil.registerSignatureReferences
+        final String id = uri.substring(1);
+        if (XmlUtil.resolveSignatureReference(signature, id) != assertion || !XmlUtil.isIdUnique(signature.getOwnerDocument(), id)) {
+            return null;
+        }
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // namespace declarations in scope may be included by the canonicalization
+            for (Node ancestor = assertion.getParentNode(); ancestor != null; ancestor = ancestor.getParentNode()) {
+                if (ancestor.getNodeType() == Node.ELEMENT_NODE) {
+                    final NamedNodeMap attributes = ancestor.getAttributes();
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        final Node attribute = attributes.item(i);
+                        if (NameSpaces.XMLNS_SCHEMA.equals(attribute.getNamespaceURI())) {
+                            update(digest, 'N', attribute.getNodeName());
+                            update(digest, 'V', attribute.getNodeValue());
+                        }
+                    }
+                }
+            }
+            digest(digest, assertion);
+            return XmlUtil.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new ModelException("Unable to compute signature cache key", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new ModelException("Unable to compute signature cache key", e);
+        }
+    }
+
+    /**
+     * Digests the node and its descendants. Every item is typed and length prefixed,
+     * so different trees cannot produce the same input to the digest.
+     */
+    private static void digest(MessageDigest digest, Node node) throws UnsupportedEncodingException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                update(digest, 'E', node.getNamespaceURI());
+                update(digest, 'Q', node.getNodeName());
+                final NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    final Node attribute = attributes.item(i);
+                    update(digest, 'A', attribute.getNamespaceURI());
+                    update(digest, 'Q', attribute.getNodeName());
+                    update(digest, 'V', attribute.getNodeValue());
+                }
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    digest(digest, child);
+                }
+                digest.update((byte) '/');
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                update(digest, 'T', node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                update(digest, 'C', node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                update(digest, 'P', node.getNodeName());
+                update(digest, 'V', node.getNodeValue());
+                break;
+            default:
+                update(digest, 'O', node.getNodeName());
+                update(digest, 'V', node.getNodeValue());
+        }
+    }
+
+    private static void update(MessageDigest digest, char type, String value) throws UnsupportedEncodingException {
+        digest.update((byte) type);
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        final byte[] bytes = value.getBytes("UTF-8");
+        digest.update((byte) 1);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    /**
+     * A validated signature.
+     */
+    static final class Entry {
+
+        private final X509Certificate certificate;
+        private final long notOnOrAfter;
+        private volatile WeakReference<Object> trustedBy;
+        private volatile long trustCheckedAt;
+
+        Entry(X509Certificate certificate, Date notOnOrAfter) {
+            this.certificate = certificate;
+            this.notOnOrAfter = notOnOrAfter.getTime();
+        }
+
+        X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        boolean isExpired(long now) {
+            return now >= notOnOrAfter;
+        }
+
+        /**
+         * Whether the certificate must be checked for trust by the federation or vault.
+         */
+        boolean needsTrustCheck(Object trustAnchor, long now, long trustTtl) {
+            final WeakReference<Object> trusted = trustedBy;
+            return trusted == null || trusted.get() != trustAnchor || now - trustCheckedAt > trustTtl;
+        }
+
+        void trusted(Object trustAnchor, long now) {
+            trustCheckedAt = now;
+            trustedBy = new WeakReference<Object>(trustAnchor);
+        }
+    }
+}
@@ -205,7 +205,7 @@ public abstract class AbstractOIOSAMLTokenBuilder<S extends AbstractOIOSAMLToken
 
     private Node createAuthnStatement() {
         Element authnStatementElm = createElement(SAMLTags.authnStatement);
-        authnStatementElm.setAttributeNS(null, SAMLAttributes.AUTHN_INSTANT, XmlUtil.getDateFormat(true).format(userIdCard.getCreatedDate()));
+        authnStatementElm.setAttributeNS(null, SAMLAttributes.AUTHN_INSTANT, XmlUtil.toXMLTimeStamp(userIdCard.getCreatedDate(), true));
 
         Element authnContextElm = createElement(SAMLTags.authnContext);
         Element authContextClassRefElm = createElement(SAMLTags.authnContextClassRef);
@@ -218,8 +218,8 @@ public abstract class AbstractOIOSAMLTokenBuilder<S extends AbstractOIOSAMLToken
 
     private Node createConditions() {
         Element conditionsElm = createElement(SAMLTags.conditions);
-        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_BEFORE, XmlUtil.getDateFormat(true).format(notBefore));
-        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.getDateFormat(true).format(notOnOrAfter));
+        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_BEFORE, XmlUtil.toXMLTimeStamp(notBefore, true));
+        conditionsElm.setAttributeNS(null, SAMLAttributes.NOT_ON_OR_AFTER, XmlUtil.toXMLTimeStamp(notOnOrAfter, true));
 
         Element audienceRestrictionElm = createElement(SAMLTags.audienceRestriction);
         conditionsElm.appendChild(audienceRestrictionElm);
@@ -91,7 +91,7 @@ public abstract class AbstractSAMLBuilder<S extends AbstractSAMLBuilder, T> exte
 
     @Override
     protected void addRootAttributes(Element root) {
-        root.setAttributeNS(null, SAMLAttributes.ISSUE_INSTANT, XmlUtil.getDateFormat(true).format(new Date()));
+        root.setAttributeNS(null, SAMLAttributes.ISSUE_INSTANT, XmlUtil.toXMLTimeStamp(new Date(), true));
         assertionID = XmlUtil.generateRandomNCName();
         root.setAttributeNS(null, SAMLAttributes.ID, assertionID);
         root.setAttributeNS(null, SAMLAttributes.VERSION, SAMLValues.SAML_VERSION);
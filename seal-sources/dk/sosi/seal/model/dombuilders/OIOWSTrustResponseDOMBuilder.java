@@ -286,10 +286,10 @@ public abstract class OIOWSTrustResponseDOMBuilder<T extends OIOWSTrustResponseD
         // Append lifetime
         Element lifetimeElm = doc.createElementNS(NameSpaces.WST_1_3_SCHEMA, WSTTags.LIFETIME_PREFIXED);
         Element createdElm = doc.createElementNS(NameSpaces.WSU_SCHEMA, WSUTags.CREATED_PREFIXED);
-        createdElm.setTextContent(XmlUtil.getDateFormat(true).format(getIssuedTokenNotBefore()));
+        createdElm.setTextContent(XmlUtil.toXMLTimeStamp(getIssuedTokenNotBefore(), true));
         lifetimeElm.appendChild(createdElm);
         Element expiresElm = doc.createElementNS(NameSpaces.WSU_SCHEMA, WSUTags.EXPIRES_PREFIXED);
-        expiresElm.setTextContent(XmlUtil.getDateFormat(true).format(getIssuedTokenNotOnOrAfter()));
+        expiresElm.setTextContent(XmlUtil.toXMLTimeStamp(getIssuedTokenNotOnOrAfter(), true));
         lifetimeElm.appendChild(expiresElm);
         requestSecurityTokenResponseElm.appendChild(lifetimeElm);
 
@@ -34,6 +34,7 @@ import dk.sosi.seal.model.constants.IDValues;
 import dk.sosi.seal.model.constants.MedComTags;
 import dk.sosi.seal.model.constants.NameSpaces;
 import dk.sosi.seal.modelbuilders.ModelPrefixResolver;
+import dk.sosi.seal.xml.ElementPath;
 import dk.sosi.seal.xml.XmlUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -113,13 +114,13 @@ public class SAMLUtil {
 
 	public Element fetchSamlAttributeValue(Document doc, String attrName) throws TransformerException {
         Element systemLog = fetchSamlAttributeStatement(doc,IDValues.SYSTEM_LOG);
-	    String xpath = "//"+NameSpaces.NS_SAML + ":Attribute[@Name='"+attrName+"']/"+NameSpaces.NS_SAML + ":AttributeValue";
-        return XmlUtil.selectSingleElement(systemLog, xpath, new ModelPrefixResolver(), false);
+	    String path = "//"+NameSpaces.NS_SAML + ":Attribute[@Name='"+attrName+"']/"+NameSpaces.NS_SAML + ":AttributeValue";
+        return new ElementPath(path, new ModelPrefixResolver()).selectSingleElement(systemLog, false);
 	}
 
 	public Element fetchSamlAttributeStatement(Document doc, String statementID) {
-        String xpath = "//"+NameSpaces.NS_SAML + ":AttributeStatement[@id='"+statementID+"']";
-        return XmlUtil.selectSingleElement(doc, xpath, new ModelPrefixResolver(), false);
+        String path = "//"+NameSpaces.NS_SAML + ":AttributeStatement[@id='"+statementID+"']";
+        return new ElementPath(path, new ModelPrefixResolver()).selectSingleElement(doc, false);
 	}
 
 	// ======================================
@@ -70,7 +70,7 @@ public class UnsolicitedResponseDOMBuilder extends AbstractDOMBuilder<Document>
     @Override
     protected Element createRoot(Document doc) {
         Element responseElm = createElement(SAMLProtocolTags.response);
-        responseElm.setAttributeNS(null, SAMLAttributes.ISSUE_INSTANT, XmlUtil.getDateFormat(true).format(new Date()));
+        responseElm.setAttributeNS(null, SAMLAttributes.ISSUE_INSTANT, XmlUtil.toXMLTimeStamp(new Date(), true));
         responseElm.setAttributeNS(null, SAMLAttributes.ID, XmlUtil.generateRandomNCName());
         responseElm.setAttributeNS(null, SAMLAttributes.VERSION, SAMLValues.SAML_VERSION);
         if (randomInResponseToRequired) {
@@ -31,11 +31,12 @@ package dk.sosi.seal.modelbuilders;
 import dk.sosi.seal.model.*;
 import dk.sosi.seal.model.constants.*;
 import dk.sosi.seal.xml.XmlUtil;
-import org.apache.xml.security.utils.IdResolver;
 import org.w3c.dom.*;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Builds ID-card model objects from a DOM document.
@@ -58,17 +59,46 @@ public class IDCardModelBuilder { // NOPMD
 
         NodeList assertions = doc.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ASSERTION);
         for (int i = 0; i < assertions.getLength(); i++) {
-            Element elem = (Element) assertions.item(i);
-            XmlUtil.registerElementByIdExtended(elem);
-            Element idCardElement = IdResolver.getElementById(doc, IDValues.IDCARD);
-            if (idCardElement != null) {
-                result = internalBuild(idCardElement);
+            result = buildIDCard(assertions.item(i));
+            if (result != null) {
                 break;
             }
         }
 		return result;
 	}
 
+	/**
+	 * Builds an ID-card object from the first of the supplied assertions holding an ID-card.
+	 *
+	 * @param assertions
+	 *            The saml:Assertion elements, typically the children of wsse:Security.
+	 * @return The ID-card, or <code>null</code> if none of the assertions holds an ID-card.
+	 */
+	IDCard buildModel(List<Element> assertions) throws ModelBuildException {
+		for (Element assertion : assertions) {
+			IDCard result = buildIDCard(assertion);
+			if (result != null) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Builds the ID-card if the assertion itself carries the IDCard id. The assertion is then the element an
+	 * enveloped signature of the ID-card covers, see {@link XmlUtil#resolveSignatureReference(Element, String)},
+	 * provided no other element of the document carries the id.
+	 */
+	private IDCard buildIDCard(Node assertion) throws ModelBuildException {
+		if (XmlUtil.getElementByIdExtended(assertion, IDValues.IDCARD) != assertion) {
+			return null;
+		}
+		if (!XmlUtil.isIdUnique(assertion.getOwnerDocument(), IDValues.IDCARD)) {
+			throw new ModelBuildException("More than one element with id " + IDValues.IDCARD + " present");
+		}
+		return internalBuild((Element) assertion);
+	}
+
     /**
      * Builds an ID-card object from a DOM element.
      *
@@ -94,8 +124,29 @@ public class IDCardModelBuilder { // NOPMD
 
         Date createdDate, expiryDate;
 
+        // Collect the saml:Assertion children in one pass instead of searching the whole assertion for each of them
+        Element timeConstraints = null, subject = null, issuerNode = null;
+        List<Element> attributeStatementNodeList = new ArrayList<Element>();
+        for (Node n = idCardElement.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE || !NameSpaces.SAML2ASSERTION_SCHEMA.equals(n.getNamespaceURI())) {
+                continue;
+            }
+            String localName = n.getLocalName();
+            if (SAMLTags.CONDITIONS.equals(localName)) {
+                if (timeConstraints == null) timeConstraints = (Element) n;
+            } else if (SAMLTags.SUBJECT.equals(localName)) {
+                if (subject == null) subject = (Element) n;
+            } else if (SAMLTags.ISSUER.equals(localName)) {
+                if (issuerNode == null) issuerNode = (Element) n;
+            } else if (SAMLTags.ATTRIBUTE_STATEMENT.equals(localName)) {
+                attributeStatementNodeList.add((Element) n);
+            }
+        }
+
         // Check validity interval
-        Node timeConstraints = idCardElement.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.CONDITIONS).item(0);
+        if (timeConstraints == null) {
+            throw new ModelBuildException("SAML:Conditions could not be found");
+        }
         NamedNodeMap conditionsAttributes = timeConstraints.getAttributes();
         try {
             expiryDate = XmlUtil.fromXMLTimeStamp(conditionsAttributes.getNamedItem(SAMLAttributes.NOT_ON_OR_AFTER).getNodeValue());
@@ -107,7 +158,7 @@ public class IDCardModelBuilder { // NOPMD
         }
 
         //Check for an alternative Identifier
-        Node subjectNameIdNode = idCardElement.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.NAMEID).item(0);
+        Element subjectNameIdNode = XmlUtil.getFirstChildElementNS(subject, NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.NAMEID);
         NamedNodeMap nameIdAttributes = subjectNameIdNode.getAttributes();
         Node nameIdFormatNode = nameIdAttributes.getNamedItem(SAMLAttributes.FORMAT);
         if (nameIdFormatNode.getFirstChild().getNodeValue().equals(SubjectIdentifierTypeValues.OTHER)) {
@@ -115,7 +166,7 @@ public class IDCardModelBuilder { // NOPMD
         }
 
         //AuthenticationLevel 2
-        Element usernameTokenElement = (Element) idCardElement.getElementsByTagNameNS(NameSpaces.WSSE_SCHEMA, WSSETags.USERNAME_TOKEN).item(0);
+        Element usernameTokenElement = (Element) subject.getElementsByTagNameNS(NameSpaces.WSSE_SCHEMA, WSSETags.USERNAME_TOKEN).item(0);
         if (usernameTokenElement != null) {
             Node usernameNode = usernameTokenElement.getElementsByTagNameNS(NameSpaces.WSSE_SCHEMA, WSSETags.USERNAME).item(0);
             username = XmlUtil.getTextNodeValue(usernameNode);
@@ -125,14 +176,11 @@ public class IDCardModelBuilder { // NOPMD
         }
 
         // IDCard attributes
-        Node issuerNode = idCardElement.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ISSUER).item(0);
         String issuer = issuerNode.getFirstChild().getNodeValue();
 
-        NodeList attributeStatementNodeList = idCardElement.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ATTRIBUTE_STATEMENT);
-
         Boolean isUserIDCard = null;
-        for (int nodeCount = 0; nodeCount < attributeStatementNodeList.getLength(); nodeCount++) {
-            NamedNodeMap map = attributeStatementNodeList.item(nodeCount).getAttributes();
+        for (int nodeCount = 0; nodeCount < attributeStatementNodeList.size(); nodeCount++) {
+            NamedNodeMap map = attributeStatementNodeList.get(nodeCount).getAttributes();
 
             for (int attributeCount = 0; attributeCount < map.getLength(); attributeCount++) {
 
@@ -140,7 +188,7 @@ public class IDCardModelBuilder { // NOPMD
 
                 if (IDValues.SYSTEM_LOG.equals(attributeValue)) {
                     // Iterate saml:Attributes in SystemLog
-                    NodeList samlAttributeNodes = ((Element) attributeStatementNodeList.item(nodeCount)).getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ATTRIBUTE);
+                    NodeList samlAttributeNodes = attributeStatementNodeList.get(nodeCount).getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ATTRIBUTE);
 
                     for (int samlAttributeCount = 0; samlAttributeCount < samlAttributeNodes.getLength(); samlAttributeCount++) {
                         Element samlAttribute = (Element) samlAttributeNodes.item(samlAttributeCount);
@@ -162,7 +210,7 @@ public class IDCardModelBuilder { // NOPMD
                     hasSystemLog = true;
                 } else if (IDValues.IDCARD_DATA.equals(attributeValue)) {
                     // Iterate saml:Attributes in IDCard
-                    NodeList samlAttributeNodes = ((Element) attributeStatementNodeList.item(nodeCount)).getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ATTRIBUTE);
+                    NodeList samlAttributeNodes = attributeStatementNodeList.get(nodeCount).getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ATTRIBUTE);
 
                     for (int samlAttributeCount = 0; samlAttributeCount < samlAttributeNodes.getLength(); samlAttributeCount++) {
                         Element samlAttribute = (Element) samlAttributeNodes.item(samlAttributeCount);
@@ -190,7 +238,7 @@ public class IDCardModelBuilder { // NOPMD
                     hasIDCardData = true;
                 } else if (IDValues.USER_LOG.equals(attributeValue)) {
                     // Iterate saml:Attributes in UserLog
-                    NodeList samlAttributeNodes = ((Element) attributeStatementNodeList.item(nodeCount)).getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ATTRIBUTE);
+                    NodeList samlAttributeNodes = attributeStatementNodeList.get(nodeCount).getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ATTRIBUTE);
 
                     for (int samlAttributeCount = 0; samlAttributeCount < samlAttributeNodes.getLength(); samlAttributeCount++) {
                         Element samlAttribute = (Element) samlAttributeNodes.item(samlAttributeCount);
@@ -39,9 +39,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.Validator;
 import java.io.IOException;
 
 /**
@@ -64,8 +61,6 @@ public class IdentityTokenRequestModelBuilder {
         this.federation = federation;
     }
 
-    private static Schema schema;
-
     /**
      *  Builds an <code>IdentityTokenRequest</code> from the supplied <code>Document</code>, checks the signature of
      *  the <code>IDCard</code> in the request and verifies that the certificate used to sign the <code>IDCard</code>
@@ -116,8 +111,7 @@ public class IdentityTokenRequestModelBuilder {
 
     private void schemaValidate(Document envelope) {
         try {
-            final Validator validator = getSchema().newValidator();
-            validator.validate(new DOMSource(envelope));
+            SchemaUtil.validate(SchemaUtil.IDENTITY_TOKEN_REQUEST_SCHEMA, envelope);
         } catch (SAXException e) {
             throw new ModelBuildException("Error validating IdentityTokenRequest", e);
         } catch (IOException e) {
@@ -126,11 +120,4 @@ public class IdentityTokenRequestModelBuilder {
 
     }
 
-    private static synchronized Schema getSchema() throws SAXException {
-        if (schema == null) {
-            schema = SchemaUtil.loadSchema("/idwsh/idtreq/soap.xsd");
-        }
-        return schema;
-    }
-
 }
\ No newline at end of file
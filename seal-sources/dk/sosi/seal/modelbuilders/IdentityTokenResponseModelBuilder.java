@@ -30,12 +30,11 @@ package dk.sosi.seal.modelbuilders;
 
 import dk.sosi.seal.model.IdentityTokenResponse;
 import dk.sosi.seal.model.SchemaUtil;
+import dk.sosi.seal.xml.XmlUtil;
+import dk.sosi.seal.xml.XmlUtilException;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.Validator;
 import java.io.IOException;
 
 /**
@@ -48,8 +47,6 @@ import java.io.IOException;
  */
 public class IdentityTokenResponseModelBuilder {
 
-    private static Schema schema;
-
     /**
      * Construct an <code>IdentityTokenResponse</code> from the supplied <code>Document</code>.
      * 
@@ -64,17 +61,27 @@ public class IdentityTokenResponseModelBuilder {
         return new IdentityTokenResponse(doc);
     }
 
-    private static synchronized Schema getSchema() throws SAXException {
-        if (schema == null) {
-            schema = SchemaUtil.loadSchema("/idwsh/idtresp/soap.xsd");
+    /**
+     * Construct an <code>IdentityTokenResponse</code> from the supplied XML <code>String</code>.<br />
+     * The response is validated while it is parsed, so the <code>Document</code> is not traversed a second time for schema validation.
+     * 
+     * @param xml
+     *            The XML <code>String</code> to de-serialize into a <code>IdentityTokenResponse</code>.
+     * @return The constructed <code>IdentityTokenResponse</code> instance.
+     * @throws ModelBuildException
+     *             Thrown if the XML is invalid.
+     */
+    public IdentityTokenResponse build(String xml) throws ModelBuildException {
+        try {
+            return new IdentityTokenResponse(XmlUtil.readValidatedXml(xml, SchemaUtil.IDENTITY_TOKEN_RESPONSE_SCHEMA));
+        } catch (XmlUtilException e) {
+            throw new ModelBuildException("Error validating IdentityTokenResponse", e);
         }
-        return schema;
     }
 
     private void validateSchema(Document doc) {
         try {
-            final Validator validator = getSchema().newValidator();
-            validator.validate(new DOMSource(doc));
+            SchemaUtil.validate(SchemaUtil.IDENTITY_TOKEN_RESPONSE_SCHEMA, doc);
         } catch (SAXException e) {
             throw new ModelBuildException("Error validating IdentityTokenResponse", e);
         } catch (IOException e) {
@@ -33,12 +33,13 @@ import dk.sosi.seal.model.IDCard;
 import dk.sosi.seal.model.Message;
 import dk.sosi.seal.model.Request;
 import dk.sosi.seal.model.SecurityTokenRequest;
+import dk.sosi.seal.model.SecurityTokenResponse;
 import dk.sosi.seal.model.constants.*;
+import dk.sosi.seal.xml.ElementPath;
 import dk.sosi.seal.xml.XmlUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import java.text.ParseException;
 import java.util.Date;
@@ -52,6 +53,13 @@ import java.util.Date;
  */
 public abstract class MessageModelBuilder {
 
+	// Paths are compiled once, the SOAP envelope is always the document element
+	static final ElementPath SOAP_HEADER_PATH = new ElementPath("/" + NameSpaces.NS_SOAP + ":Envelope/" + NameSpaces.NS_SOAP + ":Header", new ModelPrefixResolver());
+	static final ElementPath SOAP_FAULT_PATH = new ElementPath("/" + NameSpaces.NS_SOAP + ":Envelope/" + SOAPTags.BODY_PREFIXED + '/' + SOAPTags.FAULT_PREFIXED, new ModelPrefixResolver());
+	static final ElementPath FAULTCODE_PATH = new ElementPath(SOAPTags.FAULTCODE, new ModelPrefixResolver());
+	static final ElementPath FAULTSTRING_PATH = new ElementPath(SOAPTags.FAULTSTRING, new ModelPrefixResolver());
+	static final ElementPath CREATED_PATH = new ElementPath(NameSpaces.NS_WSSE + ":Security/" + NameSpaces.NS_WSU + ":Timestamp/" + NameSpaces.NS_WSU + ":Created", new ModelPrefixResolver());
+
 	protected SOSIFactory factory;
 
 	public MessageModelBuilder(SOSIFactory fac) {
@@ -68,16 +76,23 @@ public abstract class MessageModelBuilder {
 	 *            The DOM document used for the Message.
 	 */
 	protected void buildModel(Message msg, Document doc) throws ModelBuildException {
+		buildModel(msg, doc, new SOAPHeaderParts(doc));
+	}
 
-		ModelPrefixResolver prefixResolver = new ModelPrefixResolver();
-
-		// Get soap:Header
-		Element elmSoapHeader = XmlUtil.selectSingleElement(doc, "//" + NameSpaces.NS_SOAP + ":Envelope/" + NameSpaces.NS_SOAP + ":Header", prefixResolver, true);
+	/**
+	 * Builds a Message objects from the header parts already collected from a DOM document.
+	 *
+	 * @param msg
+	 *            The Message object that must be build.
+	 * @param doc
+	 *            The DOM document used for the Message.
+	 * @param parts
+	 *            The parts of the <code>soap:Header</code> of the document.
+	 */
+	void buildModel(Message msg, Document doc, SOAPHeaderParts parts) throws ModelBuildException {
 
 		// Get creation date
-		Element elmCreated = XmlUtil.selectSingleElement(elmSoapHeader, NameSpaces.NS_WSSE + ":Security/" + NameSpaces.NS_WSU + ":Timestamp/" + NameSpaces.NS_WSU + ":Created", prefixResolver, true);
-
-		String xmlTimestamp = XmlUtil.getTextNodeValue(elmCreated);
+		String xmlTimestamp = XmlUtil.getTextNodeValue(parts.getCreated());
 		Date created;
 		try {
 			created = XmlUtil.fromXMLTimeStamp(xmlTimestamp);
@@ -90,64 +105,50 @@ public abstract class MessageModelBuilder {
 		String dgwsVersion = XmlUtil.isZuluTimeFormat(xmlTimestamp) ? DGWSConstants.VERSION_1_0_1 : DGWSConstants.VERSION_1_0;
 		msg.setDGWSVersion(dgwsVersion);
 
-		// IDCard - must be present on all requests
-		IDCard idCard = new IDCardModelBuilder().buildModel(doc);
+		// IDCard - must be present on all requests. WS-Trust messages to and from the STS carry the IDCard in the body
+		IDCard idCard = new IDCardModelBuilder().buildModel(parts.getAssertions());
+		if (idCard == null && (msg instanceof SecurityTokenRequest || msg instanceof SecurityTokenResponse))
+			idCard = new IDCardModelBuilder().buildModel(doc);
 		if ((idCard == null) && (msg instanceof Request || msg instanceof SecurityTokenRequest))
 			throw new ModelBuildException("No IDCard present in Request");
 
 		if (idCard != null) msg.setIDCard(idCard);
 
 		// MessageID
-		if (doc.getElementsByTagNameNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.MESSAGE_ID).getLength() > 0) {
-            NodeList messageIdchildNodes = doc.getElementsByTagNameNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.MESSAGE_ID).item(0).getChildNodes();
-            if (messageIdchildNodes.getLength() == 0) {
-                throw new ModelBuildException("DGWS violation: MessageID element must not be empty!");
-            }
-            String msgID = messageIdchildNodes.item(0).getNodeValue();
-			msg.setMessageID(msgID);
+		if (parts.getMessageID() != null) {
+			Node messageIdChild = parts.getMessageID().getFirstChild();
+			if (messageIdChild == null) {
+				throw new ModelBuildException("DGWS violation: MessageID element must not be empty!");
+			}
+			msg.setMessageID(messageIdChild.getNodeValue());
 		} else {
 			// SecurityTokenRequest or SecurityTokenResponse
-			String msgID = ((Element) doc.getElementsByTagNameNS(NameSpaces.WSSE_SCHEMA, WSSETags.SECURITY).item(0)).getAttribute(IDValues.id);
-			msg.setMessageID(msgID);
+			msg.setMessageID(parts.getSecurity().getAttribute(IDValues.id));
 		}
 
 		// FlowID
-		if (doc.getElementsByTagNameNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.FLOW_ID).getLength() > 0) {
-			NodeList flowIDs = doc.getElementsByTagNameNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.FLOW_ID);
-            NodeList flowIdChildNodes = flowIDs.item(0).getChildNodes();
-            if (flowIdChildNodes.getLength() == 0) {
-                throw new ModelBuildException("DGWS violation: FlowID element must not be empty!");
-            }
-            String flowID = flowIdChildNodes.item(0).getNodeValue();
-			msg.setFlowID(flowID);
+		if (parts.getFlowID() != null) {
+			Node flowIdChild = parts.getFlowID().getFirstChild();
+			if (flowIdChild == null) {
+				throw new ModelBuildException("DGWS violation: FlowID element must not be empty!");
+			}
+			msg.setFlowID(flowIdChild.getNodeValue());
 		}
 
-        // Other headers
-        NodeList headerList = doc.getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, SOAPTags.HEADER_UNPREFIXED);
-        if (headerList.getLength() > 0) {
-            // get first element child node - we dont want ex. indentation nodes.
-            for (int i = 0; i < headerList.item(0).getChildNodes().getLength(); i++) {
-                Node n = headerList.item(0).getChildNodes().item(i);
-                if(n.getNodeType() == Node.ELEMENT_NODE) {
-                    Element e = (Element) n;
-                    if(!(WSSETags.SECURITY.equals(e.getLocalName()) && NameSpaces.WSSE_SCHEMA.equals(e.getNamespaceURI())) &&
-                       !(MedComTags.HEADER.equals(e.getLocalName()) && NameSpaces.MEDCOM_SCHEMA.equals(e.getNamespaceURI()))) {
-                        msg.addNonSOSIHeader(e);
-                    }
-                }
-            }
-        }
+		// Other headers
+		for (Element e : parts.getNonSOSIHeaders()) {
+			msg.addNonSOSIHeader(e);
+		}
 
 		// Body
-		NodeList bodyList = doc.getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, SOAPTags.BODY_UNPREFIXED);
-		if (bodyList.getLength() > 0) {
-            // get first element child node - we dont want ex. indentation nodes.
-            for (int i = 0; i < bodyList.item(0).getChildNodes().getLength(); i++) {
-                if(bodyList.item(0).getChildNodes().item(i).getNodeType() == Node.ELEMENT_NODE) {
-                    msg.setBody((Element)bodyList.item(0).getChildNodes().item(i));
-                    break;
-                }
-            }
+		if (parts.getBody() != null) {
+			// get first element child node - we dont want ex. indentation nodes.
+			for (Node n = parts.getBody().getFirstChild(); n != null; n = n.getNextSibling()) {
+				if (n.getNodeType() == Node.ELEMENT_NODE) {
+					msg.setBody((Element) n);
+					break;
+				}
+			}
 		}
 	}
 }
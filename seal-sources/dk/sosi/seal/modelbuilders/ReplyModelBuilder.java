@@ -33,12 +33,11 @@ import dk.sosi.seal.model.Reply;
 import dk.sosi.seal.model.SignatureUtil;
 import dk.sosi.seal.model.constants.*;
 import dk.sosi.seal.xml.XmlUtil;
-import org.apache.xpath.XPathAPI;
+import dk.sosi.seal.xml.ElementPath;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Node;
 
-import javax.xml.transform.TransformerException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,6 +50,14 @@ import java.util.List;
  */
 public class ReplyModelBuilder extends MessageModelBuilder {
 
+	private static final ElementPath MEDCOM_HEADER_PATH = new ElementPath(MedComTags.HEADER_PREFIXED, new ModelPrefixResolver());
+	private static final ElementPath LINKING_PATH = new ElementPath(MedComTags.LINKING_PREFIXED, new ModelPrefixResolver());
+	private static final ElementPath IN_RESPONSE_TO_MESSAGE_ID_PATH = new ElementPath(MedComTags.IN_RESPONSE_TO_MESSAGE_ID_PREFIXED, new ModelPrefixResolver());
+	private static final ElementPath FLOW_ID_PATH = new ElementPath(MedComTags.FLOW_ID_PREFIXED, new ModelPrefixResolver());
+	private static final ElementPath FLOW_STATUS_PATH = new ElementPath(MedComTags.FLOW_STATUS_PREFIXED, new ModelPrefixResolver());
+	private static final ElementPath DETAIL_PATH = new ElementPath(SOAPTags.DETAIL, new ModelPrefixResolver());
+	private static final ElementPath MEDCOM_FAULT_CODE_PATH = new ElementPath(MedComTags.FAULT_CODE_PREFIXED, new ModelPrefixResolver());
+
 	public ReplyModelBuilder(SOSIFactory fac) {
 		super(fac);
 	}
@@ -63,30 +70,26 @@ public class ReplyModelBuilder extends MessageModelBuilder {
 	 */
 	public Reply buildModel(Document doc) throws ModelBuildException {
 
-		ModelPrefixResolver prefixResolver = new ModelPrefixResolver();
-
-		// Get soap:Header
-		Element elmSoapHeader = XmlUtil.selectSingleElement(doc, "//" + NameSpaces.NS_SOAP + ":Envelope/" + NameSpaces.NS_SOAP + ":Header", prefixResolver, true);
-		// Get creation date
-		Element elmCreated = XmlUtil.selectSingleElement(elmSoapHeader, NameSpaces.NS_WSSE + ":Security/" + NameSpaces.NS_WSU + ":Timestamp/" + NameSpaces.NS_WSU + ":Created", prefixResolver, true);
+		// Walk soap:Header
+		SOAPHeaderParts parts = new SOAPHeaderParts(doc);
 
-		String xmlTimestamp = XmlUtil.getTextNodeValue(elmCreated);
+		String xmlTimestamp = XmlUtil.getTextNodeValue(parts.getCreated());
 		String dgwsVersion = XmlUtil.isZuluTimeFormat(xmlTimestamp) ? DGWSConstants.VERSION_1_0_1 : DGWSConstants.VERSION_1_0;
 
 
-		Element elmMedcomHeader = XmlUtil.selectSingleElement(elmSoapHeader, MedComTags.HEADER_PREFIXED, prefixResolver, true);
+		Element elmMedcomHeader = MEDCOM_HEADER_PATH.selectSingleElement(parts.getHeader(), true);
 		// Get medcom:Linking
-		Element elmLinking = XmlUtil.selectSingleElement(elmMedcomHeader, MedComTags.LINKING_PREFIXED, prefixResolver, true);
+		Element elmLinking = LINKING_PATH.selectSingleElement(elmMedcomHeader, true);
 		// Get the values of the (potentially) 3 elements in the medcom:Linking
 		// root
 		String inResponseToMessageID = null;
 		String flowID = null;
 
-		Element elmInResponseToMessageId = XmlUtil.selectSingleElement(elmLinking, MedComTags.IN_RESPONSE_TO_MESSAGE_ID_PREFIXED, prefixResolver, false);
+		Element elmInResponseToMessageId = IN_RESPONSE_TO_MESSAGE_ID_PATH.selectSingleElement(elmLinking, false);
 		if (elmInResponseToMessageId != null) {
 			inResponseToMessageID = XmlUtil.getTextNodeValue(elmInResponseToMessageId);
 		}
-		Element elmFlowID = XmlUtil.selectSingleElement(elmLinking, MedComTags.FLOW_ID_PREFIXED, prefixResolver, false);
+		Element elmFlowID = FLOW_ID_PATH.selectSingleElement(elmLinking, false);
 		if (elmFlowID != null) {
 			flowID = XmlUtil.getTextNodeValue(elmFlowID);
 		}
@@ -95,21 +98,21 @@ public class ReplyModelBuilder extends MessageModelBuilder {
 		Element elmFlowStatus, elmMedcomFaultCode, elmFaultString, elmFaultCode;
 		Reply reply;
 
-		elmFlowStatus = XmlUtil.selectSingleElement(elmMedcomHeader, MedComTags.FLOW_STATUS_PREFIXED, prefixResolver, false);
+		elmFlowStatus = FLOW_STATUS_PATH.selectSingleElement(elmMedcomHeader, false);
 
 		if (elmFlowStatus == null) {
 			// This could be a fault. Check for soap:Fault in the body.
-			Element fault = XmlUtil.selectSingleElement(doc, "//" + SOAPTags.BODY_PREFIXED + '/' + SOAPTags.FAULT_PREFIXED, prefixResolver, false);
+			Element fault = SOAP_FAULT_PATH.selectSingleElement(doc, false);
 			if (fault == null) {
 				throw new ModelBuildException("No " + MedComTags.FLOW_STATUS_PREFIXED + " present in document and no " + SOAPTags.FAULT_PREFIXED + " in "
 						+ SOAPTags.BODY_PREFIXED + "!");
 			}
 
-            elmFaultCode = XmlUtil.selectSingleElement(fault, SOAPTags.FAULTCODE, prefixResolver, false);
-            Element detail = XmlUtil.selectSingleElement(fault, SOAPTags.DETAIL, prefixResolver, false);
-            List<Element> extraFaultDetails = extractExtraFaultDetails(detail, prefixResolver);
-            elmMedcomFaultCode = XmlUtil.selectSingleElement(detail, MedComTags.FAULT_CODE_PREFIXED, prefixResolver, false);
-            elmFaultString = XmlUtil.selectSingleElement(fault, SOAPTags.FAULTSTRING, prefixResolver, false);
+            elmFaultCode = FAULTCODE_PATH.selectSingleElement(fault, false);
+            Element detail = DETAIL_PATH.selectSingleElement(fault, false);
+            List<Element> extraFaultDetails = extractExtraFaultDetails(detail);
+            elmMedcomFaultCode = MEDCOM_FAULT_CODE_PATH.selectSingleElement(detail, false);
+            elmFaultString = FAULTSTRING_PATH.selectSingleElement(fault, false);
 
             if (elmFaultCode == null)
 				throw new ModelBuildException("No " + SOAPTags.FAULTCODE + " in " + SOAPTags.FAULT_PREFIXED);
@@ -127,7 +130,7 @@ public class ReplyModelBuilder extends MessageModelBuilder {
 		}
 
 		// Message parameters
-		super.buildModel(reply, doc);
+		super.buildModel(reply, doc, parts);
 
 		// Validate Signature
 		SignatureUtil.validateAllSignatures(reply, doc.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.SIGNATURE), factory.getFederation(), factory.getCredentialVault(),true);
@@ -135,16 +138,17 @@ public class ReplyModelBuilder extends MessageModelBuilder {
 		return reply;
 	}
 
-    private List<Element> extractExtraFaultDetails(Element detail, ModelPrefixResolver prefixResolver) {
-        try {
-            NodeList nodelist = XPathAPI.eval(detail, "*[not(self::" + MedComTags.FAULT_CODE_PREFIXED + ")]", prefixResolver).nodelist();
-            List<Element> extraFaultDetails = new ArrayList<Element>(nodelist.getLength());
-            for (int i = 0; i < nodelist.getLength(); i++) {
-                extraFaultDetails.add((Element) nodelist.item(i));
+    private List<Element> extractExtraFaultDetails(Element detail) {
+        // All element children of soap:detail except medcom:FaultCode
+        List<Element> extraFaultDetails = new ArrayList<Element>();
+        if (detail != null) {
+            for (Node child = detail.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE
+                        && !(MedComTags.FAULT_CODE.equals(child.getLocalName()) && NameSpaces.MEDCOM_SCHEMA.equals(child.getNamespaceURI()))) {
+                    extraFaultDetails.add((Element) child);
+                }
             }
-            return extraFaultDetails;
-        } catch (TransformerException e) {
-            throw new ModelBuildException("Could not determine extra fault details", e);
         }
+        return extraFaultDetails;
     }
 }
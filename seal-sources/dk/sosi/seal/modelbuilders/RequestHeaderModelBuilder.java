@@ -31,8 +31,10 @@ package dk.sosi.seal.modelbuilders;
 import dk.sosi.seal.SOSIFactory;
 import dk.sosi.seal.model.Request;
 import dk.sosi.seal.model.RequestHeader;
+import dk.sosi.seal.model.RequestHeaderWithBody;
 import dk.sosi.seal.model.constants.NameSpaces;
 import dk.sosi.seal.model.constants.SOAPTags;
+import dk.sosi.seal.xml.EnvelopeSplitter;
 import dk.sosi.seal.xml.XmlUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -52,6 +54,21 @@ public class RequestHeaderModelBuilder{
 				request.getMessageID(), request.getFlowID(), headerDoc, request.isDemandNonRepudiationReceipt());
 	}
 
+	/**
+	 * Builds a RequestHeader from a complete SOAP envelope, whose body has been left out of the DOM document.
+	 *
+	 * @param doc
+	 *            The DOM document of the envelope with an empty <code>soap:Body</code>.
+	 * @param envelope
+	 *            The located body of the original envelope.
+	 */
+	public RequestHeaderWithBody buildModel(Document doc, EnvelopeSplitter envelope) throws ModelBuildException {
+		Request request = new RequestModelBuilder(factory).buildModel(doc);
+		return new RequestHeaderWithBody(request.getDGWSVersion(), request.getCreationDate(), request.getIDCard(),
+				request.getMessageID(), request.getFlowID(), doc, request.isDemandNonRepudiationReceipt(), envelope,
+				factory.getProperties());
+	}
+
 	private Request buildRequest(Document headerDoc) throws ModelBuildException {
 		Document doc = XmlUtil.createEmptyDocument();
 		Element envelope = doc.createElementNS(NameSpaces.SOAP_SCHEMA, SOAPTags.ENVELOPE_PREFIXED);
@@ -33,7 +33,6 @@ import dk.sosi.seal.model.AuthenticationLevel;
 import dk.sosi.seal.model.Request;
 import dk.sosi.seal.model.SignatureUtil;
 import dk.sosi.seal.model.constants.DSTags;
-import dk.sosi.seal.model.constants.MedComTags;
 import dk.sosi.seal.model.constants.NameSpaces;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -62,10 +61,13 @@ public class RequestModelBuilder extends MessageModelBuilder {
 	 */
 	public Request buildModel(Document doc) throws ModelBuildException {
 
+		// Walk soap:Header
+		SOAPHeaderParts parts = new SOAPHeaderParts(doc);
+
 		// Extract parameters
 
 		boolean noRep = false;
-        Node node = doc.getElementsByTagNameNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.REQUIRE_NON_REPUDIATION_RECEIPT).item(0);
+        Node node = parts.getRequireNonRepudiationReceipt();
         if (node != null) {
         	String noRepString = node.getChildNodes().item(0).getNodeValue();
         	noRep = !"no".equals(noRepString);
@@ -74,7 +76,7 @@ public class RequestModelBuilder extends MessageModelBuilder {
 		Request request = factory.createNewRequest(noRep, null);
 
 		// Message parameters
-		super.buildModel(request, doc);
+		super.buildModel(request, doc, parts);
 
 		if (AuthenticationLevel.MOCES_TRUSTED_USER.equals(request.getIDCard().getAuthenticationLevel()) ||
 				AuthenticationLevel.VOCES_TRUSTED_SYSTEM.equals(request.getIDCard().getAuthenticationLevel())) {
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.modelbuilders;
+
+import dk.sosi.seal.model.constants.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a DGWS SOAP envelope needed for building message models, collected in a single walk over the <code>soap:Header</code>.<br />
+ * Only the direct children of <code>soap:Envelope</code>, <code>soap:Header</code>, <code>medcom:Header</code>, <code>medcom:Linking</code> and
+ * <code>wsse:Security</code> are visited, so the cost is independent of the size of the <code>soap:Body</code>.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+final class SOAPHeaderParts {
+
+	private final Element header;
+	private final Element created;
+	private final List<Element> nonSOSIHeaders = new ArrayList<Element>();
+	private final List<Element> assertions = new ArrayList<Element>();
+	private Element medcomHeader;
+	private Element security;
+	private Element messageID;
+	private Element flowID;
+	private Element requireNonRepudiationReceipt;
+	private Element body;
+
+	/**
+	 * Walks the header of the supplied document.
+	 *
+	 * @param doc
+	 *            The DOM document holding the SOAP envelope.
+	 * @throws ModelBuildException
+	 *             If the document has no <code>soap:Header</code> or not exactly one <code>wsu:Created</code> timestamp.
+	 */
+	SOAPHeaderParts(Document doc) throws ModelBuildException {
+		header = MessageModelBuilder.SOAP_HEADER_PATH.selectSingleElement(doc, true);
+		created = MessageModelBuilder.CREATED_PATH.selectSingleElement(header, true);
+
+		for (Node n = header.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			Element e = (Element) n;
+			if (medcomHeader == null && is(e, NameSpaces.MEDCOM_SCHEMA, MedComTags.HEADER)) {
+				medcomHeader = e;
+				walkMedcomHeader(e);
+			} else if (security == null && is(e, NameSpaces.WSSE_SCHEMA, WSSETags.SECURITY)) {
+				security = e;
+				walkSecurity(e);
+			} else if (!is(e, NameSpaces.MEDCOM_SCHEMA, MedComTags.HEADER) && !is(e, NameSpaces.WSSE_SCHEMA, WSSETags.SECURITY)) {
+				nonSOSIHeaders.add(e);
+			}
+		}
+
+		for (Node n = doc.getDocumentElement().getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeType() == Node.ELEMENT_NODE && is((Element) n, NameSpaces.SOAP_SCHEMA, SOAPTags.BODY_UNPREFIXED)) {
+				body = (Element) n;
+				break;
+			}
+		}
+	}
+
+	private void walkMedcomHeader(Element elmMedcomHeader) {
+		for (Node n = elmMedcomHeader.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeType() != Node.ELEMENT_NODE) {
+				continue;
+			}
+			Element e = (Element) n;
+			if (is(e, NameSpaces.MEDCOM_SCHEMA, MedComTags.LINKING)) {
+				for (Node l = e.getFirstChild(); l != null; l = l.getNextSibling()) {
+					if (l.getNodeType() != Node.ELEMENT_NODE) {
+						continue;
+					}
+					if (messageID == null && is((Element) l, NameSpaces.MEDCOM_SCHEMA, MedComTags.MESSAGE_ID)) {
+						messageID = (Element) l;
+					} else if (flowID == null && is((Element) l, NameSpaces.MEDCOM_SCHEMA, MedComTags.FLOW_ID)) {
+						flowID = (Element) l;
+					}
+				}
+			} else if (requireNonRepudiationReceipt == null && is(e, NameSpaces.MEDCOM_SCHEMA, MedComTags.REQUIRE_NON_REPUDIATION_RECEIPT)) {
+				requireNonRepudiationReceipt = e;
+			}
+		}
+	}
+
+	private void walkSecurity(Element elmSecurity) {
+		for (Node n = elmSecurity.getFirstChild(); n != null; n = n.getNextSibling()) {
+			if (n.getNodeType() == Node.ELEMENT_NODE && is((Element) n, NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ASSERTION)) {
+				assertions.add((Element) n);
+			}
+		}
+	}
+
+	private static boolean is(Element e, String namespaceURI, String localName) {
+		return localName.equals(e.getLocalName()) && namespaceURI.equals(e.getNamespaceURI());
+	}
+
+	/**
+	 * @return The <code>soap:Header</code> element.
+	 */
+	Element getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return The <code>wsse:Security/wsu:Timestamp/wsu:Created</code> element.
+	 */
+	Element getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return The <code>medcom:Header</code> element, or <code>null</code> if not present.
+	 */
+	Element getMedcomHeader() {
+		return medcomHeader;
+	}
+
+	/**
+	 * @return The <code>wsse:Security</code> element, or <code>null</code> if not present.
+	 */
+	Element getSecurity() {
+		return security;
+	}
+
+	/**
+	 * @return The <code>medcom:Linking/medcom:MessageID</code> element, or <code>null</code> if not present.
+	 */
+	Element getMessageID() {
+		return messageID;
+	}
+
+	/**
+	 * @return The <code>medcom:Linking/medcom:FlowID</code> element, or <code>null</code> if not present.
+	 */
+	Element getFlowID() {
+		return flowID;
+	}
+
+	/**
+	 * @return The <code>medcom:RequireNonRepudiationReceipt</code> element, or <code>null</code> if not present.
+	 */
+	Element getRequireNonRepudiationReceipt() {
+		return requireNonRepudiationReceipt;
+	}
+
+	/**
+	 * @return The <code>saml:Assertion</code> children of <code>wsse:Security</code> in document order.
+	 */
+	List<Element> getAssertions() {
+		return assertions;
+	}
+
+	/**
+	 * @return The children of <code>soap:Header</code> other than <code>medcom:Header</code> and <code>wsse:Security</code>.
+	 */
+	List<Element> getNonSOSIHeaders() {
+		return nonSOSIHeaders;
+	}
+
+	/**
+	 * @return The <code>soap:Body</code> element, or <code>null</code> if not present.
+	 */
+	Element getBody() {
+		return body;
+	}
+}
@@ -33,8 +33,10 @@ import dk.sosi.seal.model.SecurityTokenResponse;
 import dk.sosi.seal.model.SignatureUtil;
 import dk.sosi.seal.model.constants.DGWSConstants;
 import dk.sosi.seal.model.constants.DSTags;
+import dk.sosi.seal.model.constants.IDValues;
 import dk.sosi.seal.model.constants.NameSpaces;
 import dk.sosi.seal.model.constants.SOAPTags;
+import dk.sosi.seal.xml.ElementPath;
 import dk.sosi.seal.xml.XmlUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -51,6 +53,8 @@ import java.util.Date;
  */
 public class SecurityTokenResponseModelBuilder extends MessageModelBuilder {
 
+    private static final ElementPath FAULTACTOR_PATH = new ElementPath(SOAPTags.FAULTACTOR, new ModelPrefixResolver());
+
     private final boolean validateTrust;
 
     @Deprecated
@@ -72,16 +76,10 @@ public class SecurityTokenResponseModelBuilder extends MessageModelBuilder {
 	 */
 	public SecurityTokenResponse buildModel(Document doc) throws ModelBuildException {
 
-		ModelPrefixResolver modelPrefixResolver = new ModelPrefixResolver();
-
-		// Get soap:Header
-
-		Element elmSoapHeader = XmlUtil.selectSingleElement(doc, "//" + NameSpaces.NS_SOAP + ":Envelope/" + NameSpaces.NS_SOAP + ":Header", modelPrefixResolver, true);
-
-		// Get creation date
-		Element elmCreated = XmlUtil.selectSingleElement(elmSoapHeader, "wsse:Security/wsu:Timestamp/wsu:Created", modelPrefixResolver, true);
+		// Walk soap:Header
+		SOAPHeaderParts parts = new SOAPHeaderParts(doc);
 
-		String xmlTimestamp = XmlUtil.getTextNodeValue(elmCreated);
+		String xmlTimestamp = XmlUtil.getTextNodeValue(parts.getCreated());
 		Date created;
 		try {
 			created = XmlUtil.fromXMLTimeStamp(xmlTimestamp);
@@ -91,18 +89,18 @@ public class SecurityTokenResponseModelBuilder extends MessageModelBuilder {
 
 		String dgwsVersion = XmlUtil.isZuluTimeFormat(xmlTimestamp) ? DGWSConstants.VERSION_1_0_1 : DGWSConstants.VERSION_1_0;
 
-		String inResponseToMessageID = ((Element) doc.getElementsByTagNameNS(NameSpaces.WSSE_SCHEMA, "Security").item(0)).getAttribute("id");
+		String inResponseToMessageID = parts.getSecurity().getAttribute(IDValues.id);
 
 		Element elmFaultCode, elmFaultString, elmFaultActor;
 		SecurityTokenResponse securityTokenResponse;
 
 		// This could be a fault. Check for soap:Fault in the body.
-		Element fault = XmlUtil.selectSingleElement(doc, "//" + SOAPTags.BODY_PREFIXED + '/' + SOAPTags.FAULT_PREFIXED, modelPrefixResolver, false);
+		Element fault = SOAP_FAULT_PATH.selectSingleElement(doc, false);
 		if (fault != null) {
 
-			elmFaultCode = XmlUtil.selectSingleElement(fault, SOAPTags.FAULTCODE, modelPrefixResolver, false);
-			elmFaultString = XmlUtil.selectSingleElement(fault, SOAPTags.FAULTSTRING, modelPrefixResolver, false);
-			elmFaultActor = XmlUtil.selectSingleElement(fault, SOAPTags.FAULTACTOR, modelPrefixResolver, false);
+			elmFaultCode = FAULTCODE_PATH.selectSingleElement(fault, false);
+			elmFaultString = FAULTSTRING_PATH.selectSingleElement(fault, false);
+			elmFaultActor = FAULTACTOR_PATH.selectSingleElement(fault, false);
 
 			if (elmFaultCode == null)
 				throw new ModelBuildException("No " + SOAPTags.FAULTCODE + " in " + SOAPTags.FAULT_PREFIXED);
@@ -122,7 +120,7 @@ public class SecurityTokenResponseModelBuilder extends MessageModelBuilder {
 		securityTokenResponse.setCreationDate(created);
 
 		// Message parameters
-		super.buildModel(securityTokenResponse, doc);
+		super.buildModel(securityTokenResponse, doc, parts);
 
 		// Validate Signature
 		SignatureUtil.validateAllSignatures(securityTokenResponse, doc.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.SIGNATURE), factory
@@ -31,6 +31,10 @@ package dk.sosi.seal.pki;
 
 /**
  * Interface to be implemented by users wishing to handle auditing events.
+ * <p/>
+ * The handler configured through <code>sosi:federation.audithandler</code> is instantiated once per
+ * <code>SOSIFactory</code> and <code>Federation</code> and used by all threads sharing that instance, so
+ * implementations must be thread-safe.
  * 
  * @author peter@signaturgruppen.dk
  * @author $LastChangedBy: chg@lakeside.dk $
@@ -29,6 +29,7 @@
 package dk.sosi.seal.pki;
 
 import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.Map;
 import java.util.Set;
@@ -51,17 +52,59 @@ public interface CRLCache {
         private final X509CRL crl;
         private final long lastModified;
         private final long created;
+        private final String eTag;
+        private volatile RevokedSerialIndex index;
 
         public CRLInfo(final X509CRL crl, final long lastModified) {
+            this(crl, lastModified, null);
+        }
+
+        /**
+         * @param crl          the revocation list.
+         * @param lastModified the Last-Modified time reported for the CRL.
+         * @param eTag         the ETag reported for the CRL or <code>null</code> if none.
+         */
+        public CRLInfo(final X509CRL crl, final long lastModified, final String eTag) {
+            this(crl, lastModified, new Date().getTime(), eTag);
+        }
+
+        CRLInfo(final X509CRL crl, final long lastModified, final long created, final String eTag) {
             this.crl = crl;
             this.lastModified = lastModified;
-            this.created = new Date().getTime();
+            this.created = created;
+            this.eTag = eTag;
         }
 
         CRLInfo(CRLInfo other) {
             this.crl = other.crl;
             this.lastModified = other.lastModified;
             this.created = other.created;
+            this.eTag = other.eTag;
+            this.index = other.index;
+        }
+
+        /**
+         * Reuses the revoked serial index of the other info, if it holds the same CRL.
+         */
+        void shareIndex(CRLInfo other) {
+            if (other != null && other.crl == crl) {
+                index = other.index;
+            }
+        }
+
+        /**
+         * Builds the revoked serial index, unless already built. Called once per
+         * download or cache update, so the request threads never build it.
+         */
+        void indexRevokedSerials() {
+            if (index == null && crl != null) {
+                index = RevokedSerialIndex.build(crl);
+            }
+        }
+
+        /*Visible for testing*/
+        boolean isIndexed() {
+            return index != null;
         }
 
         /**
@@ -86,6 +129,34 @@ public interface CRLCache {
         public long getCreated() {
             return created;
         }
+
+        /**
+         * The entity tag the CRL was served with, used for conditional
+         * requests. <code>null</code> if the endpoint did not supply one.
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Checks the certificate against the revocation list. If the revoked
+         * serial numbers have been indexed when the CRL was downloaded or
+         * cached, the check is cheaper than <code>X509CRL.isRevoked</code>,
+         * which is used otherwise, e.g. for indirect CRLs.
+         * <p/>
+         * The index is kept in addition to the CRL, it does not reduce the
+         * memory used by cached CRLs.
+         *
+         * @param cert the certificate to check.
+         * @return <code>true</code> if the certificate is revoked.
+         */
+        public boolean isRevoked(X509Certificate cert) {
+            final RevokedSerialIndex revokedSerials = index;
+            if (revokedSerials == null) {
+                return crl.isRevoked(cert);
+            }
+            return revokedSerials.isRevoked(cert);
+        }
     }
 
     /**
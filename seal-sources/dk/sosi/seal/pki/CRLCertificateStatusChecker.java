@@ -44,6 +44,16 @@ import java.security.cert.*;
 import java.util.Date;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The semantic for the interval setting in the properties:
@@ -127,6 +137,39 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
      */
     private final int ttl;
 
+    /**
+     * Grace period in ms after the next update time (plus ttl) of a cached CRL,
+     * in which it may still be used while it is updated in the background.
+     * NEVER means that CRLs due for update are always updated before use.
+     */
+    private volatile long maxStaleness = NEVER;
+
+    /**
+     * Urls of the CRLs with a background update queued or running.
+     */
+    private final ConcurrentHashMap<String, Boolean> refreshesPending = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Runs the background updates of stale CRLs. The thread ends when idle.
+     * Only created when a staleness window is set.
+     */
+    private volatile ThreadPoolExecutor refresher;
+
+    /**
+     * CRL downloads currently in progress, by url. Used to let concurrent callers share a single download.
+     */
+    private final ConcurrentHashMap<String, FutureTask<CRLCache.CRLInfo>> downloadsInProgress = new ConcurrentHashMap<String, FutureTask<CRLCache.CRLInfo>>();
+
+    /**
+     * Number of CRL downloads started.
+     */
+    private final AtomicLong downloadCount = new AtomicLong();
+
+    /**
+     * Number of callers that waited for a download started by another thread instead of starting their own.
+     */
+    private final AtomicLong coalescedCount = new AtomicLong();
+
     private static final Log log = LogFactory.getLog(CRLCertificateStatusChecker.class);
 
     /**
@@ -178,6 +221,56 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
         this.readTimeout = readTimeout;
     }
 
+    /**
+     * Allows a cached CRL, which is due for an update, to be used for checks
+     * until <code>maxStaleness</code> seconds after its next update time (plus
+     * ttl). This avoids request threads waiting for CRL downloads. When a stale
+     * CRL is used, a single update of it is started in a background thread.
+     * Combine with a <code>CRLRefreshScheduler</code> to update the cached CRLs
+     * before they are due.
+     * <p/>
+     * Within the window a failed update does not remove the CRL from the cache.
+     * After the window the CRL is updated on the request thread before use, as
+     * without a staleness window.
+     *
+     * <p/>
+     * The background thread is created by this method and may be stopped using
+     * <code>shutdown</code>.
+     *
+     * @param maxStaleness the grace period in seconds or NEVER to always update
+     *                     CRLs due for an update before use (the default).
+     */
+    public synchronized void setMaxStaleness(int maxStaleness) {
+        if (maxStaleness < NEVER) {
+            throw new IllegalArgumentException("Illegal maxStaleness");
+        }
+        if (maxStaleness != NEVER && refresher == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "CRLCertificateStatusChecker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            refresher = executor;
+        }
+        this.maxStaleness = maxStaleness == NEVER ? NEVER : maxStaleness * 1000L;
+    }
+
+    /**
+     * Stops the background updates of stale CRLs. An update in progress is
+     * allowed to finish. Afterwards CRLs due for an update are always updated
+     * before use, as without a staleness window.
+     */
+    public synchronized void shutdown() {
+        maxStaleness = NEVER;
+        if (refresher != null) {
+            refresher.shutdown();
+            refresher = null;
+        }
+    }
+
 
     /**
      * Checks if the certificate supplied is revoked. The check is performed
@@ -211,40 +304,157 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
     }
 
     /**
-     * No measures are taken to ensure, that the same CRL is not downloaded by
-     * multiple threads simultaneously. The cache does however ensure consistency.
+     * If a download is needed and another thread is already downloading the same
+     * CRL, the caller waits for and shares the result of that download instead
+     * of starting its own.
      *
      * @param url     the CRL endpoint
      * @param crlInfo the old crlInfo if such exists otherwise null
      * @return the crlInfo, which might be updated.
      */
     private CRLCache.CRLInfo checkAndUpdate(String url, final CRLCache.CRLInfo crlInfo) {
+        if (isUpdateNeeded(crlInfo, 0)) {
+            if (isUsableWhileStale(crlInfo) && updateInBackground(url, crlInfo)) {
+                log.debug("CRL update moved to the background, the cached CRL is within the staleness window.");
+                return crlInfo;
+            }
+            return update(url, crlInfo, 0);
+        }
+        return crlInfo;
+    }
+
+    private boolean isUpdateNeeded(final CRLCache.CRLInfo crlInfo, final long lookAhead) {
         final boolean update;
         if (interval == NEVER) {
             update = false;
-        } else if (crlInfo == null) {
+        } else if (crlInfo == null || crlInfo.getCrl() == null) {
             log.debug("CRL download triggered by having no existing CRL.");
             update = true;
         } else if (interval == ALWAYS) {
             log.debug("CRL download triggered by ALWAYS.");
             update = true;
-        } else if (!hasTTL(crlInfo.getCrl())) {
+        } else if (!isLive(crlInfo.getCrl(), System.currentTimeMillis() + lookAhead)) {
+            // Not hasTTL, this runs on every check while a stale CRL is used
             update = true;
-            log.debug("CRL download triggered by ttl.");
+            log.debug("CRL download triggered by ttl, the next update timestamp was: " + crlInfo.getCrl().getNextUpdate());
         } else {
-            update = System.currentTimeMillis() - crlInfo.getCreated() > interval;
+            update = System.currentTimeMillis() + lookAhead - crlInfo.getCreated() > interval;
             if (update) log.debug("CRL download triggered interval.");
         }
+        return update;
+    }
+
+    private boolean isUsableWhileStale(final CRLCache.CRLInfo crlInfo) {
+        final long window = maxStaleness;
+        if (window == NEVER || crlInfo == null || crlInfo.getCrl() == null || crlInfo.getCrl().getNextUpdate() == null) {
+            return false;
+        }
+        final long expiry = crlInfo.getCrl().getNextUpdate().getTime() + (ttl == NEVER ? 0 : ttl);
+        return System.currentTimeMillis() <= expiry + window;
+    }
+
+    /**
+     * @return false if the update could not be started, because the background updates are stopped.
+     */
+    private boolean updateInBackground(final String url, final CRLCache.CRLInfo crlInfo) {
+        final ThreadPoolExecutor executor = refresher;
+        if (executor == null) {
+            return false;
+        }
+        if (downloadsInProgress.containsKey(url) || refreshesPending.putIfAbsent(url, Boolean.TRUE) != null) {
+            return true;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        update(url, crlInfo, 0);
+                    } catch (Throwable t) {
+                        log.error("Background update of " + url + " failed.", t);
+                    } finally {
+                        refreshesPending.remove(url);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // shut down concurrently
+            refreshesPending.remove(url);
+            return false;
+        }
+    }
 
-        if (update) {
+    private CRLCache.CRLInfo update(final String url, final CRLCache.CRLInfo crlInfo, final long lookAhead) {
+        final FutureTask<CRLCache.CRLInfo> download = new FutureTask<CRLCache.CRLInfo>(new Callable<CRLCache.CRLInfo>() {
+            public CRLCache.CRLInfo call() {
+                // A download for the same url may have completed after the caller read crlInfo from the cache
+                final CRLCache.CRLInfo current = cache.get(url);
+                if (current != null && !isUpdateNeeded(current, lookAhead)) {
+                    log.debug("CRL of " + url + " was updated by another thread, skipping download.");
+                    return current;
+                }
+                downloadCount.incrementAndGet();
+                try {
+                    final CRLCache.CRLInfo loaded = load(url, crlInfo);
+                    if (loaded != null) {
+                        loaded.indexRevokedSerials();
+                    }
+                    return cache.update(url, loaded);
+                } catch (Throwable t) {
+                    log.error("While trying to download " + url + " <" + t.toString() + "> occurred.");
+                    if (isUsableWhileStale(crlInfo)) {
+                        return crlInfo;
+                    }
+                    return cache.update(url, (CRLCache.CRLInfo) null);
+                }
+            }
+        });
+
+        final FutureTask<CRLCache.CRLInfo> inProgress = downloadsInProgress.putIfAbsent(url, download);
+        if (inProgress == null) {
             try {
-                return cache.update(url, load(url, crlInfo));
-            } catch (Throwable t) {
-                log.error("While trying to download " + url + " <" + t.toString() + "> occurred.");
-                return cache.update(url, (CRLCache.CRLInfo) null);
+                download.run();
+            } finally {
+                downloadsInProgress.remove(url, download);
             }
+            return awaitDownload(url, download);
+        } else {
+            coalescedCount.incrementAndGet();
+            log.debug("CRL download of " + url + " already in progress, awaiting result.");
+            return awaitDownload(url, inProgress);
         }
-        return crlInfo;
+    }
+
+    private CRLCache.CRLInfo awaitDownload(String url, FutureTask<CRLCache.CRLInfo> download) {
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            // Failing here rather than returning no CRL, which would let the certificate pass as not revoked
+            Thread.currentThread().interrupt();
+            throw new PKIException("Interrupted while waiting for download of " + url, e);
+        } catch (ExecutionException e) {
+            throw new PKIException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of CRL downloads started by this checker.
+     */
+    public long getDownloadCount() {
+        return downloadCount.get();
+    }
+
+    /**
+     * Returns the number of callers that needed a CRL download, but shared the
+     * result of a download already in progress for the same url instead.
+     */
+    public long getCoalescedDownloadCount() {
+        return coalescedCount.get();
+    }
+
+    /*Visible for testing*/
+    boolean isUpdating() {
+        return !downloadsInProgress.isEmpty() || !refreshesPending.isEmpty();
     }
 
     private CRLCache.CRLInfo checkCRL(String url, CRLCache.CRLInfo crlInfo, X509Certificate cert) {
@@ -272,6 +482,14 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
         public UncheckedCRLInfo(final X509CRL crl, final long lastModified) {
             super(crl, lastModified);
         }
+
+        public UncheckedCRLInfo(final X509CRL crl, final long lastModified, final String eTag) {
+            super(crl, lastModified, eTag);
+        }
+
+        UncheckedCRLInfo(final X509CRL crl, final long lastModified, final long created, final String eTag) {
+            super(crl, lastModified, created, eTag);
+        }
     }
 
     /**
@@ -304,6 +522,22 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
         }
     }
 
+    /**
+     * Updates the cached CRLs which are due for an update now or within the
+     * supplied time. Used by <code>CRLRefreshScheduler</code> to update CRLs
+     * before request threads need them.
+     *
+     * @param lookAhead the time in ms ahead of now at which the CRLs should still be current.
+     */
+    void updateDue(final long lookAhead) {
+        for (Map.Entry<String, CRLCache.CRLInfo> entry : cache.entries()) {
+            final CRLCache.CRLInfo crlInfo = entry.getValue();
+            if (crlInfo != null && isUpdateNeeded(crlInfo, lookAhead)) {
+                update(entry.getKey(), crlInfo, lookAhead);
+            }
+        }
+    }
+
     /**
      * Check the certificate against the revocation list. If the CRLInfo
      * is unchecked, the CRLinfo is disregarded.
@@ -323,7 +557,7 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
                 return nonStrictCaseWithoutCRL();
             }
         }
-        return new CertificateStatus(! info.getCrl().isRevoked(cert), info.getCrl().getThisUpdate());
+        return new CertificateStatus(! info.isRevoked(cert), info.getCrl().getThisUpdate());
     }
 
     private CertificateStatus nonStrictCaseWithoutCRL() {
@@ -379,21 +613,25 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
             throw new IllegalStateException("CRL could not be downloaded");
         }
 
+        final CRLCache.CRLInfo result;
         if (crlInfo == null) {
             // not modified, but checked
             if (old instanceof UncheckedCRLInfo)
-                return new UncheckedCRLInfo(old.getCrl(), old.getLastModified());
+                result = new UncheckedCRLInfo(old.getCrl(), old.getLastModified(), old.getETag());
             else
-                return new CRLCache.CRLInfo(old.getCrl(), old.getLastModified());
+                result = new CRLCache.CRLInfo(old.getCrl(), old.getLastModified(), old.getETag());
         } else {
-            return crlInfo;
+            result = crlInfo;
         }
+        result.shareIndex(old);
+        return result;
 
     }
 
     /**
-     * Download the CRL from the url, but do a If-Modified-Since request
-     * based on the CRLInfo
+     * Download the CRL from the url, but do a conditional request using
+     * If-Modified-Since and If-None-Match based on the CRLInfo. The CRL is
+     * parsed directly from the response stream.
      *
      * @param url the location of the crl
      * @param crlInfo the date used for the request
@@ -405,18 +643,25 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
     private CRLCache.CRLInfo downloadCRL(URL url, CRLCache.CRLInfo crlInfo) throws IOException {
         X509CRL x509CRL = crlInfo == null ? null : crlInfo.getCrl();
         long lastModified = crlInfo == null ? -1 : crlInfo.getLastModified();
+        String eTag = crlInfo == null ? null : crlInfo.getETag();
         final URLConnection conn = url.openConnection();
         conn.setConnectTimeout(connectTimeout);
         conn.setReadTimeout(readTimeout);
-        if (lastModified != 0) {
+        if (lastModified > 0) {
             conn.setIfModifiedSince(lastModified);
         }
+        if (eTag != null) {
+            conn.setRequestProperty("If-None-Match", eTag);
+        }
         conn.connect();
         if (conn instanceof HttpURLConnection) {
             // Last-Modified header not (always) set when HTTP status is 304
             if (HttpURLConnection.HTTP_NOT_MODIFIED != ((HttpURLConnection) conn).getResponseCode()) {
                 lastModified = conn.getLastModified();
+                eTag = conn.getHeaderField("ETag");
                 x509CRL = generateCrl(conn.getInputStream());
+            } else {
+                closeStream(conn.getInputStream());
             }
         } else if (lastModified != conn.getLastModified()) {
             lastModified = conn.getLastModified();
@@ -427,12 +672,20 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
         }
 
         // always new
-        if (crlInfo == null || lastModified != crlInfo.getLastModified())
-            return new UncheckedCRLInfo(x509CRL, lastModified);
+        if (crlInfo == null || lastModified != crlInfo.getLastModified() || !equals(eTag, crlInfo.getETag()))
+            return new UncheckedCRLInfo(x509CRL, lastModified, eTag);
         else
-            return new CRLCache.CRLInfo(x509CRL, lastModified); // if nothing changed
+            return new CRLCache.CRLInfo(x509CRL, lastModified, eTag); // if nothing changed
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
     }
 
+    /**
+     * Parses the CRL from the response stream. The stream is handed directly
+     * to the certificate factory, which reads the complete encoding itself.
+     */
     private static X509CRL generateCrl(InputStream in) {
         try {
             final CertificateFactory certificatefactory = CertificateFactory.getInstance("X.509");
@@ -479,12 +732,13 @@ public class CRLCertificateStatusChecker implements CertificateStatusChecker {
     }
 
     protected boolean hasTTL(X509CRL crl) {
-        if (ttl == NEVER) return true;
-
-        long now = System.currentTimeMillis();
-        boolean result = crl.getNextUpdate().getTime() + ttl > now;
+        boolean result = isLive(crl, System.currentTimeMillis());
         if (!result) log.error("The CRL is not live, the next update timestamp was: " + crl.getNextUpdate());
         return result;
     }
 
+    private boolean isLive(X509CRL crl, long at) {
+        return ttl == NEVER || crl.getNextUpdate().getTime() + ttl > at;
+    }
+
 }
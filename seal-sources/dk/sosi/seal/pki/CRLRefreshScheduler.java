@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically updates the CRLs cached by a <code>CRLCertificateStatusChecker</code>
+ * in a background thread, so request threads rarely have to wait for a CRL download.
+ * <p/>
+ * On each run every CRL in the cache, which is due for an update now or before the
+ * next run, is updated. Combine with <code>CRLCertificateStatusChecker.setMaxStaleness</code>
+ * to let request threads use the cached CRL while an update is pending:
+ * <pre>
+ *   CRLCertificateStatusChecker checker = new CRLCertificateStatusChecker(new InMemoryCRLCache(), 3600, true, CRLCertificateStatusChecker.NEVER, resolver);
+ *   checker.setMaxStaleness(4 * 3600);
+ *   CRLRefreshScheduler scheduler = new CRLRefreshScheduler(checker, 600);
+ *   scheduler.start();
+ * </pre>
+ * Only CRLs already present in the cache are updated; the first check of a
+ * certificate from a new CA still downloads the CRL on the request thread.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class CRLRefreshScheduler {
+
+    private static final Log log = LogFactory.getLog(CRLRefreshScheduler.class);
+
+    private final CRLCertificateStatusChecker checker;
+    private final long period;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a new scheduler, which is not started.
+     *
+     * @param checker the status checker whose cached CRLs should be updated.
+     * @param period  the time in seconds between each run.
+     */
+    public CRLRefreshScheduler(final CRLCertificateStatusChecker checker, final int period) {
+        if (checker == null) throw new IllegalArgumentException("'checker' must not be null");
+        if (period <= 0) throw new IllegalArgumentException("'period' must be positive");
+
+        this.checker = checker;
+        this.period = period * 1000L;
+    }
+
+    /**
+     * Starts updating CRLs in a background daemon thread. The first run is performed immediately.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            throw new IllegalStateException("Already started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "CRLRefreshScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background updates. A run in progress is allowed to finish.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    /**
+     * Performs a single run, updating the CRLs due for an update before the next run.
+     */
+    public void refresh() {
+        try {
+            checker.updateDue(period);
+        } catch (Throwable t) {
+            // the executor cancels all further runs if a task fails
+            log.error("Background CRL update failed.", t);
+        }
+    }
+}
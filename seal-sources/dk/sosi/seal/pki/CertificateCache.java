@@ -32,8 +32,8 @@ import java.security.cert.X509Certificate;
 
 /**
  * This is a generic cache of certificates with get/put operations.
- * Note that implementations are NOT expected to be synchronized.
- * You should instead synchronize on the wrapping CachingCertificateStore
+ * Note that implementations must be thread-safe; the wrapping
+ * CachingCertificateStore does not synchronize lookups.
  *
  * @author ksr@lakeside.dk
  * @author $LastChangedBy: ksr@lakeside.dk $
@@ -36,7 +36,10 @@ import dk.sosi.seal.vault.CredentialVault;
 import dk.sosi.seal.xml.XmlUtil;
 
 import java.security.*;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
 /**
  * @author $LastChangedBy:$ $LastChangedDate:$
@@ -46,6 +49,10 @@ public class CredentialVaultSignatureProvider implements SignatureProvider {
 
     private final CredentialVault vault;
     private final Properties properties;
+    private final ThreadLocal<SignerSlot> idleSigners = new ThreadLocal<SignerSlot>();
+    // All slots handed out, so invalidate() can empty the slots of other threads. Slots of dead threads are dropped by the GC
+    private final Map<SignerSlot, Boolean> signerSlots = Collections.synchronizedMap(new WeakHashMap<SignerSlot, Boolean>());
+    private volatile int generation;
 
     public CredentialVaultSignatureProvider(CredentialVault vault, Properties properties) {
         if (vault == null) {
@@ -61,11 +68,17 @@ public class CredentialVaultSignatureProvider implements SignatureProvider {
             String cryptoProvider = getCryptoProvider();
             CredentialPair credentialPair = vault.getSystemCredentialPair();
 
-            Signature jceSign = Signature.getInstance("SHA1withRSA", cryptoProvider);
-            jceSign.initSign(credentialPair.getPrivateKey());
-            jceSign.update(bytes);
+            SignerSlot slot = getSignerSlot();
+            Signer signer = borrowSigner(slot, cryptoProvider, credentialPair.getPrivateKey());
+            signer.jceSign.update(bytes);
 
-            String signature = XmlUtil.toBase64(jceSign.sign());
+            String signature = XmlUtil.toBase64(signer.jceSign.sign());
+            // A signer is only returned after a successful signature, as sign() then resets it for the same key
+            slot.signer = signer;
+            if (signer.generation != generation) {
+                // invalidate() was called while signing
+                slot.signer = null;
+            }
             return new SignatureResult(signature, credentialPair.getCertificate());
 
         } catch (NoSuchProviderException e) {
@@ -83,8 +96,81 @@ public class CredentialVaultSignatureProvider implements SignatureProvider {
         return vault;
     }
 
+    /**
+     * Drops the <code>Signature</code> engines kept idle by the threads that have signed through this provider. The
+     * engines hold the private key, so call this before discarding the provider or after the key of the system
+     * credential pair has been changed without replacing the <code>PrivateKey</code> instance. Signatures in progress
+     * complete normally.
+     */
+    public void invalidate() {
+        synchronized (signerSlots) {
+            generation++;
+            for (SignerSlot slot : signerSlots.keySet()) {
+                slot.signer = null;
+            }
+        }
+    }
+
+    /**
+     * Takes the idle <code>Signature</code> of the current thread if it was initialized for the same provider and key,
+     * otherwise creates a new one. A renewed system credential pair comes with a new key instance and thus a new engine.
+     */
+    private Signer borrowSigner(SignerSlot slot, String cryptoProvider, PrivateKey privateKey) throws NoSuchProviderException, NoSuchAlgorithmException, InvalidKeyException {
+        Signer signer = slot.signer;
+        slot.signer = null;
+        int currentGeneration = generation;
+        if (signer == null || signer.generation != currentGeneration || signer.privateKey != privateKey || !signer.cryptoProvider.equals(cryptoProvider)) {
+            Signature jceSign = Signature.getInstance("SHA1withRSA", cryptoProvider);
+            jceSign.initSign(privateKey);
+            signer = new Signer(jceSign, cryptoProvider, privateKey, currentGeneration);
+        }
+        return signer;
+    }
+
+    private SignerSlot getSignerSlot() {
+        SignerSlot slot = idleSigners.get();
+        if (slot == null) {
+            slot = new SignerSlot();
+            idleSigners.set(slot);
+            signerSlots.put(slot, Boolean.TRUE);
+        }
+        return slot;
+    }
+
+    /*Visible for testing*/ int getIdleSignerCount() {
+        int count = 0;
+        synchronized (signerSlots) {
+            for (SignerSlot slot : signerSlots.keySet()) {
+                if (slot.signer != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
     protected String getCryptoProvider() {
         return SignatureUtil.getCryptoProvider(properties, SOSIFactory.PROPERTYNAME_SOSI_CRYPTOPROVIDER_SHA1WITHRSA);
     }
 
+    private static final class Signer {
+
+        private final Signature jceSign;
+        private final String cryptoProvider;
+        private final PrivateKey privateKey;
+        private final int generation;
+
+        private Signer(Signature jceSign, String cryptoProvider, PrivateKey privateKey, int generation) {
+            this.jceSign = jceSign;
+            this.cryptoProvider = cryptoProvider;
+            this.privateKey = privateKey;
+            this.generation = generation;
+        }
+    }
+
+    private static final class SignerSlot {
+
+        private volatile Signer signer;
+    }
+
 }
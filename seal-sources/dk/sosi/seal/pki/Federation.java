@@ -81,6 +81,13 @@ public abstract class Federation {
         return certificationAuthority.getFederationCertificate(reference);
     }
 
+	/**
+	 * Returns the audit event handler configured for the federation.
+	 */
+	public AuditEventHandler getAuditEventHandler() {
+		return eventHandler;
+	}
+
 	/**
 	 * Returns the certification authority used in the federation.
 	 */
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki;
+
+import dk.sosi.seal.xml.XmlUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A <code>CRLCache</code> which keeps its entries in memory like <code>InMemoryCRLCache</code>,
+ * but also stores them in a local directory, so they survive restarts.
+ * <p/>
+ * Each entry is stored as two files named by the SHA-1 hash of the url: the DER encoded
+ * CRL (<code>.crl</code>) and its url, timestamps and ETag (<code>.properties</code>). All
+ * files are written to a temporary file and renamed into place. If only the timestamps
+ * change, e.g. after a <i>304 Not Modified</i>, only the small properties file is rewritten.
+ * <p/>
+ * The cache is warmed from the directory on construction. As the files could have been
+ * modified, warmed entries are unchecked; <code>CRLCertificateStatusChecker</code> verifies
+ * them before use. Unreadable files are skipped, and failing to write a file only affects
+ * persistence, not the entries held in memory.
+ * <p/>
+ * Reads are served from memory and never block; updates are serialized.
+ * <p/>
+ * For semantic for the various methods, see <link>CRLCache</link>.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class FileBasedCRLCache implements CRLCache {
+
+    private static final Log log = LogFactory.getLog(FileBasedCRLCache.class);
+
+    private static final String CRL_SUFFIX = ".crl";
+    private static final String INFO_SUFFIX = ".properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String PROPERTY_URL = "url";
+    private static final String PROPERTY_LAST_MODIFIED = "lastModified";
+    private static final String PROPERTY_CREATED = "created";
+    private static final String PROPERTY_ETAG = "eTag";
+
+    private final File directory;
+    private final ConcurrentHashMap<String, CRLInfo> cache = new ConcurrentHashMap<String, CRLInfo>();
+
+    /**
+     * Creates a new cache stored in the supplied directory, and loads the CRLs already stored there.
+     *
+     * @param directory the directory for the cache files; created if missing.
+     */
+    public FileBasedCRLCache(final File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("'directory' must not be null");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create CRL cache directory " + directory);
+        }
+        this.directory = directory;
+        warm();
+    }
+
+    public CRLInfo get(final String url) {
+        return cache.get(url);
+    }
+
+    public CRLInfo update(final String url, final X509CRL crl) {
+        if (crl == null) {
+            return update(url, (CRLInfo) null);
+        }
+        final CRLInfo crlInfo = new CRLInfo(crl, new Date().getTime());
+        crlInfo.indexRevokedSerials();
+        return update(url, crlInfo);
+    }
+
+    public synchronized CRLInfo update(final String url, final CRLInfo crlInfo) {
+        if (url == null) {
+            throw new IllegalArgumentException("'url' must not be null");
+        }
+        final String name = fileName(url);
+        if (crlInfo == null) {
+            cache.remove(url);
+            delete(new File(directory, name + INFO_SUFFIX));
+            delete(new File(directory, name + CRL_SUFFIX));
+            return null;
+        }
+
+        final CRLInfo previous = cache.put(url, crlInfo);
+        try {
+            if (previous == null || previous.getCrl() != crlInfo.getCrl()) {
+                writeAtomically(new File(directory, name + CRL_SUFFIX), crlInfo.getCrl().getEncoded());
+            }
+            writeAtomically(new File(directory, name + INFO_SUFFIX), toProperties(url, crlInfo));
+        } catch (Exception e) {
+            log.error("Unable to store CRL for " + url + " in " + directory, e);
+        }
+        return crlInfo;
+    }
+
+    public Set<Map.Entry<String, CRLInfo>> entries() {
+        return cache.entrySet();
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(CRL_SUFFIX) || file.getName().endsWith(INFO_SUFFIX)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    private void warm() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File infoFile : files) {
+            final String fileName = infoFile.getName();
+            if (!fileName.endsWith(INFO_SUFFIX)) {
+                continue;
+            }
+            final File crlFile = new File(directory, fileName.substring(0, fileName.length() - INFO_SUFFIX.length()) + CRL_SUFFIX);
+            try {
+                final Properties properties = new Properties();
+                properties.load(new ByteArrayInputStream(read(infoFile)));
+                final String url = properties.getProperty(PROPERTY_URL);
+                final X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(read(crlFile)));
+                final long lastModified = Long.parseLong(properties.getProperty(PROPERTY_LAST_MODIFIED));
+                final long created = Long.parseLong(properties.getProperty(PROPERTY_CREATED));
+                final String eTag = properties.getProperty(PROPERTY_ETAG);
+                final CRLInfo crlInfo = new CRLCertificateStatusChecker.UncheckedCRLInfo(crl, lastModified, created, eTag);
+                crlInfo.indexRevokedSerials();
+                cache.put(url, crlInfo);
+            } catch (Exception e) {
+                log.warn("Ignoring unreadable CRL cache file " + infoFile + " <" + e.toString() + ">");
+            }
+        }
+        log.debug("Loaded " + cache.size() + " CRLs from " + directory);
+    }
+
+    private static byte[] toProperties(String url, CRLInfo crlInfo) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(PROPERTY_URL, url);
+        properties.setProperty(PROPERTY_LAST_MODIFIED, String.valueOf(crlInfo.getLastModified()));
+        properties.setProperty(PROPERTY_CREATED, String.valueOf(crlInfo.getCreated()));
+        if (crlInfo.getETag() != null) {
+            properties.setProperty(PROPERTY_ETAG, crlInfo.getETag());
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        properties.store(out, null);
+        return out.toByteArray();
+    }
+
+    private void writeAtomically(File file, byte[] content) throws IOException {
+        final File temp = File.createTempFile(file.getName(), TEMP_SUFFIX, directory);
+        try {
+            final FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(content);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            // renameTo does not replace an existing file on all platforms
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        } finally {
+            if (temp.exists()) {
+                delete(temp);
+            }
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn("Unable to delete " + file);
+        }
+    }
+
+    private static String fileName(String url) {
+        try {
+            return XmlUtil.toHex(MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new PKIException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new PKIException(e);
+        }
+    }
+}
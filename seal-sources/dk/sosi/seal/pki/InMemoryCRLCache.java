@@ -54,7 +54,12 @@ public class InMemoryCRLCache implements CRLCache {
     }
 
     public CRLInfo update(final String url, final X509CRL crl) {
-        return update(url, crl == null ? null : new CRLInfo(crl, new Date().getTime()));
+        if (crl == null) {
+            return update(url, (CRLInfo) null);
+        }
+        final CRLInfo crlInfo = new CRLInfo(crl, new Date().getTime());
+        crlInfo.indexRevokedSerials();
+        return update(url, crlInfo);
     }
 
     public CRLInfo update(final String url, final CRLInfo crlInfo) {
@@ -64,10 +64,12 @@ public class LunaCredentialVaultSignatureProvider extends CredentialVaultSignatu
                 LOG.warn(ex);
                 lastException = ex;
                 ((LunaCredentialVault) getCredentialVault()).reinitialize();
+                invalidate();
             } catch (CredentialVaultException ex) {
                 LOG.warn(ex);
                 lastException = ex;
                 ((LunaCredentialVault) getCredentialVault()).reinitialize();
+                invalidate();
             }
         }
         throw new PKIException("Could sign bytes in Luna HSM", lastException);
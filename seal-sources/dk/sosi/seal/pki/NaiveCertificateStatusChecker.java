@@ -55,7 +55,10 @@ public class NaiveCertificateStatusChecker implements CertificateStatusChecker {
     }
 
     public CertificateStatus getRevocationStatus(X509Certificate certificate) throws PKIException {
-        SOSIFactory.getAuditEventHandler(properties).onWarningAuditingEvent(AuditEventHandler.EVENT_TYPE_WARNING_NO_REVOCATION_CHECK, new Object[] { certificate });
+        AuditEventHandler auditEventHandler = SOSIFactory.getAuditEventHandler(properties);
+        if (SOSIFactory.isAuditingEnabled(auditEventHandler)) {
+            auditEventHandler.onWarningAuditingEvent(AuditEventHandler.EVENT_TYPE_WARNING_NO_REVOCATION_CHECK, new Object[] { certificate });
+        }
         return new CertificateStatus(true, new Date());
     }
 }
\ No newline at end of file
@@ -28,18 +28,23 @@
  */
 package dk.sosi.seal.pki;
 
+import dk.sosi.seal.xml.XmlUtil;
 import org.bouncycastle.asn1.*;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SignatureException;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author $LastChangedBy: ChristianGasser $ $LastChangedDate: 2014-12-17 13:53:48 +0100 (Wed, 17 Dec 2014) $
@@ -47,6 +52,19 @@ import java.util.Properties;
  */
 public class OCESUtil {
 
+    /**
+     * Maximum number of memoized successful issuer verifications, see isIssuerOf
+     */
+    private static final int MAX_ISSUER_VERIFICATIONS = 1000;
+    /**
+     * Maximum number of memoized failed issuer verifications and the time in milliseconds they are kept
+     */
+    private static final int MAX_ISSUER_REJECTIONS = 100;
+    private static final long ISSUER_REJECTION_TTL = 60 * 1000L;
+    private static final ConcurrentHashMap<String, Boolean> ISSUER_VERIFICATIONS = new ConcurrentHashMap<String, Boolean>();
+    // expiry time by fingerprint
+    private static final ConcurrentHashMap<String, Long> ISSUER_REJECTIONS = new ConcurrentHashMap<String, Long>();
+
     static URI retrieveIntermediateCertificateURI(X509Certificate certificate) throws PKIException {
         try {
             byte[] b1_3_6_1_5_5_7_1_1 = certificate.getExtensionValue("1.3.6.1.5.5.7.1.1");
@@ -91,7 +109,85 @@ public class OCESUtil {
         return isProbableOCES2Certificate(certificate) && certificate.getIssuerX500Principal().getName().indexOf("Primary") != -1;
     }
 
+    /**
+     * Checks whether <code>certificate</code> is signed by the key of <code>verifyAgainst</code>.
+     * <p/>
+     * The result is memoized by a SHA-256 fingerprint of the certificate and the issuer's public
+     * key, as the same few certificates are verified over and over. Only the signature check is
+     * memoized; callers must still check validity dates and revocation. Failed verifications are
+     * only kept for a minute in a separate, smaller memo, so that certificates which do not verify
+     * cannot push out the ones that do.
+     */
     static boolean isIssuerOf(X509Certificate certificate, X509Certificate verifyAgainst) throws PKIException {
+        final String key = fingerprint(certificate, verifyAgainst);
+        if (ISSUER_VERIFICATIONS.containsKey(key)) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        final Long rejectedUntil = ISSUER_REJECTIONS.get(key);
+        if (rejectedUntil != null && now < rejectedUntil.longValue()) {
+            return false;
+        }
+
+        if (verifyIssuer(certificate, verifyAgainst)) {
+            makeRoom(ISSUER_VERIFICATIONS, MAX_ISSUER_VERIFICATIONS);
+            ISSUER_VERIFICATIONS.put(key, Boolean.TRUE);
+            return true;
+        }
+        if (ISSUER_REJECTIONS.size() >= MAX_ISSUER_REJECTIONS) {
+            for (Iterator<Long> it = ISSUER_REJECTIONS.values().iterator(); it.hasNext();) {
+                if (now >= it.next().longValue()) {
+                    it.remove();
+                }
+            }
+            makeRoom(ISSUER_REJECTIONS, MAX_ISSUER_REJECTIONS);
+        }
+        ISSUER_REJECTIONS.put(key, Long.valueOf(now + ISSUER_REJECTION_TTL));
+        return false;
+    }
+
+    private static void makeRoom(ConcurrentHashMap<String, ?> memo, int maxSize) {
+        if (memo.size() >= maxSize) {
+            // drop an arbitrary entry
+            final Iterator<String> keys = memo.keySet().iterator();
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    /* visible for testing */
+    static void clearIssuerVerifications() {
+        ISSUER_VERIFICATIONS.clear();
+        ISSUER_REJECTIONS.clear();
+    }
+
+    /* visible for testing */
+    static int getIssuerVerificationCount() {
+        return ISSUER_VERIFICATIONS.size();
+    }
+
+    /* visible for testing */
+    static int getIssuerRejectionCount() {
+        return ISSUER_REJECTIONS.size();
+    }
+
+    private static String fingerprint(X509Certificate certificate, X509Certificate verifyAgainst) throws PKIException {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // the DER encoding is self-delimiting, so the concatenation is unambiguous
+            digest.update(certificate.getEncoded());
+            digest.update(verifyAgainst.getPublicKey().getEncoded());
+            return XmlUtil.toHex(digest.digest());
+        } catch (CertificateEncodingException e) {
+            throw new PKIException("Failed to establish issuer of", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new PKIException("Failed to establish issuer of", e);
+        }
+    }
+
+    private static boolean verifyIssuer(X509Certificate certificate, X509Certificate verifyAgainst) throws PKIException {
         try {
             certificate.verify(verifyAgainst.getPublicKey());
             return true; // NOPMD
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+
+package dk.sosi.seal.pki;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Front-end that queues signature requests onto a fixed number of signing threads.<br />
+ * The number of threads bounds the number of signatures computed concurrently, and with an HSM backed vault thus the
+ * number of HSM sessions in use, while callers may have up to <code>capacity</code> further requests waiting. When the
+ * queue is full, requests are rejected with a <code>PKIException</code> instead of piling up behind a slow HSM.
+ * <br />
+ * A {@link CredentialVaultSignatureProvider} keeps a signature engine per thread, which is reused as long as the vault
+ * hands out the same key instance. <code>LunaCredentialVault</code> returns a new key for each signature, so behind it
+ * every signature initializes a new engine.
+ * <br />
+ * The threads are daemon threads; call {@link #shutdown()} to release them when the provider is discarded.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class PooledSignatureProvider implements AsyncSignatureProvider {
+
+    /**
+     * Number of waiting requests per signing thread accepted by {@link #PooledSignatureProvider(SignatureProvider, int)}.
+     */
+    public static final int DEFAULT_CAPACITY_PER_SESSION = 100;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final SignatureProvider provider;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor for the <code>PooledSignatureProvider</code> class, accepting
+     * {@value #DEFAULT_CAPACITY_PER_SESSION} waiting requests per session.
+     *
+     * @param provider
+     *            The provider performing the actual signatures.
+     * @param sessions
+     *            The number of signatures computed concurrently.
+     */
+    public PooledSignatureProvider(SignatureProvider provider, int sessions) {
+        this(provider, sessions, sessions * DEFAULT_CAPACITY_PER_SESSION);
+    }
+
+    /**
+     * Constructor for the <code>PooledSignatureProvider</code> class.
+     *
+     * @param provider
+     *            The provider performing the actual signatures.
+     * @param sessions
+     *            The number of signatures computed concurrently.
+     * @param capacity
+     *            The number of requests that may wait for a signing thread.
+     */
+    public PooledSignatureProvider(SignatureProvider provider, int sessions, int capacity) {
+        if (provider == null) {
+            throw new IllegalArgumentException("SignatureProvider cannot be null");
+        }
+        if (sessions < 1) {
+            throw new IllegalArgumentException("Number of sessions must be positive");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.provider = provider;
+        this.executor = new ThreadPoolExecutor(sessions, sessions, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), new SignerThreadFactory());
+    }
+
+    public SignatureFuture<SignatureResult> signAsync(final byte[] bytes) throws PKIException {
+        SignatureFutureTask<SignatureResult> task = new SignatureFutureTask<SignatureResult>(new Callable<SignatureResult>() {
+            public SignatureResult call() {
+                return provider.sign(bytes);
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                throw new PKIException("SignatureProvider has been shut down", e);
+            }
+            throw new PKIException("Too many signatures waiting for the SignatureProvider", e);
+        }
+        return task;
+    }
+
+    public SignatureResult sign(byte[] bytes) throws PKIException {
+        Future<SignatureResult> result = signAsync(bytes);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PKIException("Interrupted while waiting for signature", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PKIException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops the signing threads once the signatures already requested have been computed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class SignerThreadFactory implements ThreadFactory {
+
+        private final String prefix = "seal-signer-" + POOL_NUMBER.incrementAndGet() + "-";
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
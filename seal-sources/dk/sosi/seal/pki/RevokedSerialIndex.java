@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact lookup structure for the serial numbers revoked by a CRL.
+ * <p/>
+ * Serial numbers fitting in a <code>long</code> (which covers the OCES CAs) are
+ * kept in a sorted primitive array, all others in a sorted array of
+ * <code>BigInteger</code>. Lookups are binary searches, answering the same as
+ * <code>X509CRL.isRevoked</code> without going through the provider.
+ * <p/>
+ * Indirect CRLs, where entries carry a certificate issuer, are not supported.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+final class RevokedSerialIndex {
+
+    private final X500Principal issuer;
+    private final long[] serials;
+    private final BigInteger[] largeSerials;
+
+    private RevokedSerialIndex(X500Principal issuer, long[] serials, BigInteger[] largeSerials) {
+        this.issuer = issuer;
+        this.serials = serials;
+        this.largeSerials = largeSerials;
+    }
+
+    /**
+     * Builds the index for the supplied CRL.
+     *
+     * @param crl the revocation list.
+     * @return the index or <code>null</code> if the CRL is an indirect CRL.
+     */
+    static RevokedSerialIndex build(X509CRL crl) {
+        final Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+        if (entries == null) {
+            return new RevokedSerialIndex(crl.getIssuerX500Principal(), new long[0], new BigInteger[0]);
+        }
+
+        final long[] serials = new long[entries.size()];
+        final List<BigInteger> largeSerials = new ArrayList<BigInteger>();
+        int count = 0;
+        for (X509CRLEntry entry : entries) {
+            if (entry.getCertificateIssuer() != null) {
+                return null;
+            }
+            final BigInteger serial = entry.getSerialNumber();
+            if (serial.bitLength() < 64) {
+                serials[count++] = serial.longValue();
+            } else {
+                largeSerials.add(serial);
+            }
+        }
+
+        final long[] compacted = count == serials.length ? serials : Arrays.copyOf(serials, count);
+        Arrays.sort(compacted);
+        final BigInteger[] large = largeSerials.toArray(new BigInteger[largeSerials.size()]);
+        Arrays.sort(large);
+        return new RevokedSerialIndex(crl.getIssuerX500Principal(), compacted, large);
+    }
+
+    /**
+     * Checks whether the certificate is revoked, with the same semantic as <code>X509CRL.isRevoked</code>.
+     */
+    boolean isRevoked(X509Certificate cert) {
+        return isRevoked(cert.getIssuerX500Principal(), cert.getSerialNumber());
+    }
+
+    boolean isRevoked(X500Principal certificateIssuer, BigInteger serial) {
+        if (!issuer.equals(certificateIssuer)) {
+            return false;
+        }
+        if (serial.bitLength() < 64) {
+            return Arrays.binarySearch(serials, serial.longValue()) >= 0;
+        }
+        return Arrays.binarySearch(largeSerials, serial) >= 0;
+    }
+
+    /**
+     * The number of revoked serial numbers in the index.
+     */
+    int size() {
+        return serials.length + largeSerials.length;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+
+package dk.sosi.seal.pki;
+
+/**
+ * Receives the outcome of a {@link SignatureFuture}.<br />
+ * Callbacks are invoked on the thread completing the signature, or on the thread adding the callback if the signature
+ * is already complete, so they should return quickly.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public interface SignatureCallback<V> {
+
+    /**
+     * Invoked when the signature has been computed.
+     *
+     * @param result
+     *            The value of the completed <code>SignatureFuture</code>.
+     */
+    void signed(V result);
+
+    /**
+     * Invoked when the signature could not be computed or was cancelled.
+     *
+     * @param cause
+     *            The exception that prevented the signature, e.g. a <code>PKIException</code>.
+     */
+    void failed(Throwable cause);
+
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+
+package dk.sosi.seal.pki;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A <code>FutureTask</code> invoking the registered {@link SignatureCallback}s when it completes.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class SignatureFutureTask<V> extends FutureTask<V> implements SignatureFuture<V> {
+
+    private static final Log LOG = LogFactory.getLog(SignatureFutureTask.class);
+
+    private final List<SignatureCallback<? super V>> callbacks = new ArrayList<SignatureCallback<? super V>>();
+    private boolean completed;
+
+    public SignatureFutureTask(Callable<V> callable) {
+        super(callable);
+    }
+
+    public SignatureFutureTask(Runnable runnable, V result) {
+        super(runnable, result);
+    }
+
+    public void addCallback(SignatureCallback<? super V> callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("SignatureCallback cannot be null");
+        }
+        synchronized (callbacks) {
+            if (!completed) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        invoke(callback);
+    }
+
+    @Override
+    protected void done() {
+        final List<SignatureCallback<? super V>> pending;
+        synchronized (callbacks) {
+            completed = true;
+            pending = new ArrayList<SignatureCallback<? super V>>(callbacks);
+            callbacks.clear();
+        }
+        for (SignatureCallback<? super V> callback : pending) {
+            invoke(callback);
+        }
+    }
+
+    private void invoke(SignatureCallback<? super V> callback) {
+        try {
+            final V result;
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                callback.failed(e.getCause());
+                return;
+            } catch (CancellationException e) {
+                callback.failed(e);
+                return;
+            } catch (InterruptedException e) {
+                // Cannot happen, the task is done
+                Thread.currentThread().interrupt();
+                return;
+            }
+            callback.signed(result);
+        } catch (RuntimeException e) {
+            // A failing callback must neither prevent the others nor fail the signing thread
+            LOG.error("SignatureCallback failed", e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki.impl;
+
+import dk.sosi.seal.pki.CertificateCache;
+import dk.sosi.seal.pki.PKIException;
+
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe in-memory CertificateCache with optional expiry and size bound.
+ * <p/>
+ * Lookups never lock. Entries expire <code>ttl</code> seconds after they were put,
+ * after which the wrapping <code>CachingCertificateStore</code> loads the certificate
+ * again. When more than <code>maxSize</code> certificates are cached, the entries put
+ * first are removed, which with a common ttl are also the first to expire. Eviction takes
+ * constant time, as entries are queued in the order they were put.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class ConcurrentCertificateCache implements CertificateCache {
+
+    /**
+     * A constant for no expiry or no size bound.
+     */
+    public static final int UNLIMITED = -1;
+
+    private final ConcurrentHashMap<CacheKey, CacheEntry> cache = new ConcurrentHashMap<CacheKey, CacheEntry>();
+    // Entries in the order they were put, only maintained when the size is bounded. Replaced and expired entries
+    // stay queued until they are polled or the queue is compacted
+    private final ConcurrentLinkedQueue<CacheEntry> insertionOrder = new ConcurrentLinkedQueue<CacheEntry>();
+    private final AtomicInteger puts = new AtomicInteger();
+    private final long ttl;
+    private final int maxSize;
+
+    /**
+     * Creates a cache where entries never expire and the number of entries is unbounded.
+     */
+    public ConcurrentCertificateCache() {
+        this(UNLIMITED, UNLIMITED);
+    }
+
+    /**
+     * @param ttl     the time in seconds an entry is kept, or UNLIMITED.
+     * @param maxSize the maximum number of entries, or UNLIMITED.
+     */
+    public ConcurrentCertificateCache(int ttl, int maxSize) {
+        if (ttl <= 0 && ttl != UNLIMITED) throw new IllegalArgumentException("Illegal ttl");
+        if (maxSize <= 0 && maxSize != UNLIMITED) throw new IllegalArgumentException("Illegal maxSize");
+
+        this.ttl = ttl == UNLIMITED ? UNLIMITED : ttl * 1000L;
+        this.maxSize = maxSize;
+    }
+
+    public X509Certificate getCertificate(Category category, String key) throws PKIException {
+        final CacheKey cacheKey = new CacheKey(category, key);
+        final CacheEntry entry = cache.get(cacheKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            cache.remove(cacheKey, entry);
+            return null;
+        }
+        return entry.certificate;
+    }
+
+    public void putCertificate(Category category, String key, X509Certificate certificate) throws PKIException {
+        final long now = System.currentTimeMillis();
+        final CacheEntry entry = new CacheEntry(new CacheKey(category, key), certificate, ttl == UNLIMITED ? Long.MAX_VALUE : now + ttl);
+        cache.put(entry.key, entry);
+        if (maxSize != UNLIMITED) {
+            insertionOrder.add(entry);
+            if (puts.incrementAndGet() % maxSize == 0) {
+                compact();
+            }
+            evict();
+        }
+    }
+
+    /**
+     * The number of cached entries, including expired entries not yet removed.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    private void evict() {
+        while (cache.size() > maxSize) {
+            final CacheEntry oldest = insertionOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            // A no-op if the entry was replaced or has expired and was removed already
+            cache.remove(oldest.key, oldest);
+        }
+    }
+
+    /**
+     * Drops queued entries that are no longer cached, so that repeatedly replacing the same keys does not grow the
+     * queue without bound. Runs once every <code>maxSize</code> puts, which keeps the cost per put constant on average.
+     */
+    private void compact() {
+        for (Iterator<CacheEntry> it = insertionOrder.iterator(); it.hasNext();) {
+            final CacheEntry entry = it.next();
+            if (cache.get(entry.key) != entry) {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class CacheKey {
+        private final Category category;
+        private final String key;
+
+        private CacheKey(Category category, String key) {
+            this.category = category;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            final CacheKey other = (CacheKey) o;
+            return category == other.category && (key == null ? other.key == null : key.equals(other.key));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (category == null ? 0 : category.hashCode()) + (key == null ? 0 : key.hashCode());
+        }
+    }
+
+    private static final class CacheEntry {
+        private final CacheKey key;
+        private final X509Certificate certificate;
+        private final long expires;
+
+        private CacheEntry(CacheKey key, X509Certificate certificate, long expires) {
+            this.key = key;
+            this.certificate = certificate;
+            this.expires = expires;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+}
@@ -32,11 +32,12 @@ import dk.sosi.seal.pki.CertificateCache;
 import dk.sosi.seal.pki.PKIException;
 
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * An in-memory CertificateCache implemented in a hashmap
+ * An unbounded in-memory CertificateCache implemented in a hashmap.
+ * See <code>ConcurrentCertificateCache</code> for a cache with expiry and size bound.
  *
  * @author ksr@lakeside.dk
  * @author $LastChangedBy: ksr@lakeside.dk $
@@ -44,21 +45,28 @@ import java.util.Map;
  * @since 2.1
  */
 public class HashMapCertificateCache implements CertificateCache {
-    private final Map<Category, Map<String, X509Certificate>> caches = new HashMap<Category, Map<String, X509Certificate>>();
+    private final ConcurrentHashMap<Category, Map<String, X509Certificate>> caches = new ConcurrentHashMap<Category, Map<String, X509Certificate>>();
 
     public X509Certificate getCertificate(Category category, String cacheKey) throws PKIException {
         return getCache(category).get(cacheKey);
     }
 
     public void putCertificate(Category category, String key, X509Certificate certificate) throws PKIException {
-        getCache(category).put(key, certificate);
+        if (certificate == null) {
+            getCache(category).remove(key);
+        } else {
+            getCache(category).put(key, certificate);
+        }
     }
 
     private Map<String, X509Certificate> getCache(Category category) {
         Map<String, X509Certificate> cache = caches.get(category);
         if (cache == null) {
-            cache = new HashMap<String, X509Certificate>();
-            caches.put(category, cache);
+            cache = new ConcurrentHashMap<String, X509Certificate>();
+            final Map<String, X509Certificate> existing = caches.putIfAbsent(category, cache);
+            if (existing != null) {
+                cache = existing;
+            }
         }
         return cache;
     }
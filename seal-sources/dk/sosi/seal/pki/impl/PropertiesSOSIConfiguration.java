@@ -41,6 +41,7 @@ import java.util.Properties;
 public class PropertiesSOSIConfiguration implements SOSIConfiguration {
     private final Properties properties;
     private final Properties defaultValues;
+    private volatile ResolvedAuditEventHandler auditEventHandler;
 
     public static SOSIConfiguration createWithDefaultOcesProperties(Properties properties) {
         final Properties defaults = new Properties();
@@ -87,6 +88,13 @@ public class PropertiesSOSIConfiguration implements SOSIConfiguration {
         return Integer.valueOf(getPropertyOrFail(SOSIFactory.PROPERTYNAME_SOSI_LDAP_CERTIFICATE_PORT_OCES2));
     }
 
+    /**
+     * Returns the <code>AuditEventHandler</code> configured through <code>sosi:federation.audithandler</code>.
+     * <p/>
+     * The handler is resolved once per configuration instance and returned to all callers of that instance
+     * afterwards, so it must be thread-safe if the configuration is shared between threads. As the configured class
+     * name is looked up on each call, changing the property takes effect immediately.
+     */
     public AuditEventHandler getAuditEventHandler() {
         String className = properties.getProperty(
                 SOSIFactory.PROPERTYNAME_SOSI_FEDERATION_AUDITHANDLER,
@@ -94,6 +102,15 @@ public class PropertiesSOSIConfiguration implements SOSIConfiguration {
         if(className == null) {
             return null; //NOPMD
         }
+        ResolvedAuditEventHandler resolved = auditEventHandler;
+        if (resolved == null || !resolved.className.equals(className)) {
+            resolved = new ResolvedAuditEventHandler(className, createAuditEventHandler(className));
+            auditEventHandler = resolved;
+        }
+        return resolved.handler;
+    }
+
+    private static AuditEventHandler createAuditEventHandler(String className) {
         try {
             return (AuditEventHandler) Class.forName(className).newInstance();
         } catch (SecurityException e) {
@@ -125,4 +142,14 @@ public class PropertiesSOSIConfiguration implements SOSIConfiguration {
             return value;
         }
     }
+
+    private static final class ResolvedAuditEventHandler {
+        private final String className;
+        private final AuditEventHandler handler;
+
+        private ResolvedAuditEventHandler(String className, AuditEventHandler handler) {
+            this.className = className;
+            this.handler = handler;
+        }
+    }
 }
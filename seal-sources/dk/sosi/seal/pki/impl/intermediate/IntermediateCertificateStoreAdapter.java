@@ -64,7 +64,7 @@ public class IntermediateCertificateStoreAdapter implements IntermediateCertific
         };
     }
 
-    public final synchronized X509Certificate getCertificate(URI uri) throws PKIException {
+    public final X509Certificate getCertificate(URI uri) throws PKIException {
         return store.getCertificate(uri.toString());
     }
 }
@@ -32,9 +32,15 @@ import dk.sosi.seal.pki.CertificateCache;
 import dk.sosi.seal.pki.PKIException;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * This is a combination of a CertificateCache and a CertificateStore.
+ * <p/>
+ * The CertificateCache must be thread-safe.
  *
  * @author ksr@lakeside.dk
  * @author $LastChangedBy: ksr@lakeside.dk $
@@ -45,6 +51,7 @@ public abstract class CachingCertificateStore implements CertificateStore {
     private final CertificateStore loader;
     private final CertificateCache cache;
     private final CertificateCache.Category category;
+    private final ConcurrentHashMap<String, FutureTask<X509Certificate>> loadsInProgress = new ConcurrentHashMap<String, FutureTask<X509Certificate>>();
 
     public CachingCertificateStore(CertificateStore loader, CertificateCache cache, CertificateCache.Category category) {
         this.loader = loader;
@@ -54,16 +61,55 @@ public abstract class CachingCertificateStore implements CertificateStore {
 
     /**
      * Fetch the certificate by the supplied key, caching the result.
+     * <p/>
+     * Cache hits do not lock. On a miss only one thread loads the certificate for
+     * the key, concurrent callers for the same key wait for and share its result.
      */
-    public final synchronized X509Certificate getCertificate(String cacheKey) throws PKIException {
+    public final X509Certificate getCertificate(final String cacheKey) throws PKIException {
         X509Certificate certificate = cache.getCertificate(category, cacheKey);
-        if (certificate == null) {
-            String remoteKey = getRemoteKey(cacheKey);
-            certificate = loader.getCertificate(remoteKey);
-            validate(cacheKey, certificate);
-            cache.putCertificate(category, cacheKey, certificate);
+        if (certificate != null) {
+            return certificate;
+        }
+
+        final FutureTask<X509Certificate> load = new FutureTask<X509Certificate>(new Callable<X509Certificate>() {
+            public X509Certificate call() {
+                // another thread may have completed a load since the cache was checked
+                X509Certificate loaded = cache.getCertificate(category, cacheKey);
+                if (loaded == null) {
+                    loaded = loader.getCertificate(getRemoteKey(cacheKey));
+                    validate(cacheKey, loaded);
+                    cache.putCertificate(category, cacheKey, loaded);
+                }
+                return loaded;
+            }
+        });
+        final FutureTask<X509Certificate> inProgress = loadsInProgress.putIfAbsent(cacheKey, load);
+        if (inProgress != null) {
+            return awaitLoad(inProgress);
+        }
+        try {
+            load.run();
+        } finally {
+            loadsInProgress.remove(cacheKey, load);
+        }
+        return awaitLoad(load);
+    }
+
+    private static X509Certificate awaitLoad(FutureTask<X509Certificate> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PKIException("Interrupted while waiting for certificate", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PKIException(cause);
         }
-        return certificate;
     }
 
     /**
@@ -55,6 +55,9 @@ public class GenericCredentialVault implements PropertyConfiguredCredentialVault
 
 	protected Properties properties;
 
+	// Unwrapping the private key decrypts the key entry, so the system pair is kept until its certificate changes
+	private volatile CredentialPair systemCredentialPair;
+
 	private void log(){
 		SOSIFactory.getAuditEventHandler(properties).onInformationalAuditingEvent(
 				AuditEventHandler.EVENT_TYPE_INFO_CREDENTIAL_VAULT_INITIALIZED,
@@ -129,7 +132,20 @@ public class GenericCredentialVault implements PropertyConfiguredCredentialVault
 	 *         credential vault.
 	 */
 	public CredentialPair getSystemCredentialPair() throws CredentialVaultException {
-		return getCredentialPairByAlias(ALIAS_SYSTEM);
+		CredentialPair cached = systemCredentialPair;
+		if (cached != null) {
+			try {
+				// The keystore may also be modified directly through getKeyStore()
+				if (keyStore.isKeyEntry(ALIAS_SYSTEM) && cached.getCertificate().equals(keyStore.getCertificate(ALIAS_SYSTEM))) {
+					return cached;
+				}
+			} catch (KeyStoreException e) {
+				throw new CredentialVaultException("Unable to query underlying keystore", e);
+			}
+		}
+		CredentialPair credentialPair = getCredentialPairByAlias(ALIAS_SYSTEM);
+		systemCredentialPair = credentialPair;
+		return credentialPair;
 	}
 
 	protected CredentialPair getCredentialPairByAlias(String alias) throws CredentialVaultException {
@@ -173,6 +189,9 @@ public class GenericCredentialVault implements PropertyConfiguredCredentialVault
 		} catch (KeyStoreException e) {
 			throw new CredentialVaultException("Unable to install System certificate", e);
 		}
+		if (ALIAS_SYSTEM.equals(alias)) {
+			systemCredentialPair = null;
+		}
 	}
 
 	/**
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of pre-configured <code>DocumentBuilder</code> instances used by <code>XmlUtil.readXml</code>.
+ * <p/>
+ * A <code>DocumentBuilderFactory</code> is configured once for each combination of (validate, rootSchema) and
+ * never modified afterwards. Each thread keeps its own idle <code>DocumentBuilder</code> per combination, which is
+ * <code>reset()</code> when handed back, so borrowing and releasing a builder does not take any shared lock.
+ * <p/>
+ * A builder is removed from the pool while borrowed, hence nested parses on the same thread simply get a builder
+ * of their own.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+class DocumentBuilderPool {
+
+    private static final ConcurrentHashMap<String, DocumentBuilderFactory> FACTORIES = new ConcurrentHashMap<String, DocumentBuilderFactory>();
+
+    private static final ThreadLocal<Map<String, DocumentBuilder>> IDLE_BUILDERS = new ThreadLocal<Map<String, DocumentBuilder>>() {
+        @Override
+        protected Map<String, DocumentBuilder> initialValue() {
+            return new HashMap<String, DocumentBuilder>();
+        }
+    };
+
+    private DocumentBuilderPool() {
+        // static access only
+    }
+
+    /**
+     * Takes an idle <code>DocumentBuilder</code> for the supplied configuration from the current threads pool, or
+     * creates a new one if none is available. The builder must be handed back through <code>release</code> when the
+     * caller is done parsing.
+     *
+     * @param validate
+     *            if <code>true</code> the builder will validate against XML Schema
+     * @param rootSchema
+     *            the classpath name of the schema to validate against, e.g. <code>soap.xsd</code>. Ignored if
+     *            <code>validate</code> is <code>false</code>
+     * @return A namespace aware <code>DocumentBuilder</code>
+     */
+    static DocumentBuilder borrow(boolean validate, String rootSchema) {
+        String key = key(validate, rootSchema);
+        DocumentBuilder builder = IDLE_BUILDERS.get().remove(key);
+        if (builder == null) {
+            builder = newDocumentBuilder(getFactory(key, validate, rootSchema));
+        }
+        return builder;
+    }
+
+    /**
+     * Resets the supplied builder and returns it to the current threads pool.
+     *
+     * @param validate
+     *            the <code>validate</code> value the builder was borrowed with
+     * @param rootSchema
+     *            the <code>rootSchema</code> value the builder was borrowed with
+     * @param builder
+     *            the builder to hand back
+     */
+    static void release(boolean validate, String rootSchema, DocumentBuilder builder) {
+        try {
+            builder.reset();
+        } catch (UnsupportedOperationException e) {
+            // Pre JAXP 1.3 parsers can not be reset, so they can not be reused either
+            return;
+        }
+        IDLE_BUILDERS.get().put(key(validate, rootSchema), builder);
+    }
+
+    private static String key(boolean validate, String rootSchema) {
+        return validate ? "validate:" + rootSchema : "nonvalidating";
+    }
+
+    private static DocumentBuilderFactory getFactory(String key, boolean validate, String rootSchema) {
+        DocumentBuilderFactory factory = FACTORIES.get(key);
+        if (factory == null) {
+            factory = createFactory(validate, rootSchema);
+            DocumentBuilderFactory existing = FACTORIES.putIfAbsent(key, factory);
+            if (existing != null) {
+                factory = existing;
+            }
+        }
+        return factory;
+    }
+
+    private static DocumentBuilderFactory createFactory(boolean validate, String rootSchema) {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        if (validate) {
+            factory.setSchema(XmlUtil.getCompiledSchema(rootSchema));
+        }
+        return factory;
+    }
+
+    private static DocumentBuilder newDocumentBuilder(DocumentBuilderFactory factory) {
+        try {
+            // DocumentBuilderFactory is not guaranteed to be thread-safe. This only happens once per thread and configuration.
+            synchronized (factory) {
+                return factory.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new XmlUtilException("Unable to initialize XML parser", e);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+import org.apache.xml.utils.PrefixResolver;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A precompiled location path selecting elements by name, for use where <code>XmlUtil.selectSingleElement</code> would
+ * otherwise compile an XPath expression on every call.
+ * <p/>
+ * The supported syntax is the subset of XPath used to navigate SOAP messages: steps are element names, optionally
+ * prefixed, or <code>*</code>, separated by <code>/</code>, i.e. the child axis. A step may carry a single
+ * <code>[@attribute='value']</code> predicate. A path starting with <code>/</code> is evaluated from the document and
+ * one starting with <code>//</code> selects its first step among all elements of the document, otherwise the path is
+ * evaluated from the supplied node. Prefixes are resolved once, when the path is constructed.
+ * <p/>
+ * Instances are immutable and may be shared between threads, e.g. as constants.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public final class ElementPath {
+
+    private final String path;
+    private final boolean absolute;
+    private final Step[] steps;
+
+    /**
+     * Compiles the supplied path.
+     *
+     * @param path
+     *            the path, e.g. <code>/soapenv:Envelope/soapenv:Header</code>
+     * @param resolver
+     *            resolves the prefixes used in the path
+     * @throws IllegalArgumentException
+     *             if the path is not supported
+     */
+    public ElementPath(String path, PrefixResolver resolver) {
+        this.path = path;
+        this.absolute = path.startsWith("/");
+
+        List<Step> compiled = new ArrayList<Step>();
+        int pos = 0;
+        while (pos < path.length() || compiled.isEmpty()) {
+            boolean descendant = false;
+            if (path.startsWith("//", pos)) {
+                if (pos > 0) {
+                    throw unsupported();
+                }
+                descendant = true;
+                pos += 2;
+            } else if (path.startsWith("/", pos)) {
+                pos++;
+            } else if (pos > 0) {
+                throw unsupported();
+            }
+            int end = endOfStep(pos);
+            compiled.add(compileStep(path.substring(pos, end), descendant, resolver));
+            pos = end;
+        }
+        this.steps = compiled.toArray(new Step[compiled.size()]);
+    }
+
+    /**
+     * Selects a single element matching the path.
+     *
+     * @param node
+     *            the node from which a relative path is evaluated, or any node in the document for an absolute path
+     * @param failIfNoneOrMultipleAreFound
+     *            whether to fail if none or multiple elements match the path
+     * @return The element if the path matches exactly one element or <code>null</code> otherwise.
+     * @throws XmlUtilException
+     *             if <code>failIfNoneOrMultipleAreFound</code> is set and not exactly one element matches
+     */
+    public Element selectSingleElement(Node node, boolean failIfNoneOrMultipleAreFound) {
+        Element[] first = new Element[1];
+        Node context = null;
+        int count = 0;
+        if (node != null) {
+            context = absolute && node.getNodeType() != Node.DOCUMENT_NODE ? node.getOwnerDocument() : node;
+            count = select(context, 0, first, 0, 2);
+        }
+        if (count == 1) {
+            return first[0];
+        } else if (failIfNoneOrMultipleAreFound) {
+            if (count > 1) {
+                count = select(context, 0, first, 0, Integer.MAX_VALUE);
+            }
+            String from = node == null ? "null" : node.getPrefix() + ":" + node.getLocalName();
+            throw new XmlUtilException("Expected 1 XML element matching path '" + path + "' starting from '" + from + "' (prefixes are resolved and may be different in actual XML). Found " + count + ".");
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * Counts the elements matching the steps from <code>stepIndex</code> onwards, stopping when <code>limit</code> is
+     * reached. The first match in document order is stored in <code>first</code>.
+     */
+    private int select(Node context, int stepIndex, Element[] first, int count, int limit) {
+        Step step = steps[stepIndex];
+        for (Node child = context.getFirstChild(); child != null && count < limit; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Element element = (Element) child;
+            if (step.matches(element)) {
+                if (stepIndex == steps.length - 1) {
+                    if (count == 0) {
+                        first[0] = element;
+                    }
+                    count++;
+                } else {
+                    count = select(element, stepIndex + 1, first, count, limit);
+                }
+            }
+            if (step.descendant && count < limit) {
+                count = select(element, stepIndex, first, count, limit);
+            }
+        }
+        return count;
+    }
+
+    private int endOfStep(int start) {
+        boolean inPredicate = false;
+        char quote = 0;
+        for (int i = start; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (inPredicate) {
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == ']') {
+                    inPredicate = false;
+                }
+            } else if (c == '[') {
+                inPredicate = true;
+            } else if (c == '/') {
+                return i;
+            }
+        }
+        return path.length();
+    }
+
+    private Step compileStep(String step, boolean descendant, PrefixResolver resolver) {
+        String name = step;
+        String attributeName = null;
+        String attributeValue = null;
+
+        int bracket = step.indexOf('[');
+        if (bracket != -1) {
+            // [@attribute='value']
+            name = step.substring(0, bracket);
+            String predicate = step.substring(bracket + 1, step.length() - 1);
+            int equals = predicate.indexOf('=');
+            if (!step.endsWith("]") || !predicate.startsWith("@") || equals == -1) {
+                throw unsupported();
+            }
+            attributeName = predicate.substring(1, equals).trim();
+            String quoted = predicate.substring(equals + 1).trim();
+            if (quoted.length() < 2 || (quoted.charAt(0) != '\'' && quoted.charAt(0) != '"') || quoted.charAt(quoted.length() - 1) != quoted.charAt(0)) {
+                throw unsupported();
+            }
+            attributeValue = quoted.substring(1, quoted.length() - 1);
+        }
+
+        if (name.length() == 0 || name.indexOf('(') != -1 || name.indexOf(':') != name.lastIndexOf(':')) {
+            throw unsupported();
+        }
+        String namespaceURI = null;
+        String localName = name;
+        int colon = name.indexOf(':');
+        if (colon != -1) {
+            namespaceURI = resolver.getNamespaceForPrefix(name.substring(0, colon));
+            if (namespaceURI != null && namespaceURI.length() == 0) {
+                namespaceURI = null;
+            }
+            localName = name.substring(colon + 1);
+        }
+        return new Step(descendant, name, namespaceURI, localName, attributeName, attributeValue);
+    }
+
+    private IllegalArgumentException unsupported() {
+        return new IllegalArgumentException("Unsupported path expression '" + path + "'");
+    }
+
+    private static final class Step {
+
+        private final boolean descendant;
+        private final String qualifiedName;
+        private final String namespaceURI;
+        private final String localName;
+        private final String attributeName;
+        private final String attributeValue;
+
+        private Step(boolean descendant, String qualifiedName, String namespaceURI, String localName, String attributeName, String attributeValue) {
+            this.descendant = descendant;
+            this.qualifiedName = qualifiedName;
+            this.namespaceURI = namespaceURI;
+            this.localName = localName;
+            this.attributeName = attributeName;
+            this.attributeValue = attributeValue;
+        }
+
+        private boolean matches(Element element) {
+            if (!"*".equals(localName)) {
+                String elementLocalName = element.getLocalName();
+                if (elementLocalName == null) {
+                    // DOM Level 1 element
+                    if (!qualifiedName.equals(element.getNodeName())) {
+                        return false;
+                    }
+                } else if (!localName.equals(elementLocalName)) {
+                    return false;
+                } else if (namespaceURI == null ? element.getNamespaceURI() != null : !namespaceURI.equals(element.getNamespaceURI())) {
+                    return false;
+                }
+            }
+            if (attributeName != null) {
+                Attr attribute = element.getAttributeNodeNS(null, attributeName);
+                return attribute != null && attributeValue.equals(attribute.getValue());
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+import dk.sosi.seal.model.constants.NameSpaces;
+import dk.sosi.seal.model.constants.SOAPTags;
+import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Locates the contents of the <code>soap:Body</code> of a SOAP envelope without building a DOM for it.
+ * <p/>
+ * The envelope is read with a SAX parser up to the start tag of <code>soap:Body</code>, so only the header is
+ * checked for well-formedness. The envelope must end with the <code>soap:Body</code> and <code>soap:Envelope</code>
+ * end tags, separated and followed only by whitespace. The contents of the body are taken verbatim from the XML
+ * string between the start and end tag of <code>soap:Body</code>. They are neither parsed nor validated here.
+ * <p/>
+ * As required by SOAP, envelopes containing a document type declaration are rejected, so no entities are ever
+ * resolved.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public final class EnvelopeSplitter {
+
+    /**
+     * Xerces feature id (http://apache.org/xml/features/disallow-doctype-decl).
+     */
+    private static final String DISALLOW_DOCTYPE_DECL_ID = "http://apache.org/xml/features/disallow-doctype-decl";
+
+    private static final ThreadLocal<XMLReader> IDLE_READERS = new ThreadLocal<XMLReader>();
+
+    private final String xml;
+    private final int bodyStart;
+    private final int bodyEnd;
+
+    private EnvelopeSplitter(String xml, int bodyStart, int bodyEnd) {
+        this.xml = xml;
+        this.bodyStart = bodyStart;
+        this.bodyEnd = bodyEnd;
+    }
+
+    /**
+     * Finds the contents of the <code>soap:Body</code> of the supplied SOAP envelope.
+     *
+     * @param xml
+     *            The SOAP envelope
+     * @return The located body
+     * @throws XmlUtilException
+     *             If the header is not well-formed, contains a document type declaration or the envelope does not end
+     *             with <code>soap:Body</code>
+     */
+    public static EnvelopeSplitter split(String xml) throws XmlUtilException {
+        BodyLocator locator = new BodyLocator();
+        XMLReader reader = borrowReader();
+        reader.setContentHandler(locator);
+        reader.setErrorHandler(locator);
+        try {
+            reader.parse(new InputSource(new StringReader(xml)));
+        } catch (SAXException e) {
+            if (locator.bodyTag == null) {
+                throw new XmlUtilException("Unable to parse XML", e);
+            }
+        } catch (IOException e) {
+            throw new XmlUtilException("Unable to parse XML", e);
+        } finally {
+            IDLE_READERS.set(reader);
+        }
+        if (locator.bodyTag == null) {
+            throw new XmlUtilException("No " + SOAPTags.BODY_PREFIXED + " found in SOAP envelope");
+        }
+
+        int start = toOffset(xml, locator.line, locator.column);
+        int envelopeEnd = startOfEndTag(xml, xml.length(), locator.envelopeTag);
+        int end;
+        if (xml.charAt(start - 2) == '/') {
+            // <soap:Body/>
+            end = envelopeEnd != -1 && xml.substring(start, envelopeEnd).trim().length() == 0 ? start : -1;
+        } else {
+            end = envelopeEnd != -1 ? startOfEndTag(xml, envelopeEnd, locator.bodyTag) : -1;
+        }
+        if (end < start) {
+            throw new XmlUtilException("No end tag for " + SOAPTags.BODY_PREFIXED + " found at the end of the SOAP envelope");
+        }
+        return new EnvelopeSplitter(xml, start, end);
+    }
+
+    /**
+     * @return The complete SOAP envelope
+     */
+    public String getEnvelope() {
+        return xml;
+    }
+
+    /**
+     * @return The SOAP envelope with an empty <code>soap:Body</code>
+     */
+    public String getEnvelopeWithoutBody() {
+        if (bodyStart == bodyEnd) {
+            return xml;
+        }
+        return new StringBuilder(xml.length() - (bodyEnd - bodyStart)).append(xml, 0, bodyStart).append(xml, bodyEnd, xml.length()).toString();
+    }
+
+    /**
+     * @return The verbatim contents of the <code>soap:Body</code>, i.e. the characters between its start and end tag
+     */
+    public String getBodyContent() {
+        return xml.substring(bodyStart, bodyEnd);
+    }
+
+    /**
+     * Converts a SAX location, which points just after the last character read, into an offset in the string.
+     * Lines are counted like the parser does, treating CR LF, CR and LF as one line break each.
+     */
+    private static int toOffset(String xml, int line, int column) {
+        int offset = 0;
+        for (int currentLine = 1; currentLine < line; currentLine++) {
+            int lf = xml.indexOf('\n', offset);
+            int cr = xml.indexOf('\r', offset);
+            if (cr != -1 && (lf == -1 || cr < lf)) {
+                offset = cr + 1 < xml.length() && xml.charAt(cr + 1) == '\n' ? cr + 2 : cr + 1;
+            } else {
+                offset = lf + 1;
+            }
+        }
+        return offset + column - 1;
+    }
+
+    /**
+     * Returns the offset of the end tag <code>qName</code> that is last in <code>xml</code> before <code>limit</code>,
+     * when only whitespace separates the two. Otherwise -1.
+     */
+    private static int startOfEndTag(String xml, int limit, String qName) {
+        int i = skipWhitespaceBackwards(xml, limit);
+        if (i == 0 || xml.charAt(i - 1) != '>') {
+            return -1;
+        }
+        i = skipWhitespaceBackwards(xml, i - 1);
+        String endTag = "</" + qName;
+        return xml.startsWith(endTag, i - endTag.length()) ? i - endTag.length() : -1;
+    }
+
+    private static int skipWhitespaceBackwards(String xml, int index) {
+        while (index > 0 && Character.isWhitespace(xml.charAt(index - 1))) {
+            index--;
+        }
+        return index;
+    }
+
+    private static XMLReader borrowReader() throws XmlUtilException {
+        XMLReader reader = IDLE_READERS.get();
+        if (reader != null) {
+            IDLE_READERS.set(null);
+            return reader;
+        }
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(DISALLOW_DOCTYPE_DECL_ID, true);
+            return factory.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new XmlUtilException("Unable to create SAX parser", e);
+        } catch (SAXException e) {
+            throw new XmlUtilException("Unable to create SAX parser", e);
+        }
+    }
+
+    /**
+     * Records the position right after the <code>soap:Body</code> start tag and stops the parser there.
+     */
+    private static class BodyLocator extends DefaultHandler {
+
+        private Locator locator;
+        private int depth;
+        private String envelopeTag;
+        private String bodyTag;
+        private int line;
+        private int column;
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            depth++;
+            if (depth == 1) {
+                envelopeTag = qName;
+            } else if (depth == 2 && NameSpaces.SOAP_SCHEMA.equals(uri) && SOAPTags.BODY_UNPREFIXED.equals(localName)) {
+                bodyTag = qName;
+                line = locator.getLineNumber();
+                column = locator.getColumnNumber();
+                throw new SAXException("soap:Body located");
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            depth--;
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXException {
+            throw e;
+        }
+    }
+}
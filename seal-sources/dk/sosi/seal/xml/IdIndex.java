@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+import org.w3c.dom.*;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the elements of a <code>Document</code> by the value of any attribute whose name ends with "id"
+ * (case ignored), e.g. <code>id</code>, <code>ID</code>, <code>wsu:Id</code> or <code>AssertionID</code>.
+ * <p/>
+ * The index is built in a single pass over the document on first use and kept as user data on the document.
+ * If the same value is used more than once, the first element in document order is indexed, as found by a
+ * depth-first search, and the value is recorded as a duplicate.
+ * <p/>
+ * The document may be modified after the index was built. A hit is therefore checked to still be in the
+ * document and carry the id, and the index is rebuilt if it is stale or does not know the id.
+ * <p/>
+ * The index is not part of the serialized form of the document, as it is rebuilt when the document is
+ * used after deserialization.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+final class IdIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String USER_DATA_KEY = IdIndex.class.getName();
+
+    private final transient Document document;
+    private final transient Map<String, Element> elements = new HashMap<String, Element>();
+    private final transient Set<String> duplicates = new HashSet<String>();
+
+    private IdIndex(Document document) {
+        this.document = document;
+        for (Node node = document.getDocumentElement(); node != null; node = next(node)) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                final NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    final Node attribute = attributes.item(i);
+                    if (isIdAttribute(attribute)) {
+                        final Element first = elements.get(attribute.getNodeValue());
+                        if (first == null) {
+                            elements.put(attribute.getNodeValue(), (Element) node);
+                        } else if (first != node) {
+                            duplicates.add(attribute.getNodeValue());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the first element of the document carrying the id.
+     *
+     * @return the element or <code>null</code> if not found
+     */
+    static Element getElementById(Document document, String id) {
+        return getIndex(document, id).elements.get(id);
+    }
+
+    /**
+     * Whether more than one element of the document carries the id.
+     */
+    static boolean isDuplicate(Document document, String id) {
+        return getIndex(document, id).duplicates.contains(id);
+    }
+
+    private static IdIndex getIndex(Document document, String id) {
+        IdIndex index = (IdIndex) document.getUserData(USER_DATA_KEY);
+        if (index != null && index.elements != null) {
+            final Element element = index.elements.get(id);
+            if (element != null && index.isCurrent(element, id)) {
+                return index;
+            }
+        }
+        index = new IdIndex(document);
+        document.setUserData(USER_DATA_KEY, index, null);
+        return index;
+    }
+
+    static boolean isIdAttribute(Node attribute) {
+        final String name = attribute.getNodeName();
+        return name.regionMatches(true, name.length() - 2, "id", 0, 2);
+    }
+
+    /**
+     * Whether the node is part of the document tree, i.e. has not been removed or never was added.
+     */
+    static boolean isAttached(Node node) {
+        Node ancestor = node;
+        while (ancestor.getParentNode() != null) {
+            ancestor = ancestor.getParentNode();
+        }
+        return ancestor.getNodeType() == Node.DOCUMENT_NODE;
+    }
+
+    private boolean isCurrent(Element element, String id) {
+        if (element.getOwnerDocument() != document || !isAttached(element)) {
+            return false;
+        }
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Node attribute = attributes.item(i);
+            if (isIdAttribute(attribute) && id.equals(attribute.getNodeValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the node following the supplied node in document order.
+     */
+    private static Node next(Node node) {
+        if (node.getFirstChild() != null) {
+            return node.getFirstChild();
+        }
+        for (Node current = node; current != null; current = current.getParentNode()) {
+            if (current.getNextSibling() != null) {
+                return current.getNextSibling();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+/**
+ * Source of the random bytes used by <code>XmlUtil</code> for GUIDs, nonces and UUIDs, e.g. message IDs and IDCard IDs.
+ * <p/>
+ * The source is set through {@link XmlUtil#setRandomSource(RandomSource)} or by naming the implementing class in the
+ * system property <code>sosi:randomsource</code>. Implementations must be thread-safe, must not block and should be
+ * backed by a cryptographically strong generator, as the values are used as nonces.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ * @see SecureRandomSource
+ * @see ThreadLocalRandomSource
+ */
+public interface RandomSource {
+
+    /**
+     * Fills the array with random bytes.
+     *
+     * @param bytes
+     *            The array to fill
+     */
+    void nextBytes(byte[] bytes);
+}
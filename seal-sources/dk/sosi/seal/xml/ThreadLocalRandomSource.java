@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * {@link RandomSource} giving each thread a <code>SecureRandom</code> of its own, so threads generating IDs do not
+ * contend for a shared generator.
+ * <p/>
+ * Each thread draws bytes from a pool, which is refilled from its generator when used up. Bytes are cleared from
+ * the pool once handed out. The generator of a thread is seeded from a shared <code>SecureRandom</code>, which
+ * does not wait for the entropy pool of the operating system.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class ThreadLocalRandomSource implements RandomSource {
+
+    private static final int DEFAULT_POOL_SIZE = 512;
+
+    private final SecureRandom seedSource = new SecureRandom();
+    private final int poolSize;
+
+    private final ThreadLocal<Pool> pools = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool(newSecureRandom(), poolSize);
+        }
+    };
+
+    /**
+     * Creates a source with pools of 512 bytes per thread.
+     */
+    public ThreadLocalRandomSource() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param poolSize
+     *            The number of bytes generated at a time for each thread. Requests for more bytes are served
+     *            directly by the generator of the thread.
+     */
+    public ThreadLocalRandomSource(int poolSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("poolSize must be positive");
+        }
+        this.poolSize = poolSize;
+    }
+
+    public void nextBytes(byte[] bytes) {
+        pools.get().nextBytes(bytes);
+    }
+
+    private SecureRandom newSecureRandom() {
+        byte[] seed = new byte[32];
+        seedSource.nextBytes(seed);
+        SecureRandom secureRandom;
+        try {
+            // SHA1PRNG generates in memory, where the default generator may serialize all threads on reads of /dev/urandom
+            secureRandom = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            secureRandom = new SecureRandom();
+        }
+        // supplied before first use, the seed replaces self-seeding, which may block
+        secureRandom.setSeed(seed);
+        return secureRandom;
+    }
+
+    private static class Pool {
+
+        private final SecureRandom secureRandom;
+        private final byte[] bytes;
+        private int position;
+
+        Pool(SecureRandom secureRandom, int size) {
+            this.secureRandom = secureRandom;
+            this.bytes = new byte[size];
+            this.position = size;
+        }
+
+        void nextBytes(byte[] target) {
+            if (target.length > bytes.length) {
+                secureRandom.nextBytes(target);
+                return;
+            }
+            if (position + target.length > bytes.length) {
+                secureRandom.nextBytes(bytes);
+                position = 0;
+            }
+            System.arraycopy(bytes, position, target, 0, target.length);
+            Arrays.fill(bytes, position, position + target.length, (byte) 0);
+            position += target.length;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+import dk.sosi.seal.SOSIFactory;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Pool of pre-configured identity <code>Transformer</code> instances used to serialize DOM nodes in <code>XmlUtil</code>.
+ * <p/>
+ * The <code>TransformerFactory</code> is looked up once. Each thread keeps its own idle <code>Transformer</code> per set
+ * of output properties, so serializing does neither a service lookup nor take any shared lock.
+ * The output properties are identified by instance and must not be modified after first use.
+ * Borrowing and releasing work as in {@link DocumentBuilderPool}.
+ * <p/>
+ * The idle transformers are held by the threads that serialized, which in a container keeps the classes of the
+ * application alive after it has been undeployed. Set the system property
+ * {@link SOSIFactory#PROPERTYNAME_SOSI_USE_TRANSFORMER_CACHE} to <code>false</code> to create a transformer for every
+ * serialization instead.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+class TransformerPool {
+
+    private static final TransformerFactory FACTORY = TransformerFactory.newInstance();
+
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty(SOSIFactory.PROPERTYNAME_SOSI_USE_TRANSFORMER_CACHE, SOSIFactory.PROPERTYVALUE_SOSI_USE_TRANSFORMER_CACHE));
+
+    private static final ThreadLocal<Map<Properties, Transformer>> IDLE_TRANSFORMERS = new ThreadLocal<Map<Properties, Transformer>>() {
+        @Override
+        protected Map<Properties, Transformer> initialValue() {
+            return new IdentityHashMap<Properties, Transformer>();
+        }
+    };
+
+    private TransformerPool() {
+        // static access only
+    }
+
+    /**
+     * Takes an idle identity <code>Transformer</code> with the supplied output properties from the current threads pool,
+     * or creates a new one if none is available. The transformer should be handed back through <code>release</code>
+     * when the caller has successfully serialized.
+     *
+     * @param outputProperties
+     *            the output properties of the transformer
+     * @return An identity <code>Transformer</code>
+     */
+    static Transformer borrow(Properties outputProperties) {
+        Transformer transformer = enabled ? IDLE_TRANSFORMERS.get().remove(outputProperties) : null;
+        if (transformer == null) {
+            transformer = newTransformer(outputProperties);
+        }
+        return transformer;
+    }
+
+    /**
+     * Returns the supplied transformer to the current threads pool. Only transformers which completed a transformation
+     * should be handed back.
+     *
+     * @param outputProperties
+     *            the output properties the transformer was borrowed with
+     * @param transformer
+     *            the transformer to hand back
+     */
+    static void release(Properties outputProperties, Transformer transformer) {
+        if (enabled) {
+            IDLE_TRANSFORMERS.get().put(outputProperties, transformer);
+        }
+    }
+
+    /**
+     * Turns pooling on or off, overriding the system property. Idle transformers of the current thread are dropped
+     * when pooling is turned off.
+     */
+    static void setEnabled(boolean enabled) {
+        TransformerPool.enabled = enabled;
+        if (!enabled) {
+            IDLE_TRANSFORMERS.remove();
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    private static Transformer newTransformer(Properties outputProperties) {
+        try {
+            Transformer transformer;
+            // Serialized on the shared factory, as JAXP does not promise TransformerFactory to be thread-safe
+            synchronized (FACTORY) {
+                transformer = FACTORY.newTransformer();
+            }
+            transformer.setOutputProperties(outputProperties);
+            return transformer;
+        } catch (TransformerConfigurationException e) {
+            throw new XmlUtilException("Unable to create XML transformer", e);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.xml;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Thread-safe codec for the xs:dateTime formats used by SEAL, i.e. <code>yyyy-MM-ddTHH:mm:ss</code> in local time,
+ * <code>yyyy-MM-ddTHH:mm:ssZ</code> in UTC and, when parsing, <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code> in UTC.
+ * <p/>
+ * Dates are converted arithmetically without creating any <code>SimpleDateFormat</code> or <code>Calendar</code>.
+ * The conversion is only done for years 1583 to 9999, where the result equals the one of the
+ * <code>SimpleDateFormat</code> patterns previously used. Callers must fall back to those patterns when a method
+ * returns <code>null</code>, which covers other years as well as input the lenient <code>SimpleDateFormat</code>
+ * accepts, e.g. month 13 or trailing characters.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+final class XmlDateTime {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    // 1583-01-01T00:00:00Z and 10000-01-01T00:00:00Z
+    private static final long MIN_MILLIS = daysFromCivil(1583, 1, 1) * MILLIS_PER_DAY;
+    private static final long MAX_MILLIS = daysFromCivil(10000, 1, 1) * MILLIS_PER_DAY;
+
+    private static final long INVALID = Long.MIN_VALUE;
+
+    private static final int ZULU_LENGTH = "yyyy-MM-ddTHH:mm:ssZ".length();
+    private static final int ZULU_MILLIS_LENGTH = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+
+    private XmlDateTime() {
+        // static access only
+    }
+
+    /**
+     * Formats the date as <code>yyyy-MM-ddTHH:mm:ss</code>, followed by <code>Z</code> in UTC or in the default time
+     * zone otherwise.
+     *
+     * @return the formatted date or <code>null</code> if the year is not supported
+     */
+    static String format(Date date, boolean useZuluTime) {
+        long millis = date.getTime();
+        if (!useZuluTime) {
+            millis += TimeZone.getDefault().getOffset(millis);
+        }
+        if (millis < MIN_MILLIS || millis >= MAX_MILLIS) {
+            return null;
+        }
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+        int secondOfDay = millisOfDay / 1000;
+
+        // civil date from days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = z / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[useZuluTime ? ZULU_LENGTH : ZULU_LENGTH - 1];
+        append(chars, 0, year, 4);
+        chars[4] = '-';
+        append(chars, 5, month, 2);
+        chars[7] = '-';
+        append(chars, 8, day, 2);
+        chars[10] = 'T';
+        append(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        append(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        append(chars, 17, secondOfDay % 60, 2);
+        if (useZuluTime) {
+            chars[19] = 'Z';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses <code>yyyy-MM-ddTHH:mm:ssZ</code>, and <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code> if <code>allowMillis</code>
+     * is <code>true</code>, in UTC.
+     *
+     * @return the date or <code>null</code> if the value is not in one of these formats with valid fields
+     */
+    static Date parseZulu(String value, boolean allowMillis) {
+        int length = value.length();
+        if (length != ZULU_LENGTH && (!allowMillis || length != ZULU_MILLIS_LENGTH) || value.charAt(length - 1) != 'Z') {
+            return null;
+        }
+        long seconds = parseSeconds(value);
+        if (seconds == INVALID) {
+            return null;
+        }
+        long millis = seconds * 1000;
+        if (length == ZULU_MILLIS_LENGTH) {
+            int fraction = value.charAt(19) == '.' ? parseDigits(value, 20, 3) : -1;
+            if (fraction < 0) {
+                return null;
+            }
+            millis += fraction;
+        }
+        return new Date(millis);
+    }
+
+    /**
+     * Parses the date and time fields at the start of the value to seconds since the epoch.
+     *
+     * @return the seconds or <code>INVALID</code>
+     */
+    private static long parseSeconds(String value) {
+        if (value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T' || value.charAt(13) != ':' || value.charAt(16) != ':') {
+            return INVALID;
+        }
+        int year = parseDigits(value, 0, 4);
+        int month = parseDigits(value, 5, 2);
+        int day = parseDigits(value, 8, 2);
+        int hour = parseDigits(value, 11, 2);
+        int minute = parseDigits(value, 14, 2);
+        int second = parseDigits(value, 17, 2);
+        if (year < 1583 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID;
+        }
+        return daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second;
+    }
+
+    private static int parseDigits(String value, int offset, int count) {
+        int result = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /**
+     * Days since the epoch of the date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long result = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? result - 1 : result;
+    }
+
+    private static void append(char[] chars, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -30,8 +30,14 @@ package dk.sosi.seal.xml;
 
 import dk.sosi.seal.SOSIFactory;
 import dk.sosi.seal.model.ModelException;
+import dk.sosi.seal.model.SchemaUtil;
+import dk.sosi.seal.model.constants.DSAttributes;
+import dk.sosi.seal.model.constants.DSTags;
+import dk.sosi.seal.model.constants.NameSpaces;
 import dk.sosi.seal.pki.AuditEventHandler;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.xml.security.utils.IdResolver;
 import org.apache.xml.utils.PrefixResolver;
 import org.apache.xpath.XPathAPI;
@@ -45,10 +51,10 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.validation.Schema;
 import java.io.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -64,6 +70,8 @@ import java.util.*;
  */
 public class XmlUtil {
 
+	private static final Log LOG = LogFactory.getLog(XmlUtil.class);
+
 	public static final String XML_ENCODING = "UTF-8";
 
 	public static String SCHEMA_LANGUAGE = "http://java.sun.com/xml/jaxp/properties/schemaLanguage";
@@ -74,6 +82,11 @@ public class XmlUtil {
 
 	private static final int DEFAULT_INDENT = 2;
 
+	private static final Properties PLAIN_OUTPUT = createOutputProperties(false);
+	private static final Properties PRETTY_OUTPUT = createOutputProperties(true);
+	private static final Properties BYTE_ARRAY_OUTPUT = createByteArrayOutputProperties(false);
+	private static final Properties BYTE_ARRAY_OUTPUT_WITH_DECLARATION = createByteArrayOutputProperties(true);
+
 	/**
 	 * Schema full checking feature id
 	 * (http://apache.org/xml/features/validation/schema-full-checking).
@@ -118,7 +131,8 @@ public class XmlUtil {
 
 	/**
 	 * Note: SimpleDateFormat is not thread safe, hence we can't have it as a
-	 * static local.
+	 * static local. Use {@link #toXMLTimeStamp(Date, boolean)} to format dates,
+	 * which does not create a SimpleDateFormat.
 	 * @param useZuluTime
 	 * 		whether the formatter should convert dates to UTC and represent them as such
 	 * @return Dateformatter, following DGWS dateTime format.
@@ -155,35 +169,43 @@ public class XmlUtil {
 				docBuilderFactory = CACHED_DOCUMENT_BUILDER_FACTORY;
 			}
 
-            InputStream schemaStream = null;
+            Schema schema = null;
             if (validate) {
-                schemaStream = resourceResolver.getResourceAsStream("/" + rootSchema);
+                schema = getCompiledSchema(rootSchema);
             }
 
             synchronized(docBuilderFactory) {
                 // If the docBuilderFactory is a thread-common resource, the usage must be synchronized otherwise it is not thread-safe.
                 // By synchronizing on the docBuilderFactory object this will only result in a lock, when using  the cached factory.
-                if(validate) {
-                    docBuilderFactory.setAttribute(SCHEMA_LANGUAGE, XML_SCHEMA);
-                    docBuilderFactory.setAttribute(SCHEMA_SOURCE, schemaStream);
-                }
-
+                docBuilderFactory.setSchema(schema);
                 docBuilderFactory.setNamespaceAware(true);
-                docBuilderFactory.setValidating(validate);
 
 				documentBuilder = docBuilderFactory.newDocumentBuilder();
 				documentBuilder.setEntityResolver(resourceResolver );
 			}
 		} catch (ParserConfigurationException e) {
 			throw new XmlUtilException("Unable to initialize XML parser", e);
-		} catch (IOException e) {
-			throw new XmlUtilException("Unable to initialize XML parser", e);
 		}
 
 		documentBuilder.setErrorHandler(new DebugErrorHandler(false));
 		return documentBuilder;
 	}
 
+	/**
+	 * Returns the compiled XML Schema for the supplied root schema from the process-wide cache in <code>SchemaUtil</code>.
+	 *
+	 * @param rootSchema
+	 *            the classpath name of the root schema, e.g. <code>soap.xsd</code>
+	 * @return the compiled schema
+	 */
+	static Schema getCompiledSchema(String rootSchema) {
+		try {
+			return SchemaUtil.getSchema("/" + rootSchema);
+		} catch (SAXException e) {
+			throw new XmlUtilException("Unable to initialize XML parser, could not load schema '" + rootSchema + "'", e);
+		}
+	}
+
     /**
      * crete a pretty string representation of this xml string
      */
@@ -244,6 +266,9 @@ public class XmlUtil {
 	 * Read an xml input source and optionally validate it against the schema.
 	 * Only schema validation will be performed (ie. no xml signature checking
 	 * done here).
+	 * <p/>
+	 * Unless <code>sosi:useDBFCache</code> is <code>false</code> the parser is
+	 * taken from a per-thread pool of pre-configured <code>DocumentBuilder</code>s.
 	 *
 	 * @param isXml
 	 *            The input source with the XML in it
@@ -254,6 +279,17 @@ public class XmlUtil {
 	 *             If parsing failed, validation failed
 	 */
 	public static Document readXml(Properties properties, InputSource isXml, boolean validate) throws XmlUtilException {
+		return readXml(properties, isXml, validate, SOSIFactory.getAuditEventHandler(properties));
+	}
+
+	/**
+	 * As {@link #readXml(Properties, InputSource, boolean)}, but sends the audit events to the supplied handler
+	 * instead of the one configured in the properties.
+	 *
+	 * @param auditEventHandler
+	 *            the handler receiving the audit events, e.g. the one of the calling <code>SOSIFactory</code>
+	 */
+	public static Document readXml(Properties properties, InputSource isXml, boolean validate, AuditEventHandler auditEventHandler) throws XmlUtilException {
 
 		boolean useDocumentFactoryCache = properties.getProperty(SOSIFactory.PROPERTYNAME_SOSI_USE_DOCUMENT_BUILDER_FACTORY_CACHE, SOSIFactory.PROPERTYVALUE_SOSI_USE_DOCUMENT_BUILDER_FACTORY_CACHE).equalsIgnoreCase("true");
 		boolean useEnhancedValidation = properties.getProperty(SOSIFactory.PROPERTYNAME_SOSI_VALIDATE_ENHANCED, SOSIFactory.PROPERTYVALUE_SOSI_VALIDATE_ENHANCED).equalsIgnoreCase("true");
@@ -263,34 +299,101 @@ public class XmlUtil {
 
         String rootSchema = properties.getProperty(SOSIFactory.PROPERTYNAME_SOSI_ROOTSCHEMA, defaultSchema);
 
-		DocumentBuilder documentBuilder = getDocumentBuilder(validate, useDocumentFactoryCache, rootSchema);
+		DocumentBuilder documentBuilder;
+		if (useDocumentFactoryCache) {
+			documentBuilder = DocumentBuilderPool.borrow(validate, rootSchema);
+			documentBuilder.setEntityResolver(resourceResolver);
+			documentBuilder.setErrorHandler(new DebugErrorHandler(false));
+		} else {
+			documentBuilder = getDocumentBuilder(validate, false, rootSchema);
+		}
+
+		boolean auditingEnabled = SOSIFactory.isAuditingEnabled(auditEventHandler);
 
 		Document doc = null;
 		try {
 			doc = documentBuilder.parse(isXml);
 		} catch (SAXException e) {
-			SOSIFactory.getAuditEventHandler(properties).onInformationalAuditingEvent(
-					AuditEventHandler.EVENT_TYPE_ERROR_PARSING_SOSI_XML,
-					new Object[]{doc}
-					);
+			if (auditingEnabled) {
+				auditEventHandler.onInformationalAuditingEvent(
+						AuditEventHandler.EVENT_TYPE_ERROR_PARSING_SOSI_XML,
+						new Object[]{doc}
+						);
+			}
 			throw new XmlUtilException("Unable to parse XML", e);
 		} catch (IOException e) {
-			SOSIFactory.getAuditEventHandler(properties).onInformationalAuditingEvent(
-					AuditEventHandler.EVENT_TYPE_ERROR_PARSING_SOSI_XML,
-					new Object[]{doc}
-					);
+			if (auditingEnabled) {
+				auditEventHandler.onInformationalAuditingEvent(
+						AuditEventHandler.EVENT_TYPE_ERROR_PARSING_SOSI_XML,
+						new Object[]{doc}
+						);
+			}
 			throw new XmlUtilException("Unable to parse XML", e);
+		} finally {
+			if (useDocumentFactoryCache) {
+				DocumentBuilderPool.release(validate, rootSchema, documentBuilder);
+			}
 		}
 
-		SOSIFactory.getAuditEventHandler(properties).onInformationalAuditingEvent(
-				AuditEventHandler.EVENT_TYPE_INFO_SOSI_XML_VALIDATED,
-				new Object[]{doc}
-				);
+		if (auditingEnabled) {
+			auditEventHandler.onInformationalAuditingEvent(
+					AuditEventHandler.EVENT_TYPE_INFO_SOSI_XML_VALIDATED,
+					new Object[]{doc}
+					);
+		}
 
 		return doc;
 
 	}
 
+	/**
+	 * Parse an XML string and validate it against the supplied schema in the same pass.
+	 * <p/>
+	 * The compiled schema is set on the parser, so the document is validated while it is being built instead of
+	 * by a second traversal of the finished DOM. The parser is taken from the per-thread pool of pre-configured
+	 * <code>DocumentBuilder</code>s.
+	 *
+	 * @param xml
+	 *            XML String
+	 * @param schemaResource
+	 *            the classpath resource of the schema to validate against, e.g. {@link SchemaUtil#IDENTITY_TOKEN_SCHEMA}
+	 * @return The validated Document
+	 * @throws XmlUtilException
+	 *             If the XML could not be parsed or is not valid according to the schema
+	 */
+	public static Document readValidatedXml(String xml, String schemaResource) throws XmlUtilException {
+		return readValidatedXml(new InputSource(new StringReader(xml)), schemaResource);
+	}
+
+	/**
+	 * Parse an XML input source and validate it against the supplied schema in the same pass.
+	 *
+	 * @param isXml
+	 *            The input source with the XML in it
+	 * @param schemaResource
+	 *            the classpath resource of the schema to validate against, e.g. {@link SchemaUtil#IDENTITY_TOKEN_SCHEMA}
+	 * @return The validated Document
+	 * @throws XmlUtilException
+	 *             If the XML could not be read or parsed or is not valid according to the schema
+	 * @see #readValidatedXml(String, String)
+	 */
+	public static Document readValidatedXml(InputSource isXml, String schemaResource) throws XmlUtilException {
+		// DocumentBuilderPool takes root schemas relative to the classpath root, e.g. soap.xsd
+		String rootSchema = schemaResource.startsWith("/") ? schemaResource.substring(1) : schemaResource;
+		DocumentBuilder documentBuilder = DocumentBuilderPool.borrow(true, rootSchema);
+		documentBuilder.setEntityResolver(resourceResolver);
+		documentBuilder.setErrorHandler(new DebugErrorHandler(false));
+		try {
+			return documentBuilder.parse(isXml);
+		} catch (SAXException e) {
+			throw new XmlUtilException("Unable to parse XML", e);
+		} catch (IOException e) {
+			throw new XmlUtilException("Unable to parse XML", e);
+		} finally {
+			DocumentBuilderPool.release(true, rootSchema, documentBuilder);
+		}
+	}
+
 	/**
 	 * Convert the supplied set of bytes to base64 encoding
 	 *
@@ -431,45 +534,82 @@ public class XmlUtil {
 	public static String node2String(Node node, boolean pretty, boolean includeXMLHeader) {
 
 		ByteArrayOutputStream bas = new ByteArrayOutputStream();
+		writeXml(node, bas, pretty, includeXMLHeader);
 		try {
-			TransformerFactory factory = TransformerFactory.newInstance();
-			Transformer transformer = factory.newTransformer();
+			return bas.toString(XML_ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new XmlUtilException("Unsupported XML encoding", e);
+		}
+	}
 
-			transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-			transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-			transformer.setOutputProperty(OutputKeys.INDENT, (pretty) ? "yes" : "no");
-			transformer.setOutputProperty(OutputKeys.ENCODING, XML_ENCODING);
-			transformer.setOutputProperty("{http://xml.apache.org/xalan}indent-amount", Integer.toString(DEFAULT_INDENT));
+	/**
+	 * Serialize the supplied DOM node to the stream in UTF-8. The bytes written are the same as the UTF-8 encoding of
+	 * {@link #node2String(Node, boolean, boolean)}, but no intermediate <code>String</code> is built.
+	 * <p/>
+	 * The stream is neither flushed nor closed.
+	 *
+	 * @param node
+	 *            The node to serialize
+	 * @param out
+	 *            The stream to write to
+	 * @param pretty
+	 *            If true, will indent and generally pretty-print XML. Note:
+	 *            This may affect validity of  contained digital signatures!
+	 * @param includeXMLHeader
+	 *            If true, add the standard XML header to the output
+	 */
+	public static void writeXml(Node node, OutputStream out, boolean pretty, boolean includeXMLHeader) {
 
-			transformer.transform(new DOMSource(node), new StreamResult(bas));
+		if (includeXMLHeader) {
+			try {
+				out.write(xmlHeader(pretty).getBytes(XML_ENCODING));
+			} catch (IOException e) {
+				throw new XmlUtilException("Unable to write XML header", e);
+			}
+		}
+		transform(node, new StreamResult(out), pretty ? PRETTY_OUTPUT : PLAIN_OUTPUT);
+	}
 
-			String str = bas.toString(XML_ENCODING);
-			if(includeXMLHeader) {
-				str = "<?xml version=\"1.0\" encoding=\""+XML_ENCODING+"\" ?>"+((pretty)?"\n"+str:str);
+	/**
+	 * Serialize the supplied DOM node to the writer. The characters written are the same as
+	 * {@link #node2String(Node, boolean, boolean)}, but no intermediate <code>String</code> is built.
+	 * <p/>
+	 * The writer is neither flushed nor closed.
+	 *
+	 * @param node
+	 *            The node to serialize
+	 * @param writer
+	 *            The writer to write to
+	 * @param pretty
+	 *            If true, will indent and generally pretty-print XML. Note:
+	 *            This may affect validity of  contained digital signatures!
+	 * @param includeXMLHeader
+	 *            If true, add the standard XML header to the output
+	 */
+	public static void writeXml(Node node, Writer writer, boolean pretty, boolean includeXMLHeader) {
+
+		if (includeXMLHeader) {
+			try {
+				writer.write(xmlHeader(pretty));
+			} catch (IOException e) {
+				throw new XmlUtilException("Unable to write XML header", e);
 			}
-			return str;
-		} catch (TransformerConfigurationException e) {
-			throw new XmlUtilException("TransformerConfigurationException during prettyPrint", e);
-		} catch (TransformerException e) {
-			throw new XmlUtilException("TransformerException during prettyPrint", e);
-		} catch (UnsupportedEncodingException e) {
-			throw new XmlUtilException("Unsupported XML encoding", e);
 		}
+		transform(node, new StreamResult(writer), pretty ? PRETTY_OUTPUT : PLAIN_OUTPUT);
 	}
 
 	public static byte[] serializeXml2ByteArray(Node node, boolean includeXMLHeader) {
 
 		// output the resulting document
 		ByteArrayOutputStream os = new ByteArrayOutputStream();
-		TransformerFactory tf = TransformerFactory.newInstance();
+		Properties outputProperties = (includeXMLHeader) ? BYTE_ARRAY_OUTPUT_WITH_DECLARATION : BYTE_ARRAY_OUTPUT;
+		Transformer trans = TransformerPool.borrow(outputProperties);
 		try {
-			Transformer trans = tf.newTransformer();
-			trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, (includeXMLHeader) ? "no" : "yes");
-			trans.setOutputProperty(OutputKeys.METHOD, "xml");
 			trans.transform(new DOMSource(node), new StreamResult(os));
 		} catch (TransformerException e) {
 			throw new XmlUtilException("Unable to gctransform input", e);
 		}
+		TransformerPool.release(outputProperties, trans);
 		return os.toByteArray();
 	}
 
@@ -524,7 +664,8 @@ public class XmlUtil {
 	 */
 	public static String toXMLTimeStamp(Date date, boolean useZuluTime) {
 
-		return getDateFormat(useZuluTime).format(date);
+		String timestamp = XmlDateTime.format(date, useZuluTime);
+		return (timestamp != null) ? timestamp : getDateFormat(useZuluTime).format(date);
 	}
 
 	/**
@@ -535,7 +676,8 @@ public class XmlUtil {
 		if (xmlTimestamp == null)
 			throw new ModelException("xmlTimestamp cannot be null");
 		boolean useZuluTime = isZuluTimeFormat(xmlTimestamp);
-		return getDateFormat(useZuluTime).parse(xmlTimestamp);
+		Date date = (useZuluTime) ? XmlDateTime.parseZulu(xmlTimestamp, false) : null;
+		return (date != null) ? date : getDateFormat(useZuluTime).parse(xmlTimestamp);
 	}
 
 	public static boolean isZuluTimeFormat(String xmlTimestamp) {
@@ -546,21 +688,19 @@ public class XmlUtil {
         if (dateTimeString == null || dateTimeString.trim().length() == 0) {
             throw new IllegalArgumentException("DateTimeString cannot be null or empty");
         }
-        String formatString = "yyyy'-'MM'-'dd'T'HH:mm:ss";
-
-        List<DateFormat> dateFormats = new LinkedList<DateFormat>();
-
-        SimpleDateFormat format = new SimpleDateFormat(formatString + "'Z'");
-        format.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
-        dateFormats.add(format);
-
-        SimpleDateFormat formatWithMillis = new SimpleDateFormat(formatString + ".SSS'Z'");
-        formatWithMillis.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
-        dateFormats.add(formatWithMillis);
+        Date date = XmlDateTime.parseZulu(dateTimeString, true);
+        if (date != null) {
+            return date;
+        }
 
-        for (DateFormat dateFormat : dateFormats) {
+        // leniently parsed by SimpleDateFormat, e.g. an invalid day of month or other number of fraction digits
+        String formatString = "yyyy'-'MM'-'dd'T'HH:mm:ss";
+        String[] patterns = { formatString + "'Z'", formatString + ".SSS'Z'" };
+        for (String pattern : patterns) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
             try {
-                return  dateFormat.parse(dateTimeString);
+                return dateFormat.parse(dateTimeString);
             } catch (ParseException e) {
                 //Ignore
             }
@@ -570,23 +710,46 @@ public class XmlUtil {
 
     }
 
+	private static volatile RandomSource randomSource = createRandomSource(System.getProperty(SOSIFactory.PROPERTYNAME_SOSI_RANDOM_SOURCE));
+
 	// this moves the timeconsuming instantiation of SecureRandom
 	// from first messagegeneration to class init
 	static {
 		createGUID();
 	}
 
+	/**
+	 * Returns the source of the random bytes of GUIDs, nonces and UUIDs.
+	 */
+	public static RandomSource getRandomSource() {
+		return randomSource;
+	}
+
+	/**
+	 * Sets the source of the random bytes of GUIDs, nonces and UUIDs. The default is a {@link SecureRandomSource}
+	 * unless another class is named in the system property {@link SOSIFactory#PROPERTYNAME_SOSI_RANDOM_SOURCE}.
+	 *
+	 * @param source
+	 *            The thread-safe source to use
+	 */
+	public static void setRandomSource(RandomSource source) {
+		if (source == null) {
+			throw new IllegalArgumentException("RandomSource cannot be null");
+		}
+		randomSource = source;
+	}
+
 	//TODO use UUID algorithm based on standards (JDK1.5, Commons Id contains such a generator)
 	public static String createGUID() {
 	    return toBase64(createUIDBytes(16));
 	}
 
     public static String generateUUID() {
-        return "urn:uuid:" + UUID.randomUUID();
+        return "urn:uuid:" + createRandomUUID();
     }
 
     public static String generateRandomNCName() {
-        return "_" + UUID.randomUUID();
+        return "_" + createRandomUUID();
     }
 
 	public static String createNonce() {
@@ -631,36 +794,51 @@ public class XmlUtil {
 	}
 
 	/**
-	 * Deep and thorough search for any attribute that lowercased ends with "id"
-	 * and whose name value matches the reference uri. Potentially very
-	 * expensive operation.
+	 * Search for the first element with any attribute that lowercased ends with "id"
+	 * and whose value matches the reference uri. Elements of a document are found through
+	 * an index of the ids of the document, which is built on first use.
 	 *
 	 * @param root
 	 *            The start of the search
 	 * @param referenceUri
 	 *            The id value to look for
-	 * @return Null if not found, the Attribute node otherwise.
+	 * @return Null if not found, the Element node otherwise.
 	 */
 	public static Node getElementByIdExtended(Node root, String referenceUri) {
 
+		Document document = root.getNodeType() == Node.DOCUMENT_NODE ? (Document) root : root.getOwnerDocument();
+		if (document == null || !IdIndex.isAttached(root)) {
+			return searchElementByIdExtended(root, referenceUri);
+		}
+
+		Element element = IdIndex.getElementById(document, referenceUri);
+		if (element == null || root == document) {
+			return element;
+		}
+		// the first element of the document with the id is the first below root, if it is below root
+		for (Node ancestor = element; ancestor != null; ancestor = ancestor.getParentNode()) {
+			if (ancestor == root) {
+				return element;
+			}
+		}
+		return searchElementByIdExtended(root, referenceUri);
+	}
+
+	private static Node searchElementByIdExtended(Node root, String referenceUri) {
+
 		NamedNodeMap namedNodeMap = root.getAttributes();
 		if (namedNodeMap != null) {
 			for (int i = 0; i < namedNodeMap.getLength(); i++) {
 
 				Node node = namedNodeMap.item(i);
-				String name = node.getNodeName().toLowerCase();
-				if (name.endsWith("id")) {
-					String value = node.getNodeValue();
-					//if (referenceUri.equals(value))
-                    if (value.equals(referenceUri))
-						return root; // NOPMD
+				if (IdIndex.isIdAttribute(node) && node.getNodeValue().equals(referenceUri)) {
+					return root; // NOPMD
 				}
 			}
 		}
 
-		NodeList children = root.getChildNodes();
-		for (int i = 0; i < children.getLength(); i++) {
-			Node candidate = getElementByIdExtended(children.item(i), referenceUri);
+		for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+			Node candidate = searchElementByIdExtended(child, referenceUri);
 			if (candidate != null)
 				return candidate; // NOPMD
 		}
@@ -668,6 +846,90 @@ public class XmlUtil {
 		return null;
 	}
 
+	/**
+	 * Register the elements referenced by the ds:Reference elements of the signature as Ids in the
+	 * IdResolver, so they are found when the signature is validated. Each element is resolved by
+	 * {@link #resolveSignatureReference(Element, String)}.
+	 * <p/>
+	 * A reference to an id carried by more than one element of the document is ambiguous, as the
+	 * element checked by the signature need not be the element later read by the caller. No element
+	 * is registered in that case.
+	 *
+	 * @param signatureElement
+	 *            The ds:Signature element
+	 * @return <code>false</code> if a referenced id is not unique in the document
+	 */
+	public static boolean registerSignatureReferences(Element signatureElement) {
+
+		NodeList references = signatureElement.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.REFERENCE);
+		Element[] elements = new Element[references.getLength()];
+		String[] ids = new String[references.getLength()];
+		for (int i = 0; i < references.getLength(); i++) {
+			String uri = ((Element) references.item(i)).getAttributeNS(null, DSAttributes.URI);
+			if (uri.startsWith("#")) {
+				ids[i] = uri.substring(1);
+				if (!isIdUnique(signatureElement.getOwnerDocument(), ids[i])) {
+					return false;
+				}
+				elements[i] = resolveSignatureReference(signatureElement, ids[i]);
+			}
+		}
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i] != null) {
+				IdResolver.registerElementById(elements[i], ids[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Resolves the element a ds:Reference of the signature points at. An enveloped signature covers the
+	 * outermost ancestor carrying the id, otherwise the first element of the document with the id is used.
+	 *
+	 * @param signatureElement
+	 *            The ds:Signature element
+	 * @param id
+	 *            The id of the reference, without the leading '#'
+	 * @return The referenced element, or <code>null</code> if not found
+	 */
+	public static Element resolveSignatureReference(Element signatureElement, String id) {
+
+		Element enveloping = null;
+		for (Node ancestor = signatureElement.getParentNode(); ancestor != null; ancestor = ancestor.getParentNode()) {
+			if (ancestor.getNodeType() == Node.ELEMENT_NODE && hasIdExtended((Element) ancestor, id)) {
+				enveloping = (Element) ancestor;
+			}
+		}
+		if (enveloping != null) {
+			return enveloping;
+		}
+		return (Element) getElementByIdExtended(signatureElement.getOwnerDocument(), id);
+	}
+
+	/**
+	 * Checks that at most one element of the document carries the id, counting extended ids such as wsu:Id.
+	 *
+	 * @param document
+	 *            The document to check
+	 * @param id
+	 *            The id value
+	 * @return <code>false</code> if two or more elements carry the id
+	 */
+	public static boolean isIdUnique(Document document, String id) {
+		return !IdIndex.isDuplicate(document, id);
+	}
+
+	private static boolean hasIdExtended(Element element, String id) {
+		NamedNodeMap namedNodeMap = element.getAttributes();
+		for (int i = 0; i < namedNodeMap.getLength(); i++) {
+			Node node = namedNodeMap.item(i);
+			if (IdIndex.isIdAttribute(node) && node.getNodeValue().equals(id)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Traverse the node hierarchy upwards to the root, adding each attribute
 	 * that ends with "id" (case ignored) as an Id to the IdResolver for future
@@ -705,10 +967,8 @@ public class XmlUtil {
 			for (int i = 0; i < namedNodeMap.getLength(); i++) {
 
 				Node node = namedNodeMap.item(i);
-				String name = node.getNodeName().toLowerCase();
-				if (name.endsWith("id")) {
-					String value = node.getNodeValue();
-					IdResolver.registerElementById(element, value);
+				if (IdIndex.isIdAttribute(node)) {
+					IdResolver.registerElementById(element, node.getNodeValue());
 				}
 			}
 		}
@@ -803,12 +1063,77 @@ public class XmlUtil {
 	// Private parts
 	// ===================================
 
+	private static String xmlHeader(boolean pretty) {
+		return "<?xml version=\"1.0\" encoding=\"" + XML_ENCODING + "\" ?>" + ((pretty) ? "\n" : "");
+	}
+
+	private static void transform(Node node, StreamResult result, Properties outputProperties) {
+		Transformer transformer = TransformerPool.borrow(outputProperties);
+		try {
+			transformer.transform(new DOMSource(node), result);
+		} catch (TransformerException e) {
+			throw new XmlUtilException("TransformerException during prettyPrint", e);
+		}
+		// only transformers which completed are reused
+		TransformerPool.release(outputProperties, transformer);
+	}
+
+	private static Properties createOutputProperties(boolean pretty) {
+		Properties properties = new Properties();
+		properties.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		properties.setProperty(OutputKeys.METHOD, "xml");
+		properties.setProperty(OutputKeys.INDENT, (pretty) ? "yes" : "no");
+		properties.setProperty(OutputKeys.ENCODING, XML_ENCODING);
+		properties.setProperty("{http://xml.apache.org/xalan}indent-amount", Integer.toString(DEFAULT_INDENT));
+		return properties;
+	}
+
+	private static Properties createByteArrayOutputProperties(boolean includeXMLHeader) {
+		Properties properties = new Properties();
+		properties.setProperty(OutputKeys.OMIT_XML_DECLARATION, (includeXMLHeader) ? "no" : "yes");
+		properties.setProperty(OutputKeys.METHOD, "xml");
+		return properties;
+	}
+
 	private static byte[] createUIDBytes(int size) {
 
-		SecureRandom secureRandom = new SecureRandom();
 		byte[] probablyUniqueID = new byte[size];
-		secureRandom.nextBytes(probablyUniqueID);
+		randomSource.nextBytes(probablyUniqueID);
 		return probablyUniqueID;
 	}
 
+	/**
+	 * Creates a random (version 4) UUID like <code>UUID.randomUUID()</code> from the bytes of the random source.
+	 */
+	private static UUID createRandomUUID() {
+
+		byte[] bytes = createUIDBytes(16);
+		bytes[6] = (byte) ((bytes[6] & 0x0f) | 0x40); // version 4
+		bytes[8] = (byte) ((bytes[8] & 0x3f) | 0x80); // IETF variant
+		long mostSignificantBits = 0;
+		long leastSignificantBits = 0;
+		for (int i = 0; i < 8; i++) {
+			mostSignificantBits = (mostSignificantBits << 8) | (bytes[i] & 0xff);
+			leastSignificantBits = (leastSignificantBits << 8) | (bytes[i + 8] & 0xff);
+		}
+		return new UUID(mostSignificantBits, leastSignificantBits);
+	}
+
+	/**
+	 * Creates the configured <code>RandomSource</code>. This runs while the class is initialized, so a bad class name
+	 * falls back to a {@link SecureRandomSource} instead of making <code>XmlUtil</code> unusable.
+	 */
+	/* pp */ static RandomSource createRandomSource(String className) {
+
+		if (className == null) {
+			return new SecureRandomSource();
+		}
+		try {
+			return (RandomSource) Class.forName(className).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			LOG.error("Unable to create RandomSource " + className + ", using SecureRandomSource instead", e);
+			return new SecureRandomSource();
+		}
+	}
+
 }
@@ -37,19 +37,41 @@ import dk.sosi.seal.model.dombuilders.OIOSAMLAssertionToIDCardRequestDOMBuilder;
 import dk.sosi.seal.model.dombuilders.OIOSAMLAssertionToIDCardResponseDOMBuilder;
 import dk.sosi.seal.modelbuilders.IDCardToOIOSAMLAssertionRequestModelBuilder;
 import dk.sosi.seal.modelbuilders.ModelBuildException;
+import dk.sosi.seal.modelbuilders.ModelPrefixResolver;
+import dk.sosi.seal.pki.CRLCache;
 import dk.sosi.seal.pki.Federation;
+import dk.sosi.seal.pki.InMemoryCRLCache;
+import dk.sosi.seal.pki.OCESCertificateResolver;
+import dk.sosi.seal.pki.PooledSignatureProvider;
 import dk.sosi.seal.pki.SOSITestFederation;
+import dk.sosi.seal.pki.SignatureProvider;
+import dk.sosi.seal.pki.SignatureProviderFactory;
+import dk.sosi.seal.pki.impl.intermediate.HashMapIntermediateCertificateCache;
 import dk.sosi.seal.util.SOSITestUtils;
 import dk.sosi.seal.vault.CredentialVault;
 import dk.sosi.seal.vault.CredentialVaultTestUtil;
+import dk.sosi.seal.xml.CertificateParser;
+import dk.sosi.seal.xml.ElementPath;
+import dk.sosi.seal.xml.RandomSource;
+import dk.sosi.seal.xml.ThreadLocalRandomSource;
 import dk.sosi.seal.xml.XmlUtil;
 import junit.framework.TestCase;
 import org.w3c.dom.Document;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
 import org.w3c.dom.Element;
 
+import javax.security.auth.x500.X500Principal;
 import java.io.*;
+import java.math.BigInteger;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Future;
 
 /**
  * Testcase used solely for performance testing.<br />
@@ -63,6 +85,7 @@ import java.util.Date;
 public class TestPerformance extends TestCase {
 
     private static final int ITERATIONS = Integer.getInteger("dk.sosi.seal.responsetimedivider", 1).intValue();
+    private static final int THREADS = Integer.getInteger("dk.sosi.seal.performance.threads", 8).intValue();
     
     private SOSIFactory sosiFactory;
     private IDCard systemIDCard;
@@ -235,6 +258,235 @@ public class TestPerformance extends TestCase {
         }
     }
 
+    /**
+     * Deserialize an XML SOAP Request with a large body into objects. Measures whether header lookups scale with the size of the body.
+     */
+    public void testDeserializeRequestLargeBody() {
+        String xml = createLargeBodyRequest();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                sosiFactory.deserializeRequest(xml);
+            }
+        } catch (ModelBuildException e) {
+            e.printStackTrace();
+            fail("Couldn't deserialize request");
+        }
+    }
+
+    /**
+     * Deserialize the header of an XML SOAP Request with a large body, leaving the body out of the DOM,
+     * for comparison with {@link #testDeserializeRequestLargeBody()}
+     */
+    public void testDeserializeRequestHeaderFromEnvelopeLargeBody() {
+        String xml = createLargeBodyRequest();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                sosiFactory.deserializeRequestHeaderFromEnvelope(xml);
+            }
+        } catch (ModelBuildException e) {
+            e.printStackTrace();
+            fail("Couldn't deserialize request header");
+        }
+    }
+
+    private String createLargeBodyRequest() {
+        Request request = sosiFactory.createNewRequest(false, "1234abcdef");
+        request.setIDCard(systemIDCard);
+        Document bodyDoc = XmlUtil.createEmptyDocument();
+        Element body = bodyDoc.createElementNS("http://www.example.com/large", "large:Body");
+        for (int i = 0; i < 10000; i++) {
+            Element item = (Element) body.appendChild(bodyDoc.createElementNS("http://www.example.com/large", "large:Item"));
+            item.appendChild(bodyDoc.createTextNode("Item " + i));
+        }
+        request.setBody(body);
+        return XmlUtil.node2String(request.serialize2DOMDocument(), false, false);
+    }
+
+    /**
+     * Deserialize XML SOAP Requests from several threads at once. Measures contention on the shared parser setup.
+     */
+    public void testDeserializeRequestConcurrently() throws Exception {
+        runConcurrently(new Runnable() {
+            public void run() {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    sosiFactory.deserializeRequest(sosiRequest);
+                }
+            }
+        });
+    }
+
+    /**
+     * Check revocation against a large CRL (116k entries) using the provider's <code>X509CRL.isRevoked</code>
+     */
+    public void testCRLIsRevoked() throws Exception {
+        X509CRL crl = loadCRL("ocesNextUpdateInPast.crl");
+        X509Certificate[] certificates = createRevocationCheckCertificates(crl);
+        for (int i = 0; i < ITERATIONS * 100000; i++) {
+            crl.isRevoked(certificates[i % certificates.length]);
+        }
+    }
+
+    /**
+     * Check revocation against a large CRL (116k entries) using the revoked serial index of <code>CRLCache.CRLInfo</code>
+     */
+    public void testCRLIsRevokedIndexed() throws Exception {
+        CRLCache.CRLInfo crlInfo = new InMemoryCRLCache().update("http://crl.example/oces.crl", loadCRL("ocesNextUpdateInPast.crl"));
+        X509Certificate[] certificates = createRevocationCheckCertificates(crlInfo.getCrl());
+        for (int i = 0; i < ITERATIONS * 100000; i++) {
+            crlInfo.isRevoked(certificates[i % certificates.length]);
+        }
+    }
+
+    /**
+     * Resolve the issuer of a freshly parsed OCES2 intermediate certificate, verifying its signature against the root certificates.
+     * Repeated verifications of the same certificate are answered from memoized results.
+     */
+    public void testResolveIssuingCertificate() throws Exception {
+        byte[] intermediateBytes = CredentialVaultTestUtil.readResource("oces2/PP/intermediateCerts/systemtest19-ca.cer");
+        OCESCertificateResolver resolver = new OCESCertificateResolver(new HashMapIntermediateCertificateCache());
+        for (int i = 0; i < ITERATIONS * 1000; i++) {
+            resolver.getIssuingCertificate(CertificateParser.asCertificate(intermediateBytes));
+        }
+    }
+
+    /**
+     * Sign with the system credentials of the vault, as done for every outbound message
+     */
+    public void testSignatureProviderSign() {
+        SignatureProvider provider = SignatureProviderFactory.fromCredentialVault(vault, SignatureUtil.setupCryptoProviderForJVM());
+        byte[] bytes = sosiRequest.getBytes();
+        for (int i = 0; i < ITERATIONS * 100; i++) {
+            provider.sign(bytes);
+        }
+    }
+
+    /**
+     * Sign through a pool of four signing threads, keeping a batch of signatures outstanding as an IdP does under load
+     */
+    public void testPooledSignatureProviderSignAsync() throws Exception {
+        PooledSignatureProvider provider = new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(vault, SignatureUtil.setupCryptoProviderForJVM()), 4);
+        try {
+            byte[] bytes = sosiRequest.getBytes();
+            List<Future<SignatureProvider.SignatureResult>> results = new ArrayList<Future<SignatureProvider.SignatureResult>>();
+            for (int i = 0; i < ITERATIONS * 10; i++) {
+                for (int j = 0; j < 10; j++) {
+                    results.add(provider.signAsync(bytes));
+                }
+                for (Future<SignatureProvider.SignatureResult> result : results) {
+                    result.get();
+                }
+                results.clear();
+            }
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    /**
+     * Validate the signature and trust of a deserialized IDCard
+     */
+    public void testValidateIDCardSignature() {
+        String idCard = XmlUtil.node2String(userIDCard.serialize2DOMDocument(sosiFactory, XmlUtil.createEmptyDocument()));
+        for (int i = 0; i < ITERATIONS * 100; i++) {
+            sosiFactory.deserializeIDCard(idCard).validateSignatureAndTrust(mockFederation);
+        }
+    }
+
+    /**
+     * Validate the signature and trust of a deserialized IDCard, which is sent again and again, with the signature cache enabled
+     */
+    public void testValidateIDCardSignatureCached() {
+        String idCard = XmlUtil.node2String(userIDCard.serialize2DOMDocument(sosiFactory, XmlUtil.createEmptyDocument()));
+        System.setProperty(SOSIFactory.PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE, "1000");
+        try {
+            for (int i = 0; i < ITERATIONS * 100; i++) {
+                sosiFactory.deserializeIDCard(idCard).validateSignatureAndTrust(mockFederation);
+            }
+        } finally {
+            System.clearProperty(SOSIFactory.PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE);
+            SignatureUtil.clearVerifiedSignatures();
+        }
+    }
+
+    /**
+     * Look up the SOAP header and its timestamp in a Reply by XPath, the way the model builders did before
+     * {@link ElementPath}, for comparison with {@link #testSelectElementPath()}
+     */
+    public void testSelectElementXPath() {
+        Document doc = XmlUtil.readXml(System.getProperties(), sosiReply, false);
+        ModelPrefixResolver resolver = new ModelPrefixResolver();
+        for (int i = 0; i < ITERATIONS * 1000; i++) {
+            Element header = XmlUtil.selectSingleElement(doc, "//soapenv:Envelope/soapenv:Header", resolver, true);
+            XmlUtil.selectSingleElement(header, "wsse:Security/wsu:Timestamp/wsu:Created", resolver, true);
+            XmlUtil.selectSingleElement(doc, "//soapenv:Body/soapenv:Fault", resolver, false);
+        }
+    }
+
+    /**
+     * Look up the SOAP header and its timestamp in a Reply using precompiled paths
+     */
+    public void testSelectElementPath() {
+        Document doc = XmlUtil.readXml(System.getProperties(), sosiReply, false);
+        ModelPrefixResolver resolver = new ModelPrefixResolver();
+        ElementPath headerPath = new ElementPath("/soapenv:Envelope/soapenv:Header", resolver);
+        ElementPath createdPath = new ElementPath("wsse:Security/wsu:Timestamp/wsu:Created", resolver);
+        ElementPath faultPath = new ElementPath("/soapenv:Envelope/soapenv:Body/soapenv:Fault", resolver);
+        for (int i = 0; i < ITERATIONS * 1000; i++) {
+            Element header = headerPath.selectSingleElement(doc, true);
+            createdPath.selectSingleElement(header, true);
+            faultPath.selectSingleElement(doc, false);
+        }
+    }
+
+    /**
+     * Parse and format xs:dateTime values the way it was done before XmlUtil got its own codec, for comparison with {@link #testXMLTimeStamps()}
+     */
+    public void testXMLTimeStampsSimpleDateFormat() throws Exception {
+        Date date = new Date();
+        for (int i = 0; i < ITERATIONS * 100000; i++) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH:mm:ss'Z'");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
+            dateFormat.parse(dateFormat.format(date));
+        }
+    }
+
+    /**
+     * Parse and format xs:dateTime values
+     */
+    public void testXMLTimeStamps() {
+        Date date = new Date();
+        for (int i = 0; i < ITERATIONS * 100000; i++) {
+            XmlUtil.parseZuluDateTime(XmlUtil.toXMLTimeStamp(date, true));
+        }
+    }
+
+    /**
+     * Create message IDs and IDCard IDs from several threads at once using the default random source
+     */
+    public void testCreateIDsConcurrently() throws Exception {
+        runConcurrently(new Runnable() {
+            public void run() {
+                for (int i = 0; i < ITERATIONS * 10000; i++) {
+                    XmlUtil.createNonce();
+                    XmlUtil.createGUID();
+                }
+            }
+        });
+    }
+
+    /**
+     * Create message IDs and IDCard IDs from several threads at once using a random generator per thread
+     */
+    public void testCreateIDsConcurrentlyThreadLocal() throws Exception {
+        RandomSource defaultSource = XmlUtil.getRandomSource();
+        XmlUtil.setRandomSource(new ThreadLocalRandomSource());
+        try {
+            testCreateIDsConcurrently();
+        } finally {
+            XmlUtil.setRandomSource(defaultSource);
+        }
+    }
+
     /**
      * Binary serialize and deserialize an IDCard
      */
@@ -441,6 +693,67 @@ public class TestPerformance extends TestCase {
     }
 
 
+    private void runConcurrently(final Runnable task) throws InterruptedException {
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            });
+            threads[i].setName("Performance:" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            failure[0].printStackTrace();
+            fail("Concurrent execution failed: " + failure[0]);
+        }
+    }
+
+    private X509CRL loadCRL(String resource) throws Exception {
+        InputStream inStream = getClass().getClassLoader().getResourceAsStream(resource);
+        try {
+            return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(inStream);
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * Creates a revoked and a non-revoked certificate from the issuer of the CRL.
+     */
+    @SuppressWarnings("deprecation")
+    private X509Certificate[] createRevocationCheckCertificates(X509CRL crl) throws Exception {
+        BigInteger revoked = crl.getRevokedCertificates().iterator().next().getSerialNumber();
+        BigInteger notRevoked = BigInteger.ONE;
+        assertNull(crl.getRevokedCertificate(notRevoked));
+
+        X509Certificate[] certificates = new X509Certificate[2];
+        BigInteger[] serials = new BigInteger[] { revoked, notRevoked };
+        for (int i = 0; i < serials.length; i++) {
+            X509V3CertificateGenerator generator = new X509V3CertificateGenerator();
+            generator.setIssuerDN(crl.getIssuerX500Principal());
+            generator.setSubjectDN(new X500Principal("CN=Revocation check " + i));
+            generator.setSerialNumber(serials[i]);
+            generator.setSignatureAlgorithm("SHA256withRSA");
+            generator.setPublicKey(vault.getSystemCredentialPair().getCertificate().getPublicKey());
+            generator.setNotBefore(new Date());
+            generator.setNotAfter(new Date(System.currentTimeMillis() + 3600000));
+            certificates[i] = generator.generate(vault.getSystemCredentialPair().getPrivateKey());
+        }
+        assertTrue(crl.isRevoked(certificates[0]));
+        assertFalse(crl.isRevoked(certificates[1]));
+        return certificates;
+    }
+
     private void assertOIOSAMLAssertion(OIOSAMLAssertion assertion, UserIDCard idCard) {
         assertEquals("42634739", assertion.getRidNumberIdentifier());
         assertEquals("C=DK,O=TRUST2408,CN=TRUST2408 Systemtest XIX CA", assertion.getCertificateIssuer());
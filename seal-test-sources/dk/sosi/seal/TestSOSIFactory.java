@@ -40,6 +40,7 @@ import dk.sosi.seal.vault.CredentialVaultTestUtil;
 import dk.sosi.seal.vault.EmptyCredentialVault;
 import dk.sosi.seal.vault.GenericCredentialVault;
 import dk.sosi.seal.xml.XmlUtil;
+import dk.sosi.seal.xml.XmlUtilException;
 import junit.framework.TestCase;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -47,6 +48,9 @@ import org.w3c.dom.Node;
 
 import javax.xml.transform.TransformerException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -618,6 +622,78 @@ public class TestSOSIFactory extends TestCase {
 
     }
 
+    public void testAuditEventHandlerIsResolvedOnce() {
+        Properties properties = new Properties();
+        SOSIFactory factory = new SOSIFactory(CredentialVaultTestUtil.getCredentialVault(), properties);
+        AuditEventHandler handler = factory.getAuditEventHandler();
+        assertTrue(handler instanceof NoAuditEventHandler);
+        assertSame(handler, factory.getAuditEventHandler());
+        assertFalse(SOSIFactory.isAuditingEnabled(handler));
+
+        properties.setProperty(SOSIFactory.PROPERTYNAME_SOSI_FEDERATION_AUDITHANDLER, ErrorOnlyAuditEventHandler.class.getName());
+        AuditEventHandler loggingHandler = factory.getAuditEventHandler();
+        assertTrue(loggingHandler instanceof ErrorOnlyAuditEventHandler);
+        assertSame(loggingHandler, factory.getAuditEventHandler());
+        assertTrue(SOSIFactory.isAuditingEnabled(loggingHandler));
+
+        // Handlers are cached per factory and federation, not process-wide
+        assertNotSame(loggingHandler, new SOSIFactory(CredentialVaultTestUtil.getCredentialVault(), properties).getAuditEventHandler());
+        Federation federation = new SOSIFederation(properties);
+        assertNotSame(loggingHandler, federation.getAuditEventHandler());
+        assertSame(federation.getAuditEventHandler(), federation.getAuditEventHandler());
+        assertNotSame(loggingHandler, SOSIFactory.getAuditEventHandler(properties));
+    }
+
+    public void testAuditEventsSentToFactoryHandler() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(SOSIFactory.PROPERTYNAME_SOSI_FEDERATION_AUDITHANDLER, ErrorOnlyAuditEventHandler.class.getName());
+        properties.setProperty(SOSIFactory.PROPERTYNAME_SOSI_VALIDATE, "false");
+        SOSIFactory factory = new SOSIFactory(CredentialVaultTestUtil.getCredentialVault(), properties);
+        ErrorOnlyAuditEventHandler handler = (ErrorOnlyAuditEventHandler) factory.getAuditEventHandler();
+        try {
+            factory.deserializeRequest("<not-xml");
+            fail("XmlUtilException expected");
+        } catch (XmlUtilException e) {
+            // expected
+        }
+        assertEquals(Collections.singletonList(AuditEventHandler.EVENT_TYPE_ERROR_PARSING_SOSI_XML), handler.getInformationalEvents());
+    }
+
+    public void testAuditingEnabledForNoAuditEventHandlerSubclass() {
+        assertFalse(SOSIFactory.isAuditingEnabled(null));
+        // Subclasses may override the callbacks and must still receive events
+        ErrorOnlyAuditEventHandler handler = new ErrorOnlyAuditEventHandler();
+        assertTrue(SOSIFactory.isAuditingEnabled(handler));
+
+        handler.onInformationalAuditingEvent(AuditEventHandler.EVENT_TYPE_INFO_FEDERATION_INITIALIZED, new Object[0]);
+        handler.onErrorAuditingEvent(AuditEventHandler.EVENT_TYPE_ERROR_DOWNLOADING_FULL_CRL, new Object[0]);
+        assertEquals(Collections.singletonList(AuditEventHandler.EVENT_TYPE_ERROR_DOWNLOADING_FULL_CRL), handler.getEvents());
+    }
+
+    public static class ErrorOnlyAuditEventHandler extends NoAuditEventHandler {
+        // Handlers are shared between threads, see SOSIFactory.getAuditEventHandler()
+        private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> informationalEvents = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onInformationalAuditingEvent(String event, Object[] params) {
+            informationalEvents.add(event);
+        }
+
+        @Override
+        public void onErrorAuditingEvent(String event, Object[] params) {
+            events.add(event);
+        }
+
+        public List<String> getEvents() {
+            return events;
+        }
+
+        public List<String> getInformationalEvents() {
+            return informationalEvents;
+        }
+    }
+
     // ===========================
 	//  Private parts
 	// ===========================
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the pooled GZIP compression used for <code>IdentityToken</code> URLs.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class GZIPCodecTest {
+
+    @Test
+    public void testCompressMatchesGZIPOutputStream() throws Exception {
+        for (byte[] data : testData()) {
+            byte[] expected = gzip(data);
+            // The OS header field written by GZIPOutputStream differs between Java versions
+            expected[9] = 0;
+            assertArrayEquals(expected, GZIPCodec.compress(data));
+            // Twice, to exercise the pooled Deflater
+            assertArrayEquals(expected, GZIPCodec.compress(data));
+        }
+    }
+
+    @Test
+    public void testDecompress() throws Exception {
+        for (byte[] data : testData()) {
+            assertArrayEquals(data, readFully(GZIPCodec.decompress(gzip(data))));
+            assertArrayEquals(data, readFully(new GZIPInputStream(new ByteArrayInputStream(GZIPCodec.compress(data)))));
+        }
+    }
+
+    @Test
+    public void testMoreStreamsThanPooled() throws Exception {
+        byte[] data = "<saml:Assertion/>".getBytes("UTF-8");
+        byte[] compressed = gzip(data);
+
+        // Closing the surplus streams ends their Inflaters instead of pooling them
+        InputStream[] streams = new InputStream[10];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = GZIPCodec.decompress(compressed);
+        }
+        for (InputStream stream : streams) {
+            assertArrayEquals(data, readFully(stream));
+        }
+        for (int i = 0; i < streams.length; i++) {
+            assertArrayEquals(data, readFully(GZIPCodec.decompress(compressed)));
+        }
+    }
+
+    @Test
+    public void testDecompressOptionalHeaderFields() throws Exception {
+        byte[] data = "<saml:Assertion/>".getBytes("UTF-8");
+        byte[] plain = gzip(data);
+
+        // FEXTRA with two bytes, FNAME "a" and FCOMMENT "b"
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(plain, 0, 3);
+        bos.write(4 | 8 | 16);
+        bos.write(plain, 4, 6);
+        bos.write(new byte[] { 2, 0, 'x', 'y', 'a', 0, 'b', 0 });
+        bos.write(plain, 10, plain.length - 10);
+
+        assertArrayEquals(data, readFully(GZIPCodec.decompress(bos.toByteArray())));
+    }
+
+    @Test
+    public void testDecompressInvalid() throws Exception {
+        byte[] compressed = gzip("<saml:Assertion/>".getBytes("UTF-8"));
+
+        try {
+            GZIPCodec.decompress("<saml:Assertion/>".getBytes("UTF-8"));
+            fail("Expected ZipException");
+        } catch (ZipException e) {
+            assertEquals("Not in GZIP format", e.getMessage());
+        }
+
+        byte[] truncated = new byte[compressed.length - 4];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        try {
+            readFully(GZIPCodec.decompress(truncated));
+            fail("Expected EOFException");
+        } catch (EOFException e) {
+            // Expected
+        }
+
+        byte[] corrupt = compressed.clone();
+        corrupt[corrupt.length - 5]++;
+        try {
+            readFully(GZIPCodec.decompress(corrupt));
+            fail("Expected ZipException");
+        } catch (ZipException e) {
+            assertEquals("Corrupt GZIP trailer", e.getMessage());
+        }
+    }
+
+    private static byte[][] testData() throws Exception {
+        byte[] random = new byte[100000];
+        new Random(42).nextBytes(random);
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            xml.append("<saml:Attribute Name=\"attribute").append(i).append("\">\u00e6\u00f8\u00e5</saml:Attribute>");
+        }
+        return new byte[][] { new byte[0], "<saml:Assertion/>".getBytes("UTF-8"), xml.toString().getBytes("UTF-8"), random };
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bos);
+        out.write(data);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                bos.write(buffer, 0, bytesRead);
+            }
+            return bos.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
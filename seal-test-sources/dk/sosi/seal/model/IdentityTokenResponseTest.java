@@ -31,6 +31,7 @@ package dk.sosi.seal.model;
 
 import dk.sosi.seal.model.dombuilders.IdentityTokenResponseDOMBuilder;
 import dk.sosi.seal.modelbuilders.IdentityTokenResponseModelBuilder;
+import dk.sosi.seal.modelbuilders.ModelBuildException;
 import dk.sosi.seal.xml.XmlUtil;
 import org.junit.Test;
 import org.w3c.dom.Document;
@@ -93,6 +94,37 @@ public class IdentityTokenResponseTest extends AbstractModelTest {
         assertEquals("Authentication failed: Token in request signed by untrusted party", itr.getFaultString());
     }
 
+    @Test
+    public void testBuildFromString() throws Exception {
+        IdentityTokenResponseModelBuilder itrmb = new IdentityTokenResponseModelBuilder();
+        IdentityTokenResponse itr = itrmb.build(getFileContents("OIO WS-Trust response.template"));
+
+        assertEquals("Context", "urn:uuid:00000", itr.getContext());
+        assertEquals("CPR", EXPECTED_CPR, itr.getIdentityToken().getCpr());
+
+        IdentityToken it = createIdentityToken();
+        IdentityTokenResponseDOMBuilder itrb = new IdentityTokenResponseDOMBuilder();
+        itrb.setContext("urn:uuid:00000");
+        itrb.setIdentityToken(it);
+        itrb.setRelatesTo("urn:uuid:99999999-0000-0000");
+
+        // Validating while parsing must leave the signed token untouched
+        itr = itrmb.build(XmlUtil.node2String(itrb.build()));
+        assertEquals(XmlUtil.node2String(it.getDOM()), XmlUtil.node2String(itr.getIdentityToken().getDOM()));
+    }
+
+    @Test
+    public void testBuildFromInvalidString() throws Exception {
+        String xml = getFileContents("OIO WS-Trust response.template").replace("wst:TokenType", "wst:TokenKind");
+
+        try {
+            new IdentityTokenResponseModelBuilder().build(xml);
+            fail();
+        } catch (ModelBuildException e) {
+            assertEquals("Error validating IdentityTokenResponse", e.getMessage());
+        }
+    }
+
     private String getFileContents(String filename) throws Exception {
         InputStream stream = getClass().getResourceAsStream("/idwsh-examples/" + filename);
 
@@ -118,22 +150,9 @@ public class IdentityTokenResponseTest extends AbstractModelTest {
 
     @Test
     public void testSignatureTampering() {
-        UserIDCard uidc = createUserIDCard();
-
-        IdentityTokenBuilder itb = new IdentityTokenBuilder(sosiFactory.getCredentialVault());
-        itb.setAudienceRestriction("http://fmk-online.dk");
-        itb.setIssuer("http://pan.certifikat.dk/sts/services/SecurityTokenService");
-        itb.setNotBefore(d(-2));
-        itb.setNotOnOrAfter(d(6));
-        itb.setUserIdCard(uidc);
-        itb.requireCertificateAsReference();
-        itb.requireOrganizationName();
-        itb.requireCvrNumberIdentifier();
-        itb.requireCprNumber();
-
         IdentityTokenResponseDOMBuilder itrb = new IdentityTokenResponseDOMBuilder();
         itrb.setContext("urn:uuid:00000");
-        itrb.setIdentityToken(itb.build());
+        itrb.setIdentityToken(createIdentityToken());
         itrb.setRelatesTo("urn:uuid:99999999-0000-0000");
 
         Document identityTokenDoc = itrb.build();
@@ -153,4 +172,20 @@ public class IdentityTokenResponseTest extends AbstractModelTest {
 
     }
 
-}
\ No newline at end of file
+    private IdentityToken createIdentityToken() {
+        UserIDCard uidc = createUserIDCard();
+
+        IdentityTokenBuilder itb = new IdentityTokenBuilder(sosiFactory.getCredentialVault());
+        itb.setAudienceRestriction("http://fmk-online.dk");
+        itb.setIssuer("http://pan.certifikat.dk/sts/services/SecurityTokenService");
+        itb.setNotBefore(d(-2));
+        itb.setNotOnOrAfter(d(6));
+        itb.setUserIdCard(uidc);
+        itb.requireCertificateAsReference();
+        itb.requireOrganizationName();
+        itb.requireCvrNumberIdentifier();
+        itb.requireCprNumber();
+        return itb.build();
+    }
+
+}
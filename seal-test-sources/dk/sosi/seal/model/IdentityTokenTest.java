@@ -29,6 +29,8 @@
 
 package dk.sosi.seal.model;
 
+import dk.sosi.seal.model.constants.HealthcareSAMLAttributes;
+import dk.sosi.seal.model.constants.OIOSAMLAttributes;
 import dk.sosi.seal.model.constants.SAMLTags;
 import dk.sosi.seal.xml.XmlUtil;
 import org.junit.Test;
@@ -38,6 +40,7 @@ import org.w3c.dom.Element;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Date;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -93,6 +96,28 @@ public class IdentityTokenTest extends AbstractModelTest {
         assertEquals("UserAuthenticationInstant", XmlUtil.toXMLTimeStamp(userIDCard.getCreatedDate(), true), XmlUtil.toXMLTimeStamp(it.getUserAuthenticationInstant(), true));
     }
 
+    @Test
+    public void testAttributes() {
+        IdentityToken it = createIdentityToken(true, true, true, true, true, true, true, createUserIDCard());
+
+        Map<String, String> attributes = it.getAttributes();
+        assertEquals("CPR", EXPECTED_CPR, attributes.get(OIOSAMLAttributes.CPR_NUMBER));
+        assertEquals("Email", EXPECTED_EMAIL, attributes.get(OIOSAMLAttributes.EMAIL));
+        assertEquals("ITSystemName", EXPECTED_ITSYSTEMNAME, attributes.get(HealthcareSAMLAttributes.IT_SYSTEM_NAME));
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            assertEquals(attribute.getKey(), attribute.getValue(), it.getAttribute(attribute.getKey()));
+        }
+        assertNull(it.getAttribute("dk:gov:saml:attribute:NoSuchAttribute"));
+        assertSame(attributes, it.getAttributes());
+
+        try {
+            attributes.put(OIOSAMLAttributes.CPR_NUMBER, "0101010101");
+            fail("Attribute map should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
     @Test
     public void testDeflation() throws Exception {
         IdentityToken it_original = createIdentityToken(true, true, true, true, false, false, false, createUserIDCard());
@@ -48,6 +48,7 @@ import org.xml.sax.SAXParseException;
 
 import java.io.*;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -376,6 +377,30 @@ public class TestMessages extends TestCase {
 		}
 	}
 
+	public void testWriteTo() throws Exception {
+		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+		Request request = factory.createNewRequest(false, "flow");
+		CareProvider careProvider = new CareProvider(SubjectIdentifierTypeValues.CVR_NUMBER, "orgCVR", "ØøÅåæÆ");
+		request.setIDCard(factory.createNewSystemIDCard("SOSITEST", careProvider, AuthenticationLevel.VOCES_TRUSTED_SYSTEM,
+				null, null, factory.getCredentialVault().getSystemCredentialPair().getCertificate(), null));
+		Element body = XmlUtil.createEmptyDocument().createElementNS("http://www.sosi.dk/test", "test:Body");
+		body.appendChild(body.getOwnerDocument().createTextNode("Æblegrød"));
+		request.setBody(body);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		request.writeTo(out);
+		String xml = XmlUtil.node2String(request.serialize2DOMDocument(), false, true);
+		assertTrue(Arrays.equals(xml.getBytes("UTF-8"), out.toByteArray()));
+
+		out = new ByteArrayOutputStream();
+		request.writeTo(out, false);
+		assertEquals(XmlUtil.node2String(request.serialize2DOMDocument(), false, false), out.toString("UTF-8"));
+
+		Request deserialized = factory.deserializeRequest(out.toString("UTF-8"));
+		assertEquals(request.getMessageID(), deserialized.getMessageID());
+		deserialized.getIDCard().validateSignature();
+	}
+
 	public void testSystemIDCardBinarySerialization() throws Exception {
 		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
 		SecurityTokenRequest req = factory.createNewSecurityTokenRequest();
@@ -34,8 +34,13 @@ import dk.sosi.seal.model.dombuilders.DOMBuilderException;
 import dk.sosi.seal.modelbuilders.ModelBuildException;
 import dk.sosi.seal.modelbuilders.ModelPrefixResolver;
 import dk.sosi.seal.modelbuilders.SignatureInvalidModelBuildException;
+import dk.sosi.seal.pki.AuditEventHandler;
 import dk.sosi.seal.pki.CredentialVaultSignatureProvider;
 import dk.sosi.seal.pki.Federation;
+import dk.sosi.seal.pki.NoAuditEventHandler;
+import dk.sosi.seal.pki.PooledSignatureProvider;
+import dk.sosi.seal.pki.SignatureCallback;
+import dk.sosi.seal.pki.SignatureFuture;
 import dk.sosi.seal.pki.SOSITestFederation;
 import dk.sosi.seal.pki.impl.HashMapCertificateCache;
 import dk.sosi.seal.vault.CredentialVault;
@@ -53,6 +58,9 @@ import org.w3c.dom.NodeList;
 import java.security.*;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test the model package
@@ -760,6 +768,55 @@ public class TestModel extends TestCase {
         assertEquals(unsignedIdCard.getUserInfo().getCPR(), signedIdCard.getUserInfo().getCPR());
 	}
 
+    public void testCopyMocesIDCardAsync() throws Exception {
+        SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+        Request req1 = createRequestMOCES(factory, false, "testflow");
+        UserIDCard unsignedIdCard = (UserIDCard) req1.getIDCard();
+        unsignedIdCard.signAsync(req1.serialize2DOMDocument(), factory.getSignatureProvider()).get();
+        assertNotNull(unsignedIdCard.getSignedByCertificate());
+
+        PooledSignatureProvider provider = new PooledSignatureProvider(factory.getSignatureProvider(), 2);
+        try {
+            SOSIFactory pooledFactory = new SOSIFactory(factory.getFederation(), provider, SignatureUtil.setupCryptoProviderForJVM());
+            final List<IDCard> signedCards = Collections.synchronizedList(new ArrayList<IDCard>());
+            final CountDownLatch completed = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                pooledFactory.copyToVOCESSignedIDCardAsync(unsignedIdCard, false).addCallback(new SignatureCallback<IDCard>() {
+                    public void signed(IDCard result) {
+                        signedCards.add(result);
+                        completed.countDown();
+                    }
+
+                    public void failed(Throwable cause) {
+                        completed.countDown();
+                    }
+                });
+            }
+            // The copies are complete without anybody calling get()
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            assertEquals(4, signedCards.size());
+            for (IDCard card : signedCards) {
+                UserIDCard signedIdCard = (UserIDCard) card;
+
+                // Check that the copy is VOCES signed, but has authentication level 4
+                assertEquals(AuthenticationLevel.MOCES_TRUSTED_USER, signedIdCard.getAuthenticationLevel());
+                assertFalse(signedIdCard.needsSignature);
+                assertEquals(IDCard.SIGNED, signedIdCard.lastDOMOperation);
+                assertEquals(unsignedIdCard.getUserInfo().getCPR(), signedIdCard.getUserInfo().getCPR());
+
+                NodeList signatures = signedIdCard.domElement.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.SIGNATURE);
+                assertEquals(1, signatures.getLength());
+                assertTrue(SignatureUtil.validate(signatures.item(0), null, null, false));
+            }
+
+            // get() hands out the same card
+            SignatureFuture<IDCard> copy = pooledFactory.copyToVOCESSignedIDCardAsync(unsignedIdCard, false);
+            assertSame(copy.get(), copy.get());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
     public void testCopyMocesIDCardOverwriteCpr() {
         SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
         Request req1 = createRequestMOCES(factory, false, "testflow");
@@ -1435,6 +1492,57 @@ public class TestModel extends TestCase {
 		assertEquals(request.isDemandNonRepudiationReceipt(), header.isDemandNonRepudiationReceipt());
 	}
 
+	public void testDeserializeRequestHeaderFromEnvelope() throws Exception {
+		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+
+		Request request = createRequestVOCES(factory, true, "1234", true);
+		Document bodyDoc = XmlUtil.createEmptyDocument();
+		Element bodyElement = bodyDoc.createElement("SomeXML");
+		bodyElement.appendChild(bodyDoc.createElement("SomeNestedXML")).appendChild(bodyDoc.createTextNode("</soapenv:Body>"));
+		request.setBody(bodyElement);
+		String xml = XmlUtil.node2String(request.serialize2DOMDocument(), false, true);
+
+		RequestHeaderWithBody header = factory.deserializeRequestHeaderFromEnvelope(xml);
+
+		assertEquals(request.getIDCard(), header.getIDCard());
+		assertEquals(request.getMessageID(), header.getMessageID());
+		assertEquals(request.getFlowID(), header.getFlowID());
+		assertEquals(request.isDemandNonRepudiationReceipt(), header.isDemandNonRepudiationReceipt());
+		assertEquals(0, header.getDocument().getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, "Body").item(0).getChildNodes().getLength());
+		assertTrue(xml.contains(header.getBodyContent()));
+		assertTrue(header.getBodyContent().startsWith("<SomeXML"));
+		assertTrue(header.getBodyContent().endsWith("</SomeXML>"));
+		assertNull(XmlUtil.deepDiff(bodyElement, header.getBody()));
+	}
+
+	public void testRequestHeaderBodyParsedWithFactoryProperties() throws Exception {
+		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+		Request request = createRequestVOCES(factory, true, "1234", true);
+		Document bodyDoc = XmlUtil.createEmptyDocument();
+		request.setBody(bodyDoc.createElement("SomeXML"));
+		String xml = XmlUtil.node2String(request.serialize2DOMDocument(), false, true);
+		RequestHeaderWithBody header = factory.deserializeRequestHeaderFromEnvelope(xml);
+
+		factory.getProperties().setProperty(SOSIFactory.PROPERTYNAME_SOSI_FEDERATION_AUDITHANDLER, ParseCountingAuditEventHandler.class.getName());
+		int parsed = ParseCountingAuditEventHandler.PARSED.get();
+		Element body = header.getBody();
+		assertEquals("SomeXML", body.getLocalName());
+		assertEquals(parsed + 1, ParseCountingAuditEventHandler.PARSED.get());
+		assertSame(body, header.getBody());
+		assertEquals(parsed + 1, ParseCountingAuditEventHandler.PARSED.get());
+	}
+
+	public static class ParseCountingAuditEventHandler extends NoAuditEventHandler {
+		static final AtomicInteger PARSED = new AtomicInteger();
+
+		@Override
+		public void onInformationalAuditingEvent(String event, Object[] params) {
+			if (AuditEventHandler.EVENT_TYPE_INFO_SOSI_XML_VALIDATED.equals(event)) {
+				PARSED.incrementAndGet();
+			}
+		}
+	}
+
 	public void testDeserializeReplyHeader() throws Exception {
 		if (System.getProperty("java.specification.version").equals("1.4")) {
 			System.out.println("'testDeserializeReplyHeader' disabled on jdk 1.4 due to insufficient handling of namespaces in the version of Xalan shipped with the jdk.");
@@ -1485,6 +1593,123 @@ public class TestModel extends TestCase {
 		assertFalse(deserializedRequest.isDemandNonRepudiationReceipt());
 	}
 
+	public void testIDCardOutsideSecurityHeaderRejected() throws Exception {
+		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+		Request request = createRequestNoAuth(factory, false, null, false);
+		Document doc = request.serialize2DOMDocument();
+
+		// Move the IDCard from wsse:Security into the soap:Body
+		Node assertion = doc.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ASSERTION).item(0);
+		assertion.getParentNode().removeChild(assertion);
+		Node body = doc.getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, SOAPTags.BODY_UNPREFIXED).item(0);
+		body.appendChild(assertion);
+
+		try {
+			factory.deserializeRequest(XmlUtil.node2String(doc));
+			fail("IDCard in soap:Body should not be accepted on a Request");
+		} catch (ModelBuildException e) {
+			assertEquals("No IDCard present in Request", e.getMessage());
+		}
+	}
+
+	public void testIDCardInSecurityTokenBody() throws Exception {
+		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+		SecurityTokenRequest request = factory.createNewSecurityTokenRequest();
+		request.setIDCard(createNewSystemIdCard(factory, AuthenticationLevel.NO_AUTHENTICATION));
+		SecurityTokenRequest deserializedRequest = factory.deserializeSecurityTokenRequest(XmlUtil.node2String(request.serialize2DOMDocument()));
+		assertEquals(request.getIDCard(), deserializedRequest.getIDCard());
+
+		SecurityTokenResponse response = factory.createNewSecurityTokenResponse(request);
+		response.setIDCard(createNewUserIdCard(factory, AuthenticationLevel.NO_AUTHENTICATION, null, "0123456789"));
+		SecurityTokenResponse deserializedResponse = factory.deserializeSecurityTokenResponse(XmlUtil.node2String(response.serialize2DOMDocument()));
+		assertEquals(response.getIDCard(), deserializedResponse.getIDCard());
+	}
+
+	public void testWrappedIDCardCopyRejected() throws Exception {
+		Properties props = SignatureUtil.setupCryptoProviderForJVM();
+		props.put(SOSIFactory.PROPERTYNAME_SOSI_VALIDATE, "false");
+		props.put(SOSIFactory.PROPERTYNAME_SOSI_ISSUER, "SOSI");
+		SOSIFactory factory = new SOSIFactory(CredentialVaultTestUtil.getCredentialVault(), props);
+		Request request = createRequestVOCES(factory, false, "flowID", false);
+		Document doc = request.serialize2DOMDocument();
+
+		// Put an unsigned copy of the signed IDCard in a header before wsse:Security
+		Element assertion = (Element) doc.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ASSERTION).item(0);
+		Element copy = (Element) assertion.cloneNode(true);
+		Node copySignature = copy.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.SIGNATURE).item(0);
+		copy.removeChild(copySignature);
+		String namespace = "http://foo/1.1";
+		Element wrapper = doc.createElementNS(namespace, "foo:wrapper");
+		wrapper.setAttributeNS(NameSpaces.XMLNS_SCHEMA, "xmlns:foo", namespace);
+		wrapper.appendChild(copy);
+		Node security = doc.getElementsByTagNameNS(NameSpaces.WSSE_SCHEMA, WSSETags.SECURITY).item(0);
+		security.getParentNode().insertBefore(wrapper, security);
+
+		// and alter the signed IDCard
+		NodeList attributes = assertion.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, "Attribute");
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Element attribute = (Element) attributes.item(i);
+			if (MedcomAttributes.IT_SYSTEM_NAME.equals(attribute.getAttribute("Name"))) {
+				attribute.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, "AttributeValue").item(0).setTextContent("EVIL-SYSTEM");
+			}
+		}
+
+		try {
+			Request deserializedRequest = factory.deserializeRequest(XmlUtil.node2String(doc, false, true));
+			fail("Wrapped IDCard accepted with IT system " + ((SystemIDCard) deserializedRequest.getIDCard()).getSystemInfo().getITSystemName());
+		} catch (ModelBuildException e) {
+			// Expected
+		}
+	}
+
+	public void testSecondIDCardRejected() throws Exception {
+		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+		Request request = createRequestNoAuth(factory, false, null, false);
+		Document doc = request.serialize2DOMDocument();
+
+		// A copy of the IDCard in the soap:Body
+		Node assertion = doc.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, SAMLTags.ASSERTION).item(0);
+		Node body = doc.getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, SOAPTags.BODY_UNPREFIXED).item(0);
+		body.appendChild(assertion.cloneNode(true));
+
+		try {
+			factory.deserializeRequest(XmlUtil.node2String(doc));
+			fail("Two IDCards should not be accepted");
+		} catch (ModelBuildException e) {
+			assertEquals("More than one element with id IDCard present", e.getMessage());
+		}
+	}
+
+	public void testNonSOSIHeadersAreNotSearched() throws Exception {
+		SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+		Request request = createRequestNoAuth(factory, false, "flowID", false);
+		Document doc = request.serialize2DOMDocument();
+
+		// A foreign header carrying its own medcom:Linking must be kept as is and not be read as the SOSI header
+		String namespace = "http://foo/1.1";
+		Element foreign = doc.createElementNS(namespace, "foo:whatever");
+		foreign.setAttributeNS(NameSpaces.XMLNS_SCHEMA, "xmlns:foo", namespace);
+		foreign.setAttributeNS(NameSpaces.XMLNS_SCHEMA, "xmlns:" + NameSpaces.NS_MEDCOM, NameSpaces.MEDCOM_SCHEMA);
+		Element linking = doc.createElementNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.LINKING_PREFIXED);
+		Element flowID = doc.createElementNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.FLOW_ID_PREFIXED);
+		flowID.appendChild(doc.createTextNode("foreignFlowID"));
+		Element messageID = doc.createElementNS(NameSpaces.MEDCOM_SCHEMA, MedComTags.MESSAGE_ID_PREFIXED);
+		messageID.appendChild(doc.createTextNode("foreignMessageID"));
+		linking.appendChild(flowID);
+		linking.appendChild(messageID);
+		foreign.appendChild(linking);
+		Node header = doc.getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, SOAPTags.HEADER_UNPREFIXED).item(0);
+		header.appendChild(foreign);
+
+		Request deserializedRequest = factory.deserializeRequest(XmlUtil.node2String(doc));
+		assertEquals(request.getMessageID(), deserializedRequest.getMessageID());
+		assertEquals("flowID", deserializedRequest.getFlowID());
+		assertEquals(1, deserializedRequest.getNonSOSIHeaders().size());
+		Element deserializedHeader = deserializedRequest.getNonSOSIHeaders().get(0);
+		assertEquals(namespace, deserializedHeader.getNamespaceURI());
+		assertEquals("whatever", deserializedHeader.getLocalName());
+	}
+
     public void __testCertificateReference() {
         CredentialVault credentialVault = CredentialVaultTestUtil.getVocesCredentialVault();
         System.out.println(credentialVault.getSystemCredentialPair().getCertificate());
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.model;
+
+import dk.sosi.seal.SOSIFactory;
+import dk.sosi.seal.model.constants.SubjectIdentifierTypeValues;
+import dk.sosi.seal.vault.CredentialVaultTestUtil;
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Tests the schema registry in SchemaUtil
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class TestSchemaUtil extends TestCase {
+
+    public void testSchemaIsShared() throws Exception {
+        assertSame(SchemaUtil.getSchema(SchemaUtil.OIOSAML_SCHEMA), SchemaUtil.getSchema(SchemaUtil.OIOSAML_SCHEMA));
+        assertNotSame(SchemaUtil.getSchema(SchemaUtil.OIOSAML_SCHEMA), SchemaUtil.getSchema(SchemaUtil.IDENTITY_TOKEN_SCHEMA));
+    }
+
+    public void testPreload() throws Exception {
+        SchemaUtil.preload();
+        try {
+            SchemaUtil.preload("/no-such-schema.xsd");
+            fail("Missing schema preloaded");
+        } catch (SAXException e) {
+            assertEquals("Schema '/no-such-schema.xsd' not found on classpath", e.getMessage());
+        }
+    }
+
+    public void testValidate() throws Exception {
+        SOSIFactory factory = CredentialVaultTestUtil.createSOSIFactory();
+        Request request = factory.createNewRequest(false, "flow");
+        request.setIDCard(factory.createNewSystemIDCard("SOSITEST", new CareProvider(SubjectIdentifierTypeValues.CVR_NUMBER, "orgCVR", "orgName"),
+                AuthenticationLevel.VOCES_TRUSTED_SYSTEM, null, null, factory.getCredentialVault().getSystemCredentialPair().getCertificate(), null));
+        Document valid = request.serialize2DOMDocument();
+        Document invalid = request.serialize2DOMDocument();
+        invalid.getDocumentElement().appendChild(invalid.createElementNS("urn:unknown", "unknown"));
+
+        SchemaUtil.validate(SchemaUtil.SOAP_SPECIALIZED_SCHEMA, valid);
+        try {
+            SchemaUtil.validate(SchemaUtil.SOAP_SPECIALIZED_SCHEMA, invalid);
+            fail("Invalid document validated");
+        } catch (SAXException e) {
+            // expected
+        }
+        // the pooled validator is reusable after a failed validation
+        SchemaUtil.validate(SchemaUtil.SOAP_SPECIALIZED_SCHEMA, valid);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.model;
+
+import dk.sosi.seal.SOSIFactory;
+import dk.sosi.seal.model.constants.DSTags;
+import dk.sosi.seal.model.constants.NameSpaces;
+import dk.sosi.seal.model.constants.SubjectIdentifierTypeValues;
+import dk.sosi.seal.pki.Federation;
+import dk.sosi.seal.pki.SOSIFederation;
+import dk.sosi.seal.pki.SOSITestFederation;
+import dk.sosi.seal.vault.CredentialVault;
+import dk.sosi.seal.vault.CredentialVaultTestUtil;
+import dk.sosi.seal.xml.XmlUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the cache of validated signatures used by {@link SignatureUtil#validate}.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class VerifiedSignatureCacheTest {
+
+    private CredentialVault vault;
+    private SOSIFactory sosiFactory;
+    private Federation federation;
+
+    @Before
+    public void setUp() {
+        System.setProperty(SOSIFactory.PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE, "2");
+        SignatureUtil.clearVerifiedSignatures();
+        vault = CredentialVaultTestUtil.getVocesCredentialVault();
+        sosiFactory = new SOSIFactory(vault, System.getProperties());
+        federation = new SOSITestFederation(System.getProperties()) {
+            @Override
+            public boolean isValidSTSCertificate(X509Certificate certificate) {
+                return vault.getSystemCredentialPair().getCertificate().equals(certificate);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(SOSIFactory.PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE);
+        SignatureUtil.clearVerifiedSignatures();
+    }
+
+    @Test
+    public void testRepeatedValidationIsCached() {
+        String idCard = createSignedUserIDCard();
+        sosiFactory.deserializeIDCard(idCard).validateSignature();
+        assertEquals(1, SignatureUtil.VERIFIED_SIGNATURES.size());
+        sosiFactory.deserializeIDCard(idCard).validateSignature();
+        sosiFactory.deserializeIDCard(idCard).validateSignatureAndTrust(federation);
+        assertEquals(1, SignatureUtil.VERIFIED_SIGNATURES.size());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        System.clearProperty(SOSIFactory.PROPERTYNAME_SOSI_SIGNATURE_CACHE_SIZE);
+        sosiFactory.deserializeIDCard(createSignedUserIDCard()).validateSignature();
+        assertEquals(0, SignatureUtil.VERIFIED_SIGNATURES.size());
+    }
+
+    @Test
+    public void testModifiedAssertionIsValidatedAgain() {
+        String idCard = createSignedUserIDCard();
+        sosiFactory.deserializeIDCard(idCard).validateSignature();
+        try {
+            sosiFactory.deserializeIDCard(idCard.replace("Dampf", "Dumpf")).validateSignature();
+            fail("Modified IDCard validated");
+        } catch (ModelException e) {
+            assertEquals("Signature on IdCard could not be validated", e.getMessage());
+        }
+        assertEquals(1, SignatureUtil.VERIFIED_SIGNATURES.size());
+    }
+
+    @Test
+    public void testTrustIsCheckedForOtherFederation() {
+        String idCard = createSignedUserIDCard();
+        sosiFactory.deserializeIDCard(idCard).validateSignatureAndTrust(federation);
+        try {
+            sosiFactory.deserializeIDCard(idCard).validateSignatureAndTrust(new SOSIFederation(System.getProperties()));
+            fail("Untrusted IDCard validated");
+        } catch (ModelException e) {
+            assertEquals("The certificate that signed the security token is not trusted!", e.getMessage());
+        }
+        try {
+            sosiFactory.deserializeIDCard(idCard).validateSignatureAndTrust(CredentialVaultTestUtil.getOCES2CredentialVault());
+            fail("Untrusted IDCard validated");
+        } catch (ModelException e) {
+            assertEquals("The certificate that signed the security token is not trusted!", e.getMessage());
+        }
+        sosiFactory.deserializeIDCard(idCard).validateSignatureAndTrust(vault);
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        for (int i = 0; i < 5; i++) {
+            sosiFactory.deserializeIDCard(createSignedUserIDCard()).validateSignature();
+            assertTrue(SignatureUtil.VERIFIED_SIGNATURES.size() <= 2);
+        }
+    }
+
+    @Test
+    public void testWrappedCopyIsNotCached() {
+        String idCard = createSignedUserIDCard();
+        Element signed = XmlUtil.readXml(System.getProperties(), idCard, false).getDocumentElement();
+        assertTrue(SignatureUtil.validate(getSignature(signed), null, vault, false));
+        assertEquals(1, SignatureUtil.VERIFIED_SIGNATURES.size());
+
+        // The validated assertion next to an unsigned copy must neither hit the cache nor validate
+        Element assertion = wrapWithUnsignedCopy(idCard);
+        assertNull(VerifiedSignatureCache.getCacheKey(getSignature(assertion)));
+        assertFalse(SignatureUtil.validate(getSignature(assertion), null, vault, false));
+
+        // nor may the copy stand in for an altered assertion
+        assertion = wrapWithUnsignedCopy(idCard.replace("Dampf", "Dumpf"));
+        assertNull(VerifiedSignatureCache.getCacheKey(getSignature(assertion)));
+        assertFalse(SignatureUtil.validate(getSignature(assertion), null, vault, false));
+        assertEquals(1, SignatureUtil.VERIFIED_SIGNATURES.size());
+    }
+
+    private Element wrapWithUnsignedCopy(String idCard) {
+        Document doc = XmlUtil.createEmptyDocument();
+        Element root = doc.createElementNS(null, "root");
+        doc.appendChild(root);
+        Element assertion = (Element) doc.importNode(XmlUtil.readXml(System.getProperties(), idCard, false).getDocumentElement(), true);
+        Element copy = (Element) assertion.cloneNode(true);
+        copy.removeChild(getSignature(copy));
+        root.appendChild(copy);
+        root.appendChild(assertion);
+        return assertion;
+    }
+
+    private Element getSignature(Element assertion) {
+        return (Element) assertion.getElementsByTagNameNS(NameSpaces.DSIG_SCHEMA, DSTags.SIGNATURE).item(0);
+    }
+
+    private String createSignedUserIDCard() {
+        CareProvider careProvider = new CareProvider(SubjectIdentifierTypeValues.CVR_NUMBER, "12345", "Pelles Pølsefabrik");
+        UserInfo userInfo = new UserInfo("1111111118", "Hans", "Dampf", null, null, "pølsemager", null);
+        UserIDCard userIDCard = sosiFactory.createNewUserIDCard("IT-System", userInfo, careProvider, AuthenticationLevel.MOCES_TRUSTED_USER, null, null, null, null);
+        Request tmpRequest = sosiFactory.createNewRequest(false, "flow");
+        tmpRequest.setIDCard(userIDCard);
+        userIDCard.sign(tmpRequest.serialize2DOMDocument(), sosiFactory.getSignatureProvider());
+        Element serializedIDCard = userIDCard.serialize2DOMDocument(sosiFactory, XmlUtil.createEmptyDocument());
+        return XmlUtil.node2String(serializedIDCard);
+    }
+}
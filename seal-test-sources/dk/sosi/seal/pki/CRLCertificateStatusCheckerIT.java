@@ -32,17 +32,33 @@ import dk.sosi.seal.pki.impl.intermediate.HashMapIntermediateCertificateCache;
 import dk.sosi.seal.vault.CredentialVaultTestUtil;
 import dk.sosi.seal.vault.renewal.KeyGenerator;
 import dk.sosi.seal.xml.CertificateParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import junit.framework.TestCase;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.varia.NullAppender;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.x509.X509V2CRLGenerator;
 
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.cert.*;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CRLCertificateStatusCheckerIT extends TestCase {
 
@@ -227,6 +243,379 @@ public class CRLCertificateStatusCheckerIT extends TestCase {
         assertTrue(loaded.get());
     }
 
+    public void testConcurrentCallersShareDownload() throws Exception {
+        final int threads = 8;
+        final AtomicInteger loads = new AtomicInteger();
+
+        final CRLCertificateStatusChecker statusChecker = new CRLCertificateStatusChecker(cache(), CRLCertificateStatusChecker.ALWAYS, true, CRLCertificateStatusChecker.NEVER, resolver()) {
+            @Override
+            protected CRLCache.CRLInfo load(String url, CRLCache.CRLInfo crlInfo) throws IOException {
+                loads.incrementAndGet();
+                // hold the download until all other callers are waiting for it
+                long deadline = System.currentTimeMillis() + 10000;
+                while (getCoalescedDownloadCount() < threads - 1 && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                return loadCRL("ocesNextUpdateInPast.crl");
+            }
+
+            @Override
+            protected boolean verify(X509CRL crl, X509Certificate cert) {
+                return true;
+            }
+        };
+
+        final X509Certificate cert = loadCertificate("oces2/PROD/intermediateCerts/oces-issuing02-ca.cer");
+        final AtomicInteger valid = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    if (statusChecker.getRevocationStatus(cert).isValid()) {
+                        valid.incrementAndGet();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads, valid.get());
+        assertEquals(1, loads.get());
+        assertEquals(1, statusChecker.getDownloadCount());
+        assertEquals(threads - 1, statusChecker.getCoalescedDownloadCount());
+    }
+
+    public void testInterruptedWhileAwaitingDownload() throws Exception {
+        final CountDownLatch hold = new CountDownLatch(1);
+
+        final CRLCertificateStatusChecker statusChecker = new CRLCertificateStatusChecker(cache(), CRLCertificateStatusChecker.ALWAYS, false, CRLCertificateStatusChecker.NEVER, resolver()) {
+            @Override
+            protected CRLCache.CRLInfo load(String url, CRLCache.CRLInfo crlInfo) throws IOException {
+                try {
+                    hold.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+                return loadCRL("ocesNextUpdateInPast.crl");
+            }
+
+            @Override
+            protected boolean verify(X509CRL crl, X509Certificate cert) {
+                return true;
+            }
+        };
+
+        final X509Certificate cert = loadCertificate("oces2/PROD/intermediateCerts/oces-issuing02-ca.cer");
+        Thread downloader = new Thread() {
+            @Override
+            public void run() {
+                statusChecker.getRevocationStatus(cert);
+            }
+        };
+        downloader.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!statusChecker.isUpdating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    statusChecker.getRevocationStatus(cert);
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        };
+        waiter.start();
+        while (statusChecker.getCoalescedDownloadCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        waiter.interrupt();
+        waiter.join();
+        hold.countDown();
+        downloader.join();
+
+        // not strict, but an interrupted wait must not pass the certificate as not revoked
+        assertTrue(thrown.get() instanceof PKIException);
+        assertTrue(interrupted.get());
+    }
+
+    public void testDownloadSkippedWhenUpdatedByAnotherThread() throws Exception {
+        final CRLCache.CRLInfo[] staleRead = new CRLCache.CRLInfo[1];
+        final InMemoryCRLCache racyCache = new InMemoryCRLCache() {
+            @Override
+            public CRLInfo get(String url) {
+                // simulates a caller, which read the entry just before another thread updated it
+                final CRLInfo stale = staleRead[0];
+                staleRead[0] = null;
+                return stale != null ? stale : super.get(url);
+            }
+        };
+        final AtomicInteger loads = new AtomicInteger();
+        final X509CRL crl = generateCRL(new Date(System.currentTimeMillis() + 3600 * 1000L));
+
+        CRLCertificateStatusChecker statusChecker = new CRLCertificateStatusChecker(racyCache, 3600, true, CRLCertificateStatusChecker.NEVER, resolver()) {
+            @Override
+            protected CRLCache.CRLInfo load(String url, CRLCache.CRLInfo crlInfo) throws IOException {
+                loads.incrementAndGet();
+                return new UncheckedCRLInfo(crl, new Date().getTime());
+            }
+
+            @Override
+            protected boolean verify(X509CRL crl, X509Certificate cert) {
+                return true;
+            }
+        };
+
+        X509Certificate cert = loadCertificate("oces2/PROD/intermediateCerts/oces-issuing02-ca.cer");
+        assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+        assertEquals(1, loads.get());
+
+        final CRLCache.CRLInfo current = racyCache.entries().iterator().next().getValue();
+        // indexed by the download, not by the check
+        assertTrue(current.isIndexed());
+        staleRead[0] = new CRLCache.CRLInfo(crl, current.getLastModified(), System.currentTimeMillis() - 7200 * 1000L, current.getETag());
+        assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+        assertEquals(1, loads.get());
+        assertEquals(1, statusChecker.getDownloadCount());
+    }
+
+    public void testStaleCRLUsedWithinStalenessWindow() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicBoolean fail = new AtomicBoolean(false);
+        final AtomicReference<CountDownLatch> hold = new AtomicReference<CountDownLatch>();
+        // next update passed 10 minutes ago, which is within the window of an hour
+        final X509CRL crl = generateCRL(new Date(System.currentTimeMillis() - 600 * 1000L));
+
+        CRLCertificateStatusChecker statusChecker = new CRLCertificateStatusChecker(cache(), CRLCertificateStatusChecker.ALWAYS, true, CRLCertificateStatusChecker.NEVER, resolver()) {
+            @Override
+            protected CRLCache.CRLInfo load(String url, CRLCache.CRLInfo crlInfo) throws IOException {
+                loads.incrementAndGet();
+                final CountDownLatch latch = hold.get();
+                if (latch != null) {
+                    try {
+                        latch.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                }
+                if (fail.get()) {
+                    throw new IOException("unreachable");
+                }
+                return new UncheckedCRLInfo(crl, new Date().getTime());
+            }
+
+            @Override
+            protected boolean verify(X509CRL crl, X509Certificate cert) {
+                return true;
+            }
+        };
+        statusChecker.setMaxStaleness(3600);
+
+        X509Certificate cert = loadCertificate("oces2/PROD/intermediateCerts/oces-issuing02-ca.cer");
+        // the first check has to download the CRL
+        assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+        assertEquals(1, loads.get());
+
+        // although ALWAYS, the cached CRL is used while a single update runs in the background
+        hold.set(new CountDownLatch(1));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+        }
+        awaitLoads(loads, 2);
+        hold.get().countDown();
+        hold.set(null);
+        awaitUpdates(statusChecker);
+        assertEquals(2, statusChecker.getDownloadCount());
+
+        // background updates are done regardless of the staleness window
+        statusChecker.updateDue(0);
+        assertEquals(3, loads.get());
+
+        // a failed update keeps the stale CRL
+        fail.set(true);
+        statusChecker.updateDue(0);
+        assertEquals(4, loads.get());
+        hold.set(new CountDownLatch(1));
+        assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+        assertFalse(CRLCertificateStatusChecker.INVALID_TIMESTAMP.equals(statusChecker.getRevocationStatus(cert).getTimestamp()));
+        awaitLoads(loads, 5);
+        hold.get().countDown();
+        hold.set(null);
+        awaitUpdates(statusChecker);
+        assertEquals(5, loads.get());
+
+        // once shut down, the update is done on the request thread again
+        fail.set(false);
+        statusChecker.shutdown();
+        assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+        assertEquals(6, loads.get());
+        assertEquals(6, statusChecker.getDownloadCount());
+    }
+
+    public void testStaleCRLNotUsedAfterStalenessWindow() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicBoolean fail = new AtomicBoolean(false);
+        // next update passed two hours ago, which is outside the window of an hour
+        final X509CRL crl = generateCRL(new Date(System.currentTimeMillis() - 7200 * 1000L));
+
+        CRLCertificateStatusChecker statusChecker = new CRLCertificateStatusChecker(cache(), CRLCertificateStatusChecker.ALWAYS, true, CRLCertificateStatusChecker.NEVER, resolver()) {
+            @Override
+            protected CRLCache.CRLInfo load(String url, CRLCache.CRLInfo crlInfo) throws IOException {
+                loads.incrementAndGet();
+                if (fail.get()) {
+                    throw new IOException("unreachable");
+                }
+                return new UncheckedCRLInfo(crl, new Date().getTime());
+            }
+
+            @Override
+            protected boolean verify(X509CRL crl, X509Certificate cert) {
+                return true;
+            }
+        };
+        statusChecker.setMaxStaleness(3600);
+
+        X509Certificate cert = loadCertificate("oces2/PROD/intermediateCerts/oces-issuing02-ca.cer");
+        assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+        assertEquals(1, loads.get());
+
+        // just downloaded, but the window is measured from the next update of the CRL,
+        // so it is updated on the request thread and invalidated on failure
+        fail.set(true);
+        try {
+            statusChecker.getRevocationStatus(cert);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected, strict
+        }
+        assertEquals(2, loads.get());
+    }
+
+    private static void awaitLoads(AtomicInteger loads, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (loads.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, loads.get());
+    }
+
+    private static void awaitUpdates(CRLCertificateStatusChecker statusChecker) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (statusChecker.isUpdating() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(statusChecker.isUpdating());
+    }
+
+    public void testRefreshScheduler() throws Exception {
+        final CountDownLatch refreshed = new CountDownLatch(2);
+
+        final CRLCertificateStatusChecker statusChecker = new CRLCertificateStatusChecker(cache(), CRLCertificateStatusChecker.ALWAYS, true, CRLCertificateStatusChecker.NEVER, resolver()) {
+            @Override
+            protected CRLCache.CRLInfo load(String url, CRLCache.CRLInfo crlInfo) throws IOException {
+                refreshed.countDown();
+                return loadCRL("ocesNextUpdateInPast.crl");
+            }
+
+            @Override
+            protected boolean verify(X509CRL crl, X509Certificate cert) {
+                return true;
+            }
+        };
+
+        X509Certificate cert = loadCertificate("oces2/PROD/intermediateCerts/oces-issuing02-ca.cer");
+        assertTrue(statusChecker.getRevocationStatus(cert).isValid());
+
+        CRLRefreshScheduler scheduler = new CRLRefreshScheduler(statusChecker, 1);
+        scheduler.start();
+        try {
+            assertTrue(scheduler.isRunning());
+            assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.stop();
+        }
+        assertFalse(scheduler.isRunning());
+    }
+
+    public void testRefreshSchedulerIllegalArguments() {
+        try {
+            new CRLRefreshScheduler(null, 1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new CRLRefreshScheduler(new CRLCertificateStatusChecker(cache(), 1, true, CRLCertificateStatusChecker.NEVER, resolver()), 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testConditionalDownloadWithETag() throws Exception {
+        final byte[] crlBytes = CredentialVaultTestUtil.readResource("ocesNextUpdateInPast.crl");
+        final String[] eTag = new String[] { "\"v1\"" };
+        final AtomicInteger bodiesSent = new AtomicInteger();
+        final AtomicBoolean ifModifiedSinceSent = new AtomicBoolean(false);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/oces.crl", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestHeaders().getFirst("If-Modified-Since") != null) {
+                    ifModifiedSinceSent.set(true);
+                }
+                exchange.getResponseHeaders().set("ETag", eTag[0]);
+                if (eTag[0].equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    bodiesSent.incrementAndGet();
+                    exchange.sendResponseHeaders(200, crlBytes.length);
+                    exchange.getResponseBody().write(crlBytes);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/oces.crl";
+            CRLCertificateStatusChecker checker = checker();
+
+            final CRLCache.CRLInfo crlInfo1 = checker.downloadCRL(url, null);
+            assertTrue(crlInfo1 instanceof CRLCertificateStatusChecker.UncheckedCRLInfo);
+            assertEquals("\"v1\"", crlInfo1.getETag());
+            assertEquals(1, bodiesSent.get());
+
+            // unchanged, the server responds 304 to the If-None-Match
+            final CRLCache.CRLInfo crlInfo2 = checker.downloadCRL(url, new CRLCache.CRLInfo(crlInfo1));
+            assertFalse(crlInfo2 instanceof CRLCertificateStatusChecker.UncheckedCRLInfo);
+            assertSame(crlInfo1.getCrl(), crlInfo2.getCrl());
+            assertEquals("\"v1\"", crlInfo2.getETag());
+            assertEquals(1, bodiesSent.get());
+
+            // changed
+            eTag[0] = "\"v2\"";
+            final CRLCache.CRLInfo crlInfo3 = checker.downloadCRL(url, crlInfo2);
+            assertTrue(crlInfo3 instanceof CRLCertificateStatusChecker.UncheckedCRLInfo);
+            assertEquals("\"v2\"", crlInfo3.getETag());
+            assertEquals(2, bodiesSent.get());
+
+            // no Last-Modified was served, so no If-Modified-Since should be sent
+            assertFalse(ifModifiedSinceSent.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
     public void testVerificationFailed() throws Exception {
         X509Certificate cert = loadCertificate("oces2/PP/intermediateCerts/systemtest8-ca.cer");
 
@@ -453,4 +842,33 @@ public class CRLCertificateStatusCheckerIT extends TestCase {
         return CertificateParser.asCertificate(certBytes);
     }
 
+
+    @SuppressWarnings("deprecation")
+    private static X509CRL generateCRL(Date nextUpdate) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X509V2CRLGenerator crlGenerator = new X509V2CRLGenerator();
+        crlGenerator.setIssuerDN(new X500Principal("CN=Test CA, O=SOSI, C=DK"));
+        crlGenerator.setThisUpdate(new Date(nextUpdate.getTime() - 24 * 3600 * 1000L));
+        crlGenerator.setNextUpdate(nextUpdate);
+        crlGenerator.setSignatureAlgorithm("SHA256withRSA");
+        // notPartitioned() expects the CRL to have critical extensions
+        crlGenerator.addExtension(X509Extension.cRLNumber, true, new CRLNumber(BigInteger.ONE));
+        byte[] encoded = crlGenerator.generate(keyPair.getPrivate()).getEncoded();
+        return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(encoded));
+    }
+
+    private static CRLCache.CRLInfo loadCRL(String resource) throws IOException {
+        InputStream inStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            return new CRLCertificateStatusChecker.UncheckedCRLInfo((X509CRL) cf.generateCRL(inStream), new Date().getTime());
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            inStream.close();
+        }
+    }
 }
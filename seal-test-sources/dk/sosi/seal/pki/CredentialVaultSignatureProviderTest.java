@@ -31,6 +31,7 @@ package dk.sosi.seal.pki;
 
 import dk.sosi.seal.SOSIFactory;
 import dk.sosi.seal.model.SignatureUtil;
+import dk.sosi.seal.vault.CredentialPair;
 import dk.sosi.seal.vault.CredentialVaultTestUtil;
 import dk.sosi.seal.vault.GenericCredentialVault;
 import dk.sosi.seal.xml.XmlUtil;
@@ -39,7 +40,10 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.security.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import static dk.sosi.seal.pki.SignatureProviderTestUtil.verify;
 import static junit.framework.Assert.*;
 
 /**
@@ -79,4 +83,61 @@ public class CredentialVaultSignatureProviderTest {
 
     }
 
+    @Test
+    public void testSigningAfterRenewal() throws NoSuchProviderException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        GenericCredentialVault vault = new GenericCredentialVault(SignatureUtil.setupCryptoProviderForJVM(), "password");
+        vault.setSystemCredentialPair(CredentialVaultTestUtil.getCredentialVault().getSystemCredentialPair());
+
+        CredentialVaultSignatureProvider provider = SignatureProviderFactory.fromCredentialVault(vault, null);
+        byte[] msg = "This is a test message".getBytes();
+        assertTrue(verify(msg, provider.sign(msg)));
+
+        // The signer of the thread must follow the new system credential pair
+        CredentialPair renewed = CredentialVaultTestUtil.getVocesCredentialVault().getSystemCredentialPair();
+        vault.setSystemCredentialPair(renewed);
+        SignatureProvider.SignatureResult result = provider.sign(msg);
+
+        assertEquals(renewed.getCertificate(), result.getCertificate());
+        assertTrue(verify(msg, result));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        GenericCredentialVault vault = CredentialVaultTestUtil.getCredentialVault();
+        final CredentialVaultSignatureProvider provider = SignatureProviderFactory.fromCredentialVault(vault, null);
+        final byte[] msg = "This is a test message".getBytes();
+
+        final CountDownLatch signed = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // The worker is kept alive, as the slot of a terminated thread may be collected at any time
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                provider.sign(msg);
+                signed.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Exit
+                }
+            }
+        };
+        worker.start();
+        try {
+            assertTrue(signed.await(10, TimeUnit.SECONDS));
+            provider.sign(msg);
+            assertEquals(2, provider.getIdleSignerCount());
+
+            // The private key must no longer be reachable from the signing threads
+            provider.invalidate();
+            assertEquals(0, provider.getIdleSignerCount());
+        } finally {
+            release.countDown();
+            worker.join();
+        }
+
+        assertTrue(verify(msg, provider.sign(msg)));
+        assertEquals(1, provider.getIdleSignerCount());
+    }
+
 }
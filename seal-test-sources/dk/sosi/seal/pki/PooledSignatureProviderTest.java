@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+
+package dk.sosi.seal.pki;
+
+import dk.sosi.seal.vault.CredentialVaultTestUtil;
+import dk.sosi.seal.vault.LunaCredentialVault;
+import dk.sosi.seal.vault.LunaCredentialVaultTestHelper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static dk.sosi.seal.pki.SignatureProviderTestUtil.verify;
+import static junit.framework.Assert.*;
+
+/**
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class PooledSignatureProviderTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void testNullSignatureProvider() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("SignatureProvider cannot be null");
+
+        new PooledSignatureProvider(null, 1);
+    }
+
+    @Test
+    public void testNoSessions() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Number of sessions must be positive");
+
+        new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(CredentialVaultTestUtil.getCredentialVault(), null), 0);
+    }
+
+    @Test
+    public void testNoCapacity() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Capacity must be positive");
+
+        new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(CredentialVaultTestUtil.getCredentialVault(), null), 1, 0);
+    }
+
+    @Test
+    public void testSigning() throws Exception {
+        PooledSignatureProvider provider = new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(CredentialVaultTestUtil.getCredentialVault(), null), 1);
+        try {
+            byte[] msg = "This is a test message".getBytes();
+            assertTrue(verify(msg, provider.sign(msg)));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testSigningAsync() throws Exception {
+        PooledSignatureProvider provider = new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(CredentialVaultTestUtil.getCredentialVault(), null), 3);
+        try {
+            List<byte[]> messages = new ArrayList<byte[]>();
+            List<Future<SignatureProvider.SignatureResult>> results = new ArrayList<Future<SignatureProvider.SignatureResult>>();
+            for (int i = 0; i < 20; i++) {
+                byte[] msg = ("This is test message " + i).getBytes();
+                messages.add(msg);
+                results.add(provider.signAsync(msg));
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                assertTrue(verify(messages.get(i), results.get(i).get()));
+            }
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testSigningFailsInHSM() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(LunaCredentialVault.PROPERTYNAME_LUNAHELPER, LunaCredentialVaultTestHelper.class.getName());
+        LunaCredentialVault vault = new LunaCredentialVault(properties);
+
+        PooledSignatureProvider provider = new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(vault, properties), 2);
+        try {
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final CountDownLatch completed = new CountDownLatch(1);
+            SignatureFuture<SignatureProvider.SignatureResult> result = provider.signAsync("This is a test message".getBytes());
+            result.addCallback(new SignatureCallback<SignatureProvider.SignatureResult>() {
+                public void signed(SignatureProvider.SignatureResult result) {
+                    completed.countDown();
+                }
+
+                public void failed(Throwable cause) {
+                    failure.set(cause);
+                    completed.countDown();
+                }
+            });
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            assertTrue(failure.get() instanceof PKIException);
+            try {
+                result.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof PKIException);
+            }
+
+            expectedException.expect(PKIException.class);
+            provider.sign("This is a test message".getBytes());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testSigningCallback() throws Exception {
+        PooledSignatureProvider provider = new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(CredentialVaultTestUtil.getCredentialVault(), null), 2);
+        try {
+            final byte[] msg = "This is a test message".getBytes();
+            final AtomicInteger verified = new AtomicInteger();
+            final CountDownLatch completed = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                provider.signAsync(msg).addCallback(new SignatureCallback<SignatureProvider.SignatureResult>() {
+                    public void signed(SignatureProvider.SignatureResult result) {
+                        try {
+                            if (verify(msg, result)) {
+                                verified.incrementAndGet();
+                            }
+                        } catch (GeneralSecurityException e) {
+                            // counted as not verified
+                        }
+                        completed.countDown();
+                    }
+
+                    public void failed(Throwable cause) {
+                        completed.countDown();
+                    }
+                });
+            }
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            assertEquals(10, verified.get());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testSigningWhenQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SignatureProvider slow = SignatureProviderFactory.fromCredentialVault(CredentialVaultTestUtil.getCredentialVault(), null);
+        PooledSignatureProvider provider = new PooledSignatureProvider(new SignatureProvider() {
+            public SignatureResult sign(byte[] bytes) throws PKIException {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new PKIException(e);
+                }
+                return slow.sign(bytes);
+            }
+        }, 1, 1);
+        try {
+            byte[] msg = "This is a test message".getBytes();
+            Future<SignatureProvider.SignatureResult> running = provider.signAsync(msg);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<SignatureProvider.SignatureResult> waiting = provider.signAsync(msg);
+            try {
+                provider.signAsync(msg);
+                fail("Expected PKIException");
+            } catch (PKIException e) {
+                assertEquals("Too many signatures waiting for the SignatureProvider", e.getMessage());
+            }
+            release.countDown();
+            assertTrue(verify(msg, running.get()));
+            assertTrue(verify(msg, waiting.get()));
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void testSigningAfterShutdown() {
+        PooledSignatureProvider provider = new PooledSignatureProvider(SignatureProviderFactory.fromCredentialVault(CredentialVaultTestUtil.getCredentialVault(), null), 1);
+        provider.shutdown();
+
+        expectedException.expect(PKIException.class);
+        expectedException.expectMessage("SignatureProvider has been shut down");
+
+        provider.signAsync("This is a test message".getBytes());
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki;
+
+import dk.sosi.seal.SOSIFactory;
+import dk.sosi.seal.model.SignatureUtil;
+import dk.sosi.seal.xml.XmlUtil;
+
+import java.security.*;
+
+/**
+ * Helpers shared by the <code>SignatureProvider</code> tests.
+ *
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+final class SignatureProviderTestUtil {
+
+    private SignatureProviderTestUtil() {
+    }
+
+    /**
+     * Verifies the signature of the result against the message, using the certificate of the result.
+     */
+    static boolean verify(byte[] msg, SignatureProvider.SignatureResult result) throws NoSuchProviderException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        String cryptoProvider = SignatureUtil.getCryptoProvider(null, SOSIFactory.PROPERTYNAME_SOSI_CRYPTOPROVIDER_SHA1WITHRSA);
+        Signature jceSign = Signature.getInstance("SHA1withRSA", cryptoProvider);
+        jceSign.initVerify(result.getCertificate());
+        jceSign.update(msg);
+        return jceSign.verify(XmlUtil.fromBase64(result.getSignature()));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.util.Arrays;
+
+/**
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class TestFileBasedCRLCache extends TestCase {
+
+    private static final String URL = "http://crl.oces.certifikat.dk/oces.crl";
+
+    private File directory;
+    private X509CRL crl;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("crlcache", "");
+        assertTrue(directory.delete());
+        InputStream inStream = Thread.currentThread().getContextClassLoader().getResourceAsStream("ocesNextUpdateInPast.crl");
+        try {
+            crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(inStream);
+        } finally {
+            inStream.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testIllegalArguments() {
+        try {
+            new FileBasedCRLCache(null);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            new FileBasedCRLCache(directory).update(null, crl);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    public void testEntriesSurviveRestart() throws Exception {
+        FileBasedCRLCache cache = new FileBasedCRLCache(directory);
+        CRLCache.CRLInfo crlInfo = new CRLCache.CRLInfo(crl, 1234L, 5678L, "\"v1\"");
+        assertSame(crlInfo, cache.update(URL, crlInfo));
+        assertSame(crlInfo, cache.get(URL));
+
+        FileBasedCRLCache restarted = new FileBasedCRLCache(directory);
+        CRLCache.CRLInfo warmed = restarted.get(URL);
+        assertNotNull(warmed);
+        assertTrue(warmed instanceof CRLCertificateStatusChecker.UncheckedCRLInfo);
+        assertEquals(1234L, warmed.getLastModified());
+        assertEquals(5678L, warmed.getCreated());
+        assertEquals("\"v1\"", warmed.getETag());
+        assertTrue(Arrays.equals(crl.getEncoded(), warmed.getCrl().getEncoded()));
+        assertEquals(1, restarted.entries().size());
+    }
+
+    public void testTimestampUpdate() throws Exception {
+        FileBasedCRLCache cache = new FileBasedCRLCache(directory);
+        cache.update(URL, new CRLCache.CRLInfo(crl, 1234L, 5678L, null));
+        // same CRL, new timestamps, as after a 304 Not Modified
+        cache.update(URL, new CRLCache.CRLInfo(crl, 1234L, 9999L, null));
+
+        CRLCache.CRLInfo warmed = new FileBasedCRLCache(directory).get(URL);
+        assertEquals(9999L, warmed.getCreated());
+        assertNull(warmed.getETag());
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    public void testRemoveAndClear() throws Exception {
+        FileBasedCRLCache cache = new FileBasedCRLCache(directory);
+        cache.update(URL, crl);
+        cache.update(URL + "2", crl);
+        assertEquals(4, directory.listFiles().length);
+
+        cache.update(URL, (X509CRL) null);
+        assertNull(cache.get(URL));
+        assertEquals(2, directory.listFiles().length);
+        assertNull(new FileBasedCRLCache(directory).get(URL));
+
+        cache.clear();
+        assertTrue(cache.entries().isEmpty());
+        assertEquals(0, directory.listFiles().length);
+        assertTrue(new FileBasedCRLCache(directory).entries().isEmpty());
+    }
+
+    public void testUnreadableFilesAreIgnored() throws Exception {
+        FileBasedCRLCache cache = new FileBasedCRLCache(directory);
+        cache.update(URL, crl);
+
+        FileOutputStream out = new FileOutputStream(new File(directory, "broken.properties"));
+        try {
+            out.write("url=http://broken\nlastModified=1\ncreated=1\n".getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+
+        FileBasedCRLCache restarted = new FileBasedCRLCache(directory);
+        assertNotNull(restarted.get(URL));
+        assertNull(restarted.get("http://broken"));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki;
+
+import dk.sosi.seal.vault.CredentialVaultTestUtil;
+import dk.sosi.seal.xml.CertificateParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class TestOCESUtil {
+
+    private byte[] intermediateBytes;
+
+    @Before
+    public void setUp() {
+        OCESUtil.clearIssuerVerifications();
+        intermediateBytes = CredentialVaultTestUtil.readResource("oces2/PP/intermediateCerts/systemtest19-ca.cer");
+    }
+
+    @Test
+    public void testIsIssuerOf() {
+        for (int i = 0; i < 2; i++) {
+            // second round is answered from the memoized results
+            X509Certificate intermediate = CertificateParser.asCertificate(intermediateBytes);
+            assertTrue(OCESUtil.isIssuerOf(intermediate, OCESTestCertificationAuthority.OCES_2_TEST_ROOT_CERTIFICATE));
+            assertFalse(OCESUtil.isIssuerOf(intermediate, OCESCertificationAuthority.OCES_2_ROOT_CERTIFICATE));
+        }
+    }
+
+    @Test
+    public void testModifiedCertificateIsNotMistakenForVerified() throws Exception {
+        assertTrue(OCESUtil.isIssuerOf(CertificateParser.asCertificate(intermediateBytes), OCESTestCertificationAuthority.OCES_2_TEST_ROOT_CERTIFICATE));
+
+        // same signature, altered subject
+        byte[] modified = intermediateBytes.clone();
+        int index = new String(modified, "ISO-8859-1").lastIndexOf("Systemtest");
+        modified[index] = 'X';
+        X509Certificate tampered = CertificateParser.asCertificate(modified);
+        assertFalse(OCESUtil.isIssuerOf(tampered, OCESTestCertificationAuthority.OCES_2_TEST_ROOT_CERTIFICATE));
+    }
+
+    @Test
+    public void testRejectionsDoNotEvictVerifications() throws Exception {
+        assertTrue(OCESUtil.isIssuerOf(CertificateParser.asCertificate(intermediateBytes), OCESTestCertificationAuthority.OCES_2_TEST_ROOT_CERTIFICATE));
+
+        int index = new String(intermediateBytes, "ISO-8859-1").lastIndexOf("Systemtest");
+        for (int i = 0; i < 150; i++) {
+            byte[] modified = intermediateBytes.clone();
+            modified[index] = (byte) ('A' + i % 26);
+            modified[index + 1] = (byte) ('a' + i / 26);
+            assertFalse(OCESUtil.isIssuerOf(CertificateParser.asCertificate(modified), OCESTestCertificationAuthority.OCES_2_TEST_ROOT_CERTIFICATE));
+        }
+
+        assertEquals(1, OCESUtil.getIssuerVerificationCount());
+        assertTrue(OCESUtil.getIssuerRejectionCount() <= 100);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * $HeadURL$
+ * $Id$
+ */
+package dk.sosi.seal.pki;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.asn1.x509.X509ExtensionsGenerator;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+/**
+ * @author $LastChangedBy$
+ * @since 2.3.3
+ */
+public class TestRevokedSerialIndex extends TestCase {
+
+    private static final X500Principal ISSUER = new X500Principal("CN=Test CA, O=SOSI, C=DK");
+
+    public void testIndexMatchesCRL() throws Exception {
+        X509CRL crl = loadCRL("ocesNextUpdateInPast.crl");
+        RevokedSerialIndex index = RevokedSerialIndex.build(crl);
+        assertNotNull(index);
+        assertEquals(crl.getRevokedCertificates().size(), index.size());
+
+        X500Principal issuer = crl.getIssuerX500Principal();
+        for (X509CRLEntry entry : crl.getRevokedCertificates()) {
+            assertTrue(index.isRevoked(issuer, entry.getSerialNumber()));
+            BigInteger next = entry.getSerialNumber().add(BigInteger.ONE);
+            assertEquals(crl.getRevokedCertificate(next) != null, index.isRevoked(issuer, next));
+        }
+    }
+
+    public void testOtherIssuerIsNotRevoked() throws Exception {
+        X509CRL crl = loadCRL("ocesNextUpdateInPast.crl");
+        RevokedSerialIndex index = RevokedSerialIndex.build(crl);
+        BigInteger serial = crl.getRevokedCertificates().iterator().next().getSerialNumber();
+
+        assertTrue(index.isRevoked(crl.getIssuerX500Principal(), serial));
+        assertFalse(index.isRevoked(ISSUER, serial));
+    }
+
+    public void testLargeSerials() throws Exception {
+        BigInteger large = BigInteger.ONE.shiftLeft(100).add(BigInteger.valueOf(7));
+        BigInteger maxLong = BigInteger.valueOf(Long.MAX_VALUE);
+        X509CRL crl = generateCRL(false, BigInteger.valueOf(1), maxLong, large);
+
+        RevokedSerialIndex index = RevokedSerialIndex.build(crl);
+        assertEquals(3, index.size());
+        assertTrue(index.isRevoked(ISSUER, BigInteger.valueOf(1)));
+        assertTrue(index.isRevoked(ISSUER, maxLong));
+        assertTrue(index.isRevoked(ISSUER, large));
+        assertFalse(index.isRevoked(ISSUER, BigInteger.valueOf(2)));
+        assertFalse(index.isRevoked(ISSUER, maxLong.add(BigInteger.ONE)));
+        assertFalse(index.isRevoked(ISSUER, large.add(BigInteger.ONE)));
+    }
+
+    public void testEmptyCRL() throws Exception {
+        RevokedSerialIndex index = RevokedSerialIndex.build(generateCRL(false));
+        assertEquals(0, index.size());
+        assertFalse(index.isRevoked(ISSUER, BigInteger.ONE));
+    }
+
+    public void testIndirectCRLIsNotIndexed() throws Exception {
+        assertNull(RevokedSerialIndex.build(generateCRL(true, BigInteger.ONE)));
+    }
+
+    public void testIndexBuiltOnCacheUpdate() throws Exception {
+        X509CRL crl = loadCRL("ocesNextUpdateInPast.crl");
+        assertFalse(new CRLCache.CRLInfo(crl, 0).isIndexed());
+
+        CRLCache.CRLInfo crlInfo = new InMemoryCRLCache().update("http://crl.example/oces.crl", crl);
+        assertTrue(crlInfo.isIndexed());
+        X509CRLEntry entry = crl.getRevokedCertificates().iterator().next();
+        assertTrue(crlInfo.isRevoked(certificate(crl.getIssuerX500Principal(), entry.getSerialNumber())));
+        assertNull(crl.getRevokedCertificate(BigInteger.ONE));
+        assertFalse(crlInfo.isRevoked(certificate(crl.getIssuerX500Principal(), BigInteger.ONE)));
+    }
+
+    private static X509CRL loadCRL(String resource) throws Exception {
+        InputStream inStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        try {
+            return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(inStream);
+        } finally {
+            inStream.close();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static X509Certificate certificate(X500Principal issuer, BigInteger serial) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
+        certificateGenerator.setIssuerDN(issuer);
+        certificateGenerator.setSubjectDN(new X500Principal("CN=Revocation check"));
+        certificateGenerator.setSerialNumber(serial);
+        certificateGenerator.setSignatureAlgorithm("SHA256withRSA");
+        certificateGenerator.setPublicKey(keyPair.getPublic());
+        certificateGenerator.setNotBefore(new Date());
+        certificateGenerator.setNotAfter(new Date(System.currentTimeMillis() + 3600000));
+        return certificateGenerator.generate(keyPair.getPrivate());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static X509CRL generateCRL(boolean indirect, BigInteger... serials) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X509V2CRLGenerator crlGenerator = new X509V2CRLGenerator();
+        crlGenerator.setIssuerDN(ISSUER);
+        crlGenerator.setThisUpdate(new Date());
+        crlGenerator.setNextUpdate(new Date(System.currentTimeMillis() + 3600000));
+        crlGenerator.setSignatureAlgorithm("SHA256withRSA");
+        for (BigInteger serial : serials) {
+            if (indirect) {
+                X509ExtensionsGenerator extensions = new X509ExtensionsGenerator();
+                extensions.addExtension(X509Extension.certificateIssuer, true, new GeneralNames(new GeneralName(new X500Name("CN=Other CA, O=SOSI, C=DK"))));
+                crlGenerator.addCRLEntry(serial, new Date(), extensions.generate());
+            } else {
+                crlGenerator.addCRLEntry(serial, new Date(), CRLReason.keyCompromise);
+            }
+        }
+        byte[] encoded = crlGenerator.generate(keyPair.getPrivate()).getEncoded();
+        return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(encoded));
+    }
+}
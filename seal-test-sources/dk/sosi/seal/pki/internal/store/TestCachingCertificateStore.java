@@ -30,14 +30,20 @@ package dk.sosi.seal.pki.internal.store;
 
 import dk.sosi.seal.pki.CertificateCache;
 import dk.sosi.seal.pki.InlinedTestCertificates;
+import dk.sosi.seal.pki.PKIException;
+import dk.sosi.seal.pki.impl.ConcurrentCertificateCache;
 import dk.sosi.seal.xml.CertificateParser;
 import dk.sosi.seal.xml.XmlUtil;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 public class TestCachingCertificateStore {
@@ -74,4 +80,62 @@ public class TestCachingCertificateStore {
         verify(store).getCertificate("keyremote");
     }
 
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final int threads = 8;
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CachingCertificateStore store = new CachingCertificateStore(new CertificateStore() {
+            public X509Certificate getCertificate(String key) {
+                loads.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return certificate1;
+            }
+        }, new ConcurrentCertificateCache(), CertificateCache.Category.IntermediateCert) {
+            @Override
+            protected String getRemoteKey(String cacheKey) {
+                return cacheKey;
+            }
+        };
+
+        final AtomicInteger found = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    if (certificate1.equals(store.getCertificate("key"))) {
+                        found.incrementAndGet();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        Thread.sleep(200);
+        release.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads, found.get());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() {
+        when(cache.getCertificate(CertificateCache.Category.FederationCert, "key")).thenReturn(null);
+        when(store.getCertificate("keyremote")).thenThrow(new PKIException("failed")).thenReturn(certificate1);
+        try {
+            cachingStore.getCertificate("key");
+            fail("PKIException expected");
+        } catch (PKIException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(certificate1, cachingStore.getCertificate("key"));
+        verify(cache).putCertificate(CertificateCache.Category.FederationCert, "key", certificate1);
+    }
 }
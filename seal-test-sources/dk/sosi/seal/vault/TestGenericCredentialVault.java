@@ -42,6 +42,7 @@ import junit.framework.TestCase;
 
 import java.security.KeyStore;
 import java.security.Security;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Properties;
 
@@ -142,6 +143,28 @@ public class TestGenericCredentialVault extends TestCase {
 		
 	}
 
+	public void testSystemCredentialPairIsKeptUntilChanged() throws Exception {
+		CredentialPair first = CredentialVaultTestUtil.getCredentialVault().getSystemCredentialPair();
+		CredentialPair second = CredentialVaultTestUtil.getVocesCredentialVault().getSystemCredentialPair();
+		assertFalse(first.getCertificate().equals(second.getCertificate()));
+
+		GenericCredentialVault genericCredentialVault = new GenericCredentialVault(SignatureUtil.setupCryptoProviderForJVM(), "password");
+		genericCredentialVault.setSystemCredentialPair(first);
+
+		CredentialPair pair = genericCredentialVault.getSystemCredentialPair();
+		assertSame(pair, genericCredentialVault.getSystemCredentialPair());
+
+		genericCredentialVault.setSystemCredentialPair(second);
+		assertEquals(second.getCertificate(), genericCredentialVault.getSystemCredentialPair().getCertificate());
+
+		// Changes made directly in the keystore are detected as well
+		genericCredentialVault.getKeyStore().setKeyEntry(CredentialVault.ALIAS_SYSTEM, first.getPrivateKey(), "password".toCharArray(), new Certificate[] { first.getCertificate() });
+		assertEquals(first.getCertificate(), genericCredentialVault.getSystemCredentialPair().getCertificate());
+
+		genericCredentialVault.getKeyStore().deleteEntry(CredentialVault.ALIAS_SYSTEM);
+		assertNull(genericCredentialVault.getSystemCredentialPair());
+	}
+
 	// BC specifik test - notice the add,remove of BC
 	public void testIsTrustedCertificate() throws Exception {
 		Properties properties = SignatureUtil.setupCryptoProviderForJVM();
@@ -42,6 +42,8 @@ import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXParseException;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.Transformer;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -169,6 +171,63 @@ public class TestXmlUtil extends TestCase {
 		assertNull(el);
 	}
 
+	public void testGetElementByIdExtended() {
+
+		Document doc = XmlUtil.readXml(properties, "<root xmlns:wsu=\"urn:wsu\"><a ID=\"one\"><b wsu:Id=\"two\"/></a><c AssertionID=\"two\"/><d id=\"three\"/></root>", false);
+		Element a = (Element) doc.getElementsByTagName("a").item(0);
+		Element b = (Element) doc.getElementsByTagName("b").item(0);
+		Element c = (Element) doc.getElementsByTagName("c").item(0);
+		Element d = (Element) doc.getElementsByTagName("d").item(0);
+
+		assertSame(a, XmlUtil.getElementByIdExtended(doc, "one"));
+		assertSame(b, XmlUtil.getElementByIdExtended(doc, "two"));
+		assertSame(d, XmlUtil.getElementByIdExtended(doc, "three"));
+		assertNull(XmlUtil.getElementByIdExtended(doc, "four"));
+
+		// below another root
+		assertSame(b, XmlUtil.getElementByIdExtended(a, "two"));
+		assertSame(c, XmlUtil.getElementByIdExtended(c, "two"));
+		assertNull(XmlUtil.getElementByIdExtended(c, "one"));
+	}
+
+	public void testGetElementByIdExtendedAfterModification() {
+
+		Document doc = XmlUtil.readXml(properties, "<root><a id=\"one\"/><b id=\"two\"/></root>", false);
+		Element a = (Element) doc.getElementsByTagName("a").item(0);
+		Element b = (Element) doc.getElementsByTagName("b").item(0);
+		assertSame(a, XmlUtil.getElementByIdExtended(doc, "one"));
+
+		a.setAttributeNS(null, "id", "changed");
+		assertNull(XmlUtil.getElementByIdExtended(doc, "one"));
+		assertSame(a, XmlUtil.getElementByIdExtended(doc, "changed"));
+
+		Element e = doc.createElementNS(null, "e");
+		e.setAttributeNS(null, "Id", "three");
+		assertNull(XmlUtil.getElementByIdExtended(doc, "three"));
+		assertSame(e, XmlUtil.getElementByIdExtended(e, "three"));
+		doc.getDocumentElement().appendChild(e);
+		assertSame(e, XmlUtil.getElementByIdExtended(doc, "three"));
+
+		doc.getDocumentElement().removeChild(b);
+		assertNull(XmlUtil.getElementByIdExtended(doc, "two"));
+	}
+
+	public void testResolveSignatureReference() {
+
+		Document doc = XmlUtil.readXml(properties, "<root><copy id=\"card\"/><card id=\"card\"><sig/></card><body id=\"body\"/></root>", false);
+		Element card = (Element) doc.getElementsByTagName("card").item(0);
+		Element sig = (Element) doc.getElementsByTagName("sig").item(0);
+		Element body = (Element) doc.getElementsByTagName("body").item(0);
+
+		// an enveloped signature covers its ancestor, not the first element with the id
+		assertSame(card, XmlUtil.resolveSignatureReference(sig, "card"));
+		assertSame(body, XmlUtil.resolveSignatureReference(sig, "body"));
+
+		assertFalse(XmlUtil.isIdUnique(doc, "card"));
+		assertTrue(XmlUtil.isIdUnique(doc, "body"));
+		assertTrue(XmlUtil.isIdUnique(doc, "none"));
+	}
+
 	public void testSerialization() {
 
 		Document doc = XmlUtil.readXml(properties, DGWS_LEVEL4, false);
@@ -181,6 +240,26 @@ public class TestXmlUtil extends TestCase {
 		assertFalse("The arrays are actually equals?!", result);
 	}
 
+	public void testWriteXml() throws Exception {
+
+		Document doc = XmlUtil.readXml(properties, DGWS_LEVEL4, false);
+		for (boolean pretty : new boolean[] { false, true }) {
+			for (boolean includeXMLHeader : new boolean[] { false, true }) {
+				String xml = XmlUtil.node2String(doc, pretty, includeXMLHeader);
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				XmlUtil.writeXml(doc, out, pretty, includeXMLHeader);
+				assertTrue(Arrays.equals(xml.getBytes(XmlUtil.XML_ENCODING), out.toByteArray()));
+
+				StringWriter writer = new StringWriter();
+				XmlUtil.writeXml(doc, writer, pretty, includeXMLHeader);
+				assertEquals(xml, writer.toString());
+			}
+		}
+		assertTrue(XmlUtil.node2String(doc, false, true).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" ?><"));
+		assertTrue(XmlUtil.node2String(doc, true, true).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<"));
+	}
+
 	public void testSerializationEquality() throws Throwable {
 
 		Document doc1 = XmlUtil.createEmptyDocument();
@@ -342,7 +421,8 @@ public class TestXmlUtil extends TestCase {
 
 		doc = XmlUtil.readXml(properties, DGWS_LEVEL4, true);
 		assertNotNull(doc);
-		assertTrue(XmlUtil.CACHED_DOCUMENT_BUILDER_FACTORY.isValidating());
+		// Validating parsers are drawn from the DocumentBuilderPool, the shared factory is never reconfigured
+		assertFalse(XmlUtil.CACHED_DOCUMENT_BUILDER_FACTORY.isValidating());
 
 		// Disable the cache
 		Properties localProperties = new Properties(properties);
@@ -350,19 +430,56 @@ public class TestXmlUtil extends TestCase {
 		doc = XmlUtil.readXml(localProperties, DGWS_LEVEL4, false);
 		assertNotNull(doc);
 
-		// The cached document builder factory should be untouched since last invocation, and should stille be "validating"
-		assertTrue(XmlUtil.CACHED_DOCUMENT_BUILDER_FACTORY.isValidating());
+		assertFalse(XmlUtil.CACHED_DOCUMENT_BUILDER_FACTORY.isValidating());
+
+	}
 
+	public void testDocumentBuilderPoolReuse() throws Exception {
+		DocumentBuilder nonValidating = DocumentBuilderPool.borrow(false, "soap.xsd");
+		DocumentBuilderPool.release(false, "soap.xsd", nonValidating);
+		assertSame(nonValidating, DocumentBuilderPool.borrow(false, "soap-specialized.xsd"));
+
+		DocumentBuilder validating = DocumentBuilderPool.borrow(true, "soap.xsd");
+		assertNotSame(nonValidating, validating);
+		assertSame(XmlUtil.getCompiledSchema("soap.xsd"), validating.getSchema());
+		assertNotSame(validating, DocumentBuilderPool.borrow(true, "soap.xsd"));
+		DocumentBuilderPool.release(true, "soap.xsd", validating);
+		assertSame(validating, DocumentBuilderPool.borrow(true, "soap.xsd"));
+		assertNotSame(validating, DocumentBuilderPool.borrow(true, "soap-specialized.xsd"));
+	}
+
+	public void testDocumentBuilderPoolValidatesAfterReuse() throws Exception {
+		String schemaInvalidXML = removeMandatoryTimestamp();
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(XmlUtil.readXml(properties, DGWS_LEVEL4, true));
+			try {
+				XmlUtil.readXml(properties, schemaInvalidXML, true);
+				fail("No schemavalidation exception was thrown");
+			} catch (XmlUtilException xue) {
+				// OK
+			}
+		}
+	}
+
+	public void testCompiledSchemaCache() throws Exception {
+		assertSame(XmlUtil.getCompiledSchema("soap.xsd"), XmlUtil.getCompiledSchema("soap.xsd"));
+		assertNotSame(XmlUtil.getCompiledSchema("soap.xsd"), XmlUtil.getCompiledSchema("soap-specialized.xsd"));
+	}
+
+	public void testDocumentBuilderPoolUnknownSchema() throws Exception {
+		try {
+			DocumentBuilderPool.borrow(true, "no-such-schema.xsd");
+			fail("Expected XmlUtilException");
+		} catch (XmlUtilException e) {
+			assertTrue(e.getMessage().indexOf("no-such-schema.xsd") != -1);
+		}
 	}
 
 	public void testValidation() throws Exception {
 		Document doc = XmlUtil.readXml(properties, DGWS_LEVEL4, true);
 		assertNotNull(doc);
 
-		// At this point the CACHED_DOCUMENT_BUILDER_FACTORY is set up to produce schemavalidating documentbuilders.
-		assertTrue(XmlUtil.CACHED_DOCUMENT_BUILDER_FACTORY.isValidating());
-
-		// However, it should still be possible to create a non-validating documentbuilder, when supplying "false" to "getDocumentBuilder()"
+		// It should still be possible to create a non-validating documentbuilder, when supplying "false" to "readXml()"
 		// Remove a schema-mandatory timestamp and check that the documentbuilder does *not* throw an exception when validate is set to false
 		String schemaInvalidXML = removeMandatoryTimestamp();
 		assertNotNull(XmlUtil.readXml(properties, schemaInvalidXML, false)); // Should run OK!
@@ -589,6 +706,200 @@ public class TestXmlUtil extends TestCase {
 
     }
 
+    public void testXMLTimeStampMatchesSimpleDateFormat() throws Exception {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            Random random = new Random(4711);
+            for (String timeZone : new String[] { "Europe/Copenhagen", "America/St_Johns", "Asia/Kathmandu" }) {
+                TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+                for (int i = 0; i < 10000; i++) {
+                    // 1653 to 2286, plus the odd date outside the range converted without SimpleDateFormat
+                    Date date = new Date((long) ((random.nextDouble() - 0.5) * 2e13));
+                    for (boolean useZuluTime : new boolean[] { true, false }) {
+                        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy'-'MM'-'dd'T'HH:mm:ss" + (useZuluTime ? "'Z'" : ""));
+                        if (useZuluTime) {
+                            dateFormat.setTimeZone(TimeZone.getTimeZone("Etc/UTC"));
+                        }
+                        String timestamp = XmlUtil.toXMLTimeStamp(date, useZuluTime);
+                        assertEquals(dateFormat.format(date), timestamp);
+                        assertEquals(dateFormat.parse(timestamp), XmlUtil.fromXMLTimeStamp(timestamp));
+                    }
+                    String withMillis = XmlUtil.toXMLTimeStamp(date, true).replace("Z", String.format(".%03dZ", (date.getTime() % 1000 + 1000) % 1000));
+                    assertEquals(date, XmlUtil.parseZuluDateTime(withMillis));
+                }
+            }
+            assertEquals("1000-01-01T00:00:00Z", XmlUtil.toXMLTimeStamp(XmlUtil.parseZuluDateTime("1000-01-01T00:00:00Z"), true));
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    public void testParseZuluDateTimeLenient() {
+        assertEquals(XmlUtil.parseZuluDateTime("2020-03-01T00:00:00Z"), XmlUtil.parseZuluDateTime("2020-02-30T00:00:00Z"));
+        assertEquals(XmlUtil.parseZuluDateTime("2020-01-01T00:00:00.005Z"), XmlUtil.parseZuluDateTime("2020-01-01T00:00:00.5Z"));
+        assertEquals(XmlUtil.parseZuluDateTime("2020-01-01T00:00:00Z"), XmlUtil.parseZuluDateTime("2020-1-1T0:0:0Z"));
+    }
+
+    public void testRandomSource() {
+        RandomSource defaultSource = XmlUtil.getRandomSource();
+        assertTrue(defaultSource instanceof SecureRandomSource);
+        try {
+            XmlUtil.setRandomSource(new RandomSource() {
+                public void nextBytes(byte[] bytes) {
+                    Arrays.fill(bytes, (byte) 0xff);
+                }
+            });
+            assertEquals("/////////////////////w==", XmlUtil.createGUID());
+            assertEquals("urn:uuid:ffffffff-ffff-4fff-bfff-ffffffffffff", XmlUtil.generateUUID());
+            assertEquals("_ffffffff-ffff-4fff-bfff-ffffffffffff", XmlUtil.generateRandomNCName());
+            assertTrue(XmlUtil.toHex(XmlUtil.fromBase64(XmlUtil.createNonce())).endsWith("FFFFFFFFFFFFFFFF534F5349"));
+        } finally {
+            XmlUtil.setRandomSource(defaultSource);
+        }
+    }
+
+    public void testTransformerPoolCanBeDisabled() {
+        Properties outputProperties = new Properties();
+        assertTrue(TransformerPool.isEnabled());
+        Transformer transformer = TransformerPool.borrow(outputProperties);
+        TransformerPool.release(outputProperties, transformer);
+        assertSame(transformer, TransformerPool.borrow(outputProperties));
+        TransformerPool.release(outputProperties, transformer);
+
+        TransformerPool.setEnabled(false);
+        try {
+            assertNotSame(transformer, TransformerPool.borrow(outputProperties));
+            transformer = TransformerPool.borrow(outputProperties);
+            TransformerPool.release(outputProperties, transformer);
+            assertNotSame(transformer, TransformerPool.borrow(outputProperties));
+
+            Document doc = XmlUtil.createEmptyDocument();
+            doc.appendChild(doc.createElement("SomeXML"));
+            assertTrue(XmlUtil.node2String(doc).endsWith("<SomeXML/>"));
+        } finally {
+            TransformerPool.setEnabled(true);
+        }
+    }
+
+    public void testCreateRandomSource() {
+        assertTrue(XmlUtil.createRandomSource(null) instanceof SecureRandomSource);
+        assertTrue(XmlUtil.createRandomSource(ThreadLocalRandomSource.class.getName()) instanceof ThreadLocalRandomSource);
+        // A bad configuration must not break the initialization of XmlUtil
+        assertTrue(XmlUtil.createRandomSource("dk.sosi.seal.xml.NoSuchRandomSource") instanceof SecureRandomSource);
+        assertTrue(XmlUtil.createRandomSource(String.class.getName()) instanceof SecureRandomSource);
+    }
+
+    public void testThreadLocalRandomSource() {
+        RandomSource source = new ThreadLocalRandomSource(40);
+        Set<String> values = new HashSet<String>();
+        for (int i = 0; i < 100; i++) {
+            byte[] bytes = new byte[i % 2 == 0 ? 16 : 48];
+            source.nextBytes(bytes);
+            assertTrue(values.add(XmlUtil.toHex(bytes)));
+        }
+        UUID uuid = UUID.fromString(XmlUtil.generateUUID().substring("urn:uuid:".length()));
+        assertEquals(4, uuid.version());
+        assertEquals(2, uuid.variant());
+    }
+
+    public void testElementPath() throws Exception {
+        Document doc = XmlUtil.readXml(properties, DGWS_LEVEL4, false);
+        ModelPrefixResolver resolver = new ModelPrefixResolver();
+        String[] paths = {
+                "/soapenv:Envelope/soapenv:Header",
+                "//wsu:Timestamp",
+                "//saml:AttributeStatement[@id='IDCardData']",
+                "//saml:Attribute[@Name=\"sosi:IDCardID\"]/saml:AttributeValue",
+                "/soapenv:Envelope/soapenv:Body/*",
+                "/soapenv:Envelope/soapenv:Body/soapenv:Fault"
+        };
+        for (String path : paths) {
+            assertSame(path, XmlUtil.selectSingleElement(doc, path, resolver, false), new ElementPath(path, resolver).selectSingleElement(doc, false));
+        }
+
+        Element header = new ElementPath("/soapenv:Envelope/soapenv:Header", resolver).selectSingleElement(doc, true);
+        String relative = "wsse:Security/wsu:Timestamp/wsu:Created";
+        Element created = new ElementPath(relative, resolver).selectSingleElement(header, true);
+        assertSame(XmlUtil.selectSingleElement(header, relative, resolver, true), created);
+        // Absolute paths are evaluated from the document whatever the starting node
+        assertSame(header, new ElementPath("/soapenv:Envelope/soapenv:Header", resolver).selectSingleElement(created, true));
+        assertNull(new ElementPath(relative, resolver).selectSingleElement(null, false));
+
+        try {
+            new ElementPath("//saml:Attribute", resolver).selectSingleElement(doc, true);
+            fail("Expected XmlUtilException");
+        } catch (XmlUtilException e) {
+            int count = doc.getElementsByTagNameNS(NameSpaces.SAML2ASSERTION_SCHEMA, "Attribute").getLength();
+            assertTrue(count > 2);
+            assertEquals("Expected 1 XML element matching path '//saml:Attribute' starting from 'null:null' (prefixes are resolved and may be different in actual XML). Found " + count + ".", e.getMessage());
+        }
+
+        String[] unsupported = { "", "soapenv:Envelope/", "soapenv:Envelope//soapenv:Header", "soapenv:Envelope[1]", "text()" };
+        for (String path : unsupported) {
+            try {
+                new ElementPath(path, resolver);
+                fail("Expected IllegalArgumentException for " + path);
+            } catch (IllegalArgumentException e) {
+                assertEquals("Unsupported path expression '" + path + "'", e.getMessage());
+            }
+        }
+    }
+
+    public void testEnvelopeSplitter() throws Exception {
+        String envelope = "<?xml version=\"1.0\"?>\r\n<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\">\r\n"
+                + "<soap:Header><x>\uD83D\uDE00</x></soap:Header>\r"
+                + "<soap:Body\n id=\"body\"><a><soap:Body/></a><b/></soap:Body >\n</soap:Envelope>";
+        EnvelopeSplitter splitter = EnvelopeSplitter.split(envelope);
+        assertEquals(envelope, splitter.getEnvelope());
+        assertEquals("<a><soap:Body/></a><b/>", splitter.getBodyContent());
+        String withoutBody = splitter.getEnvelopeWithoutBody();
+        assertEquals(envelope.replace("<a><soap:Body/></a><b/>", ""), withoutBody);
+        Document doc = XmlUtil.readXml(properties, withoutBody, false);
+        assertEquals(0, doc.getElementsByTagNameNS(NameSpaces.SOAP_SCHEMA, "Body").item(0).getChildNodes().getLength());
+
+        String empty = "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header/><soap:Body/></soap:Envelope>";
+        splitter = EnvelopeSplitter.split(empty);
+        assertEquals("", splitter.getBodyContent());
+        assertEquals(empty, splitter.getEnvelopeWithoutBody());
+
+        String[] invalid = {
+                "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header></soap:Envelope>",
+                "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header/></soap:Envelope>",
+                "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header/><soap:Body>",
+                // The body must end right before the end of the envelope
+                "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header/><soap:Body><a/></soap:Body></soap:Envelope><!-- </soap:Body> -->",
+                "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header/><soap:Body><a/></soap:Body><b/></soap:Envelope>",
+                "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header/><soap:Body/><b/></soap:Envelope>"
+        };
+        for (String xml : invalid) {
+            try {
+                EnvelopeSplitter.split(xml);
+                fail("Expected XmlUtilException for " + xml);
+            } catch (XmlUtilException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testEnvelopeSplitterRejectsDoctype() throws Exception {
+        File missing = new File(System.getProperty("java.io.tmpdir"), "seal-missing-entity.xml");
+        String[] doctypes = {
+                "<!DOCTYPE soap:Envelope [<!ENTITY e SYSTEM \"" + missing.toURI() + "\">]>",
+                "<!DOCTYPE soap:Envelope [<!ENTITY % p SYSTEM \"" + missing.toURI() + "\"> %p;]>",
+                "<!DOCTYPE soap:Envelope [<!ENTITY e \"internal\">]>"
+        };
+        for (String doctype : doctypes) {
+            String xml = doctype + "<soap:Envelope xmlns:soap=\"" + NameSpaces.SOAP_SCHEMA + "\"><soap:Header><x>&e;</x></soap:Header><soap:Body/></soap:Envelope>";
+            try {
+                EnvelopeSplitter.split(xml);
+                fail("Expected XmlUtilException for " + xml);
+            } catch (XmlUtilException e) {
+                // The declaration itself is rejected, before any entity is resolved
+                assertTrue(e.getCause() instanceof SAXParseException);
+            }
+        }
+    }
+
     // ===========================
     //	Private parts
     // ===========================